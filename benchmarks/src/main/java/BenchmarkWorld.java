@@ -0,0 +1,57 @@
+// A BenchmarkWorld is a seeded field of satellites for the benchmarks to work on.
+
+// The satellites are made the same way the options window makes them: a mass of 2 to 12, a radius
+// equal to the mass, and a starting velocity of -0.5 to 0.5 each way. They are spread evenly over
+// the given area, with no Earth or Moon, so the results depend only on the body count and the seed.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class BenchmarkWorld {
+
+	// The area per body the physics benchmarks spread the satellites over, so the number of
+	// neighbours each body has stays the same from 100 bodies to 100k.
+	static final double SPACING = 40;
+
+	final BodyStore store = new BodyStore();
+	final List<PlanetaryBody> bodies = new ArrayList<PlanetaryBody>();
+
+	// The positions and velocities kept by keepStart(), in the store's column order.
+	private double[][] start;
+
+	// Constructor
+	BenchmarkWorld(int count, long seed) {
+		this(count, seed, Math.sqrt(count) * SPACING, Math.sqrt(count) * SPACING);
+	}
+
+	BenchmarkWorld(int count, long seed, double width, double height) {
+		PlanetaryBody.setAudioEnabled(false);
+		Random random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			int mass = 2 + random.nextInt(11);
+			PlanetaryBody pb = new PlanetaryBody(store, "Satellite " + i, mass, mass,
+					random.nextDouble() * width, random.nextDouble() * height, false, false);
+			pb.setVelocityX((random.nextDouble() * 2 - 1) * 0.5);
+			pb.setVelocityY((random.nextDouble() * 2 - 1) * 0.5);
+			bodies.add(pb);
+		}
+		store.setWorldSize(width, height);
+	}
+
+	// Remembers where the bodies are and how they move, for backToStart().
+	void keepStart() {
+		int n = store.size();
+		start = new double[][] { Arrays.copyOf(store.x, n), Arrays.copyOf(store.y, n),
+				Arrays.copyOf(store.vx, n), Arrays.copyOf(store.vy, n) };
+	}
+
+	// Puts the bodies back where keepStart() found them, moving as they were then.
+	void backToStart() {
+		double[][] now = { store.x, store.y, store.vx, store.vy };
+		for (int c = 0; c < now.length; c++) {
+			System.arraycopy(start[c], 0, now[c], 0, start[c].length);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+// Bounces bodies/2 disjoint pairs of bodies off each other once.
+
+// Each pair overlaps a little and closes in along the line between the two, the way the collision
+// detectors find them, so every call does the whole bounce and pushes the pair apart. reset() puts
+// the pairs back before the next call.
+
+import java.util.Random;
+
+public class BounceWorkload implements benchmarks.Workload {
+
+	// How far into each other the bodies of a pair start, as a share of the distance they touch at.
+	private static final double OVERLAP = 0.1;
+
+	private BenchmarkWorld world;
+
+	public void setUp(int bodies, long seed, String variant) {
+		world = new BenchmarkWorld(bodies, seed);
+		Random random = new Random(seed);
+		for (int i = 0; i + 1 < world.bodies.size(); i += 2) {
+			PlanetaryBody a = world.bodies.get(i);
+			PlanetaryBody b = world.bodies.get(i + 1);
+			double angle = random.nextDouble() * 2 * Math.PI;
+			double nx = Math.cos(angle);
+			double ny = Math.sin(angle);
+			double distance = (1 - OVERLAP) * (a.getRadius() + b.getRadius()) / 2;
+			b.setX(a.getX() + nx * distance);
+			b.setY(a.getY() + ny * distance);
+			// b comes towards a at 0.1 to 1 pixel per tick faster than a moves towards it.
+			double closing = 0.1 + random.nextDouble() * 0.9;
+			b.setVelocityX(a.getVelocityX() - nx * closing);
+			b.setVelocityY(a.getVelocityY() - ny * closing);
+		}
+		world.keepStart();
+	}
+
+	public Object run() {
+		for (int i = 0; i + 1 < world.bodies.size(); i += 2) {
+			PlanetaryBody a = world.bodies.get(i);
+			a.collisionBounce(a, world.bodies.get(i + 1));
+		}
+		return world.store.vx;
+	}
+
+	public void reset() {
+		world.backToStart();
+	}
+
+	public void tearDown() {
+	}
+}
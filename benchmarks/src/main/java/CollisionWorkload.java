@@ -0,0 +1,61 @@
+// Finds and bounces every touching pair once, by polling the spatial hash or by predicting contacts.
+
+// Each run is one step of a short stretch of motion: the detector bounces the contacts of the step,
+// then reset() moves the bodies on by the step, without gravity, and the predictor's clock with them.
+// After a prediction horizon of steps the bodies are put back as they started, so the runs repeat the
+// same steps, and the predictive detector is timed over a whole horizon, rebuild included.
+
+public class CollisionWorkload implements benchmarks.Workload {
+
+	private BenchmarkWorld world;
+	private SimulationEngine engine;
+	private CollisionPredictor predictor;
+	private int step;
+
+	public void setUp(int bodies, long seed, String variant) {
+		world = new BenchmarkWorld(bodies, seed);
+		for (PlanetaryBody pb : world.bodies) {
+			pb.setUseCollisions(true);
+		}
+		world.keepStart();
+		engine = new SimulationEngine(world.store, world.bodies);
+		if ("predictive".equals(variant)) {
+			predictor = new CollisionPredictor();
+		} else if (!"polled".equals(variant)) {
+			throw new IllegalArgumentException("no such detector: " + variant);
+		}
+	}
+
+	public Object run() {
+		int n = world.store.size();
+		if (predictor != null) {
+			predictor.step(world.store, n, step, 1, (i, j) -> {
+				PlanetaryBody a = world.bodies.get(i);
+				a.bounceApart(a, world.bodies.get(j));
+			});
+		} else {
+			engine.detectCollisions(n);
+		}
+		return world.store.vx;
+	}
+
+	public void reset() {
+		if (++step == CollisionPredictor.DEFAULT_HORIZON) {
+			world.backToStart();
+			if (predictor != null) {
+				predictor.reset();
+			}
+			step = 0;
+			return;
+		}
+		BodyStore store = world.store;
+		for (int i = 0, n = store.size(); i < n; i++) {
+			store.x[i] += store.vx[i];
+			store.y[i] += store.vy[i];
+		}
+	}
+
+	public void tearDown() {
+		engine.shutdown();
+	}
+}
@@ -0,0 +1,37 @@
+// Works out the pull on every body once, with the solver named by the variant.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class GravityWorkload implements benchmarks.Workload {
+
+	private BenchmarkWorld world;
+	private GravitySolver solver;
+	private ForkJoinPool pool;
+	private double[] pullX;
+	private double[] pullY;
+
+	public void setUp(int bodies, long seed, String variant) {
+		world = new BenchmarkWorld(bodies, seed);
+		GravitySolver[] solvers = { new DirectSumSolver(), new BarnesHutSolver(), new ParticleMeshSolver() };
+		for (GravitySolver s : solvers) {
+			if (s.getName().equals(variant)) {
+				solver = s;
+			}
+		}
+		if (solver == null) {
+			throw new IllegalArgumentException("no such solver: " + variant);
+		}
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		pullX = new double[bodies];
+		pullY = new double[bodies];
+	}
+
+	public Object run() {
+		solver.computePull(world.store, world.store.size(), pullX, pullY, pool);
+		return pullX;
+	}
+
+	public void tearDown() {
+		pool.shutdown();
+	}
+}
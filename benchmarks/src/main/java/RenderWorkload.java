@@ -0,0 +1,60 @@
+// Draws one frame of the scene into an offscreen 1920x1080 image, from a published snapshot,
+// with Java2D shapes or with the PixelRasterizer.
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+public class RenderWorkload implements benchmarks.Workload {
+
+	private static final int WIDTH = 1920;
+	private static final int HEIGHT = 1080;
+
+	private SimulationEngine engine;
+	private WorldSnapshot snapshot;
+	private BufferedImage image;
+	private Graphics2D graphics;
+	private Graphics scene;
+	private SceneRenderer renderer;
+	private PixelRasterizer rasterizer;
+	private ForkJoinPool pool;
+
+	public void setUp(int bodies, long seed, String variant) {
+		if ("pixels".equals(variant)) {
+			rasterizer = new PixelRasterizer();
+			pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		} else if (!"shapes".equals(variant)) {
+			throw new IllegalArgumentException("no such renderer: " + variant);
+		}
+		BenchmarkWorld world = new BenchmarkWorld(bodies, seed, WIDTH, HEIGHT);
+		engine = new SimulationEngine(world.store, world.bodies);
+		engine.tick();
+		snapshot = engine.getSnapshots().acquire();
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+		// The area Main paints the scene in: below the top button panel and above the bottom one.
+		scene = graphics.create(0, 35, WIDTH, HEIGHT - 70);
+		renderer = new SceneRenderer();
+	}
+
+	public Object run() {
+		if (rasterizer != null) {
+			scene.drawImage(rasterizer.render(snapshot, 0, 35, 1, WIDTH, HEIGHT - 70, pool), 0, 0, null);
+			return image;
+		}
+		renderer.drawBackground(scene, 0, 0, WIDTH, HEIGHT - 70);
+		renderer.drawBodies(scene, snapshot, 0, 35, 1, WIDTH, HEIGHT - 70);
+		return image;
+	}
+
+	public void tearDown() {
+		scene.dispose();
+		graphics.dispose();
+		if (pool != null) {
+			pool.shutdown();
+		}
+		engine.getSnapshots().release(snapshot);
+		engine.shutdown();
+	}
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+// Finding and bouncing every touching pair, by polling the spatial hash or by predicting contacts.
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollisionBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int bodies;
+
+	@Param({ "polled", "predictive" })
+	public String detector;
+
+	@Param({ "42" })
+	public long seed;
+
+	private Workload workload;
+
+	@Setup
+	public void setUp() {
+		workload = Workload.create("CollisionWorkload");
+		workload.setUp(bodies, seed, detector);
+	}
+
+	// Each run changes the bodies it works on, so they are put back before the next one.
+	@Setup(Level.Invocation)
+	public void reset() {
+		workload.reset();
+	}
+
+	@TearDown
+	public void tearDown() {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object detect() {
+		return workload.run();
+	}
+}
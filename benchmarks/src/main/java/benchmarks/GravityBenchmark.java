@@ -0,0 +1,54 @@
+package benchmarks;
+
+// The pull of every body on every other, with each solver.
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GravityBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int bodies;
+
+	@Param({ "Direct Sum", "Barnes-Hut", "Particle Mesh" })
+	public String solver;
+
+	@Param({ "42" })
+	public long seed;
+
+	private Workload workload;
+
+	@Setup
+	public void setUp() {
+		workload = Workload.create("GravityWorkload");
+		workload.setUp(bodies, seed, solver);
+	}
+
+	@TearDown
+	public void tearDown() {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object pull() {
+		return workload.run();
+	}
+}
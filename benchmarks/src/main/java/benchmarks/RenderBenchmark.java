@@ -0,0 +1,55 @@
+package benchmarks;
+
+// Drawing one frame of the scene into an offscreen 1920x1080 image.
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int bodies;
+
+	// How the frame is drawn.
+	@Param({ "shapes", "pixels" })
+	public String renderer;
+
+	@Param({ "42" })
+	public long seed;
+
+	private Workload workload;
+
+	@Setup
+	public void setUp() {
+		workload = Workload.create("RenderWorkload");
+		workload.setUp(bodies, seed, renderer);
+	}
+
+	@TearDown
+	public void tearDown() {
+		workload.tearDown();
+	}
+
+	@Benchmark
+	public Object render() {
+		return workload.run();
+	}
+}
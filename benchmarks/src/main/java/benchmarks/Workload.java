@@ -0,0 +1,30 @@
+package benchmarks;
+
+// A Workload is one piece of the simulation, set up and run by a benchmark.
+
+// The simulation lives in the default package, and code in a named package (such as the code
+// JMH generates) cannot refer to it. So each workload is written in the default package against
+// this interface, and the benchmarks load it by name.
+
+public interface Workload {
+
+	// Builds a world of the given number of bodies from the seed. Not timed.
+	void setUp(int bodies, long seed, String variant);
+
+	// Does one unit of work. The result is handed back so the JIT can't throw the work away.
+	Object run();
+
+	// Gets the world ready for the next run, for the workloads that change it. Not timed.
+	default void reset() {
+	}
+
+	void tearDown();
+
+	static Workload create(String className) {
+		try {
+			return (Workload)Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("cannot create workload " + className, e);
+		}
+	}
+}
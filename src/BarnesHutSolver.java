@@ -0,0 +1,351 @@
+// The BarnesHutSolver approximates gravity with a quadtree, in O(N log N) per tick instead of O(N^2).
+
+// Every tick the tree is rebuilt from the positions of the gravity-enabled bodies, and each node
+// keeps the total mass and centre of mass of the bodies under it. When a node looks small enough
+// from where a body sits (its width divided by the distance is below the opening angle theta),
+// its whole mass pulls from the centre of mass in one step instead of body by body.
+// Smaller theta is more accurate and slower. theta = 0 visits every body, like the direct sum.
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class BarnesHutSolver implements GravitySolver {
+
+	public static final double DEFAULT_THETA = 0.5;
+
+	// Bodies closer together than this many halvings of the root share a leaf instead of splitting forever.
+	private static final int MAX_DEPTH = 48;
+
+	private volatile double theta;
+
+	// The nodes, in parallel columns. The 4 children of a node are consecutive, starting at firstChild.
+	private int[] firstChild = new int[0];  // -1 for a leaf.
+	private int[] firstBody = new int[0];   // The first body in a leaf, or -1.
+	private double[] centerX = new double[0];
+	private double[] centerY = new double[0];
+	private double[] halfSize = new double[0];
+	private double[] nodeMass = new double[0];
+	private double[] comX = new double[0];
+	private double[] comY = new double[0];
+	private int nodeCount;
+
+	// The bodies that share a leaf form a linked list through nextBody.
+	private int[] nextBody = new int[0];
+
+	// Constructor
+	public BarnesHutSolver() {
+		this(DEFAULT_THETA);
+	}
+
+	public BarnesHutSolver(double theta) {
+		setTheta(theta);
+	}
+
+	public String getName() {
+		return "Barnes-Hut";
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	public void setTheta(double theta) {
+		if (theta < 0) {
+			throw new IllegalArgumentException("theta must not be negative");
+		}
+		this.theta = theta;
+	}
+
+	public void computePull(BodyStore store, int n, double[] pullX, double[] pullY, ForkJoinPool pool) {
+		computePull(store, n, null, n, pullX, pullY, pool);
+	}
+
+	// The tree is still built from every body, but only the active bodies walk it.
+	// A null active list means every body in [0, n).
+	public void computePull(BodyStore store, int n, int[] active, int count, double[] pullX, double[] pullY, ForkJoinPool pool) {
+		if (!build(store, n)) {
+			for (int k = 0; k < count; k++) {
+				int i = active == null ? k : active[k];
+				pullX[i] = 0;
+				pullY[i] = 0;
+			}
+			return;
+		}
+
+		double thetaSquared = theta * theta;
+		double divisor = store.getGravityDivisor();
+		ParallelLoop.forEach(pool, count, (from, to) -> {
+			int[] stack = new int[3 * MAX_DEPTH + 4];
+			for (int k = from; k < to; k++) {
+				accumulate(store, active == null ? k : active[k], thetaSquared, divisor, stack, pullX, pullY);
+			}
+		});
+	}
+
+	// Every body walks the tree as it does for its pull, and a node far enough away counts as one body.
+	public double computePotential(BodyStore store, int n, ForkJoinPool pool) {
+		if (!build(store, n)) {
+			return 0;
+		}
+
+		double thetaSquared = theta * theta;
+		double[] sums = ParallelLoop.sum(pool, n, 1, (from, to, total) -> {
+			int[] stack = new int[3 * MAX_DEPTH + 4];
+			for (int i = from; i < to; i++) {
+				total[0] += BodyStore.potentialMass(store.flags[i], store.mass[i]) * potential(store, i, thetaSquared, stack);
+			}
+		});
+		return -gravitationalConstant * sums[0] / store.getGravityDivisor();
+	}
+
+	// Rebuilds the tree from the gravity-enabled bodies. Returns false if there are none.
+	private boolean build(BodyStore store, int n) {
+		double[] x = store.x;
+		double[] y = store.y;
+		int[] flags = store.flags;
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		int sources = 0;
+		for (int i = 0; i < n; i++) {
+			if (BodyStore.pullsOthers(flags[i])) {
+				minX = Math.min(minX, x[i]);
+				minY = Math.min(minY, y[i]);
+				maxX = Math.max(maxX, x[i]);
+				maxY = Math.max(maxY, y[i]);
+				sources++;
+			}
+		}
+		if (sources == 0) {
+			return false;
+		}
+
+		if (nextBody.length < n) {
+			nextBody = new int[n];
+		}
+		nodeCount = 0;
+		ensureNodeCapacity(4 * sources + 1);
+		int root = newNode((minX + maxX) / 2, (minY + maxY) / 2, Math.max(Math.max(maxX - minX, maxY - minY) / 2, 1));
+
+		for (int i = 0; i < n; i++) {
+			if (BodyStore.pullsOthers(flags[i])) {
+				insert(root, i, x, y);
+			}
+		}
+
+		// Children always come after their parent, so walking backwards sums every subtree before its parent.
+		double[] mass = store.mass;
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			double m = 0;
+			double mx = 0;
+			double my = 0;
+			int child = firstChild[node];
+			if (child < 0) {
+				for (int b = firstBody[node]; b >= 0; b = nextBody[b]) {
+					m += mass[b];
+					mx += mass[b] * x[b];
+					my += mass[b] * y[b];
+				}
+			} else {
+				for (int c = child; c < child + 4; c++) {
+					m += nodeMass[c];
+					mx += nodeMass[c] * comX[c];
+					my += nodeMass[c] * comY[c];
+				}
+			}
+			nodeMass[node] = m;
+			comX[node] = m != 0 ? mx / m : centerX[node];
+			comY[node] = m != 0 ? my / m : centerY[node];
+		}
+		return true;
+	}
+
+	private void insert(int node, int body, double[] x, double[] y) {
+		nextBody[body] = -1;
+		for (int depth = 0; ; depth++) {
+			if (firstChild[node] < 0) {
+				int resident = firstBody[node];
+				if (resident < 0) {
+					firstBody[node] = body;
+					return;
+				}
+				if (depth >= MAX_DEPTH) {
+					nextBody[body] = resident;
+					firstBody[node] = body;
+					return;
+				}
+
+				// Split the leaf and move its one resident down into the matching child.
+				subdivide(node);
+				firstBody[node] = -1;
+				firstBody[quadrant(node, x[resident], y[resident])] = resident;
+			}
+			node = quadrant(node, x[body], y[body]);
+		}
+	}
+
+	private void subdivide(int node) {
+		double quarter = halfSize[node] / 2;
+		double cx = centerX[node];
+		double cy = centerY[node];
+		ensureNodeCapacity(nodeCount + 4);
+		firstChild[node] = nodeCount;
+		newNode(cx - quarter, cy - quarter, quarter);
+		newNode(cx + quarter, cy - quarter, quarter);
+		newNode(cx - quarter, cy + quarter, quarter);
+		newNode(cx + quarter, cy + quarter, quarter);
+	}
+
+	private int quadrant(int node, double px, double py) {
+		int child = firstChild[node];
+		if (px >= centerX[node]) {
+			child += 1;
+		}
+		if (py >= centerY[node]) {
+			child += 2;
+		}
+		return child;
+	}
+
+	private int newNode(double cx, double cy, double half) {
+		int node = nodeCount++;
+		firstChild[node] = -1;
+		firstBody[node] = -1;
+		centerX[node] = cx;
+		centerY[node] = cy;
+		halfSize[node] = half;
+		return node;
+	}
+
+	private void ensureNodeCapacity(int capacity) {
+		if (firstChild.length >= capacity) {
+			return;
+		}
+		capacity = Math.max(capacity, firstChild.length * 2);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		firstBody = Arrays.copyOf(firstBody, capacity);
+		centerX = Arrays.copyOf(centerX, capacity);
+		centerY = Arrays.copyOf(centerY, capacity);
+		halfSize = Arrays.copyOf(halfSize, capacity);
+		nodeMass = Arrays.copyOf(nodeMass, capacity);
+		comX = Arrays.copyOf(comX, capacity);
+		comY = Arrays.copyOf(comY, capacity);
+	}
+
+	// Walks the tree from the root and adds up the pull on body i.
+	private void accumulate(BodyStore store, int i, double thetaSquared, double divisor, int[] stack,
+			double[] pullX, double[] pullY) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] mass = store.mass;
+		double[] radius = store.radius;
+
+		double px = x[i];
+		double py = y[i];
+		double pr = radius[i];
+		double sumX = 0;
+		double sumY = 0;
+
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (nodeMass[node] == 0) {
+				continue;
+			}
+
+			int child = firstChild[node];
+			if (child < 0) {
+				// A leaf: the same pair rule as the direct sum, body by body.
+				for (int j = firstBody[node]; j >= 0; j = nextBody[j]) {
+					if (j == i) {
+						continue;
+					}
+					double xDir = px - x[j];
+					double yDir = py - y[j];
+					double combinedRadius = radius[j] + pr;
+					if (Math.abs(xDir) > combinedRadius && Math.abs(yDir) > combinedRadius) {
+						double pull = gravitationalConstant * (mass[j] / (xDir * xDir + yDir * yDir));
+						sumX += pull * xDir;
+						sumY += pull * yDir;
+					}
+				}
+				continue;
+			}
+
+			double xDir = px - comX[node];
+			double yDir = py - comY[node];
+			double distanceSquared = xDir * xDir + yDir * yDir;
+			double width = 2 * halfSize[node];
+			if (width * width < thetaSquared * distanceSquared) {
+				// Far enough away: the node's whole mass pulls from its centre of mass.
+				double pull = gravitationalConstant * (nodeMass[node] / distanceSquared);
+				sumX += pull * xDir;
+				sumY += pull * yDir;
+			} else {
+				stack[top++] = child;
+				stack[top++] = child + 1;
+				stack[top++] = child + 2;
+				stack[top++] = child + 3;
+			}
+		}
+
+		pullX[i] = sumX / divisor;
+		pullY[i] = sumY / divisor;
+	}
+
+	// Walks the tree like accumulate(), and adds up mass times the log of the distance instead of the pull.
+	private double potential(BodyStore store, int i, double thetaSquared, int[] stack) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] mass = store.mass;
+		double[] radius = store.radius;
+
+		double px = x[i];
+		double py = y[i];
+		double pr = radius[i];
+		double sum = 0;
+
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (nodeMass[node] == 0) {
+				continue;
+			}
+
+			int child = firstChild[node];
+			if (child < 0) {
+				for (int j = firstBody[node]; j >= 0; j = nextBody[j]) {
+					if (j == i) {
+						continue;
+					}
+					double xDir = px - x[j];
+					double yDir = py - y[j];
+					double combinedRadius = radius[j] + pr;
+					double distanceSquared = xDir * xDir + yDir * yDir;
+					if (distanceSquared > combinedRadius * combinedRadius) {
+						sum += mass[j] * 0.5 * Math.log(distanceSquared);
+					}
+				}
+				continue;
+			}
+
+			double xDir = px - comX[node];
+			double yDir = py - comY[node];
+			double distanceSquared = xDir * xDir + yDir * yDir;
+			double width = 2 * halfSize[node];
+			if (width * width < thetaSquared * distanceSquared) {
+				sum += nodeMass[node] * 0.5 * Math.log(distanceSquared);
+			} else {
+				stack[top++] = child;
+				stack[top++] = child + 1;
+				stack[top++] = child + 2;
+				stack[top++] = child + 3;
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,249 @@
+// The BlockTimestepIntegrator gives every body its own step size, so only the bodies that need small steps pay for them.
+
+// A satellite skimming the Earth needs much smaller steps than one drifting at the edge of the
+// screen, but with one step size for everyone, everyone pays for the worst case. Here each engine
+// step of dt is a block, and each body is put on a level k where it takes 2^k steps of dt / 2^k
+// within the block. The levels nest, so every body is back in step at the end of each block.
+//
+// The level comes from how quickly the body's surroundings change: the time to fall across the gap
+// to its nearest neighbour, sqrt(gap / |a|), and the time to coast across it, gap / |v|. The step
+// must be no more than the accuracy times the shorter of the two. Levels are chosen at the start
+// of each block, when every body is in step.
+//
+// Within a block the finest level sets the beat. Each beat, every body drifts (which is cheap),
+// but only the bodies whose own step ends on that beat get a new pull from the solver and their
+// closing kick. Each body's step is a kick-drift-kick leapfrog, so a block where everyone is on
+// level 0 is exactly one LeapfrogIntegrator step.
+//
+// Bodies without inertia always stay on level 0. They forget their velocity anyway.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class BlockTimestepIntegrator implements Integrator {
+
+	public static final int DEFAULT_MAX_LEVEL = 6;
+	public static final double DEFAULT_ACCURACY = 0.25;
+
+	private volatile int maxLevel;
+	private volatile double accuracy;
+
+	// Each body's level for the current block, and the bodies that get a new pull on the current beat.
+	private int[] level = new int[0];
+	private int[] active = new int[0];
+	private int deepestLevel;
+
+	// Finds each body's nearest neighbour.
+	private final SpatialHashGrid grid = new SpatialHashGrid();
+	private double[] gap = new double[0];
+
+	// Constructor
+	public BlockTimestepIntegrator() {
+		this(DEFAULT_MAX_LEVEL, DEFAULT_ACCURACY);
+	}
+
+	public BlockTimestepIntegrator(int maxLevel, double accuracy) {
+		setMaxLevel(maxLevel);
+		setAccuracy(accuracy);
+	}
+
+	public String getName() {
+		return "Block Timesteps";
+	}
+
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+
+	// The finest level. Bodies on it take 2^maxLevel steps per block.
+	public void setMaxLevel(int maxLevel) {
+		if (maxLevel < 0 || maxLevel > 20) {
+			throw new IllegalArgumentException("max level must be between 0 and 20: " + maxLevel);
+		}
+		this.maxLevel = maxLevel;
+	}
+
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	// Smaller is more accurate, and puts more bodies on finer levels.
+	public void setAccuracy(double accuracy) {
+		if (!(accuracy > 0)) {
+			throw new IllegalArgumentException("accuracy must be positive: " + accuracy);
+		}
+		this.accuracy = accuracy;
+	}
+
+	// The finest level any body was on during the last block.
+	public int getDeepestLevel() {
+		return deepestLevel;
+	}
+
+	public void step(BodyStore store, int n, double dt, Forces forces, ForkJoinPool pool) {
+		// Wrap first, so the bodies that wrap are kicked with the pull where they land. Slow bodies
+		// keep this pull for their whole block, so it must be worked out afresh after anything changed.
+		ParallelLoop.forEach(pool, n, (from, to) -> store.wrapPositions(from, to));
+		if (!store.accelerationCurrent) {
+			forces.evaluate();
+		}
+		if (level.length < n) {
+			level = new int[n];
+			active = new int[n];
+			gap = new double[n];
+		}
+		int deepest = assignLevels(store, n, dt, pool);
+		deepestLevel = deepest;
+
+		int beats = 1 << deepest;
+		double beat = dt / beats;
+		int[] flags = store.flags;
+
+		for (int b = 0; b < beats; b++) {
+			int now = b;
+
+			// Opening half kick, for the bodies whose step starts on this beat.
+			ParallelLoop.forEach(pool, n, (from, to) -> {
+				double[] vx = store.vx;
+				double[] vy = store.vy;
+				double[] ax = store.ax;
+				double[] ay = store.ay;
+				for (int i = from; i < to; i++) {
+					int stride = beats >> level[i];
+					if (now % stride == 0 && (flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+						double halfStep = stride * beat / 2;
+						vx[i] += ax[i] * halfStep;
+						vy[i] += ay[i] * halfStep;
+					}
+				}
+			});
+
+			// Drift every body by one beat.
+			ParallelLoop.forEach(pool, n, (from, to) -> {
+				double[] x = store.x;
+				double[] y = store.y;
+				double[] vx = store.vx;
+				double[] vy = store.vy;
+				double[] ax = store.ax;
+				double[] ay = store.ay;
+				for (int i = from; i < to; i++) {
+					if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+						x[i] += vx[i] * beat;
+						y[i] += vy[i] * beat;
+					} else {
+						// Spread the a * dt^2 of a body without inertia evenly over the block.
+						x[i] += ax[i] * dt * beat;
+						y[i] += ay[i] * dt * beat;
+					}
+				}
+			});
+
+			// New pull and closing half kick, for the bodies whose step ends on this beat.
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				if ((now + 1) % (beats >> level[i]) == 0) {
+					active[count++] = i;
+				}
+			}
+			forces.evaluate(active, count);
+			int activeCount = count;
+			ParallelLoop.forEach(pool, activeCount, (from, to) -> {
+				double[] vx = store.vx;
+				double[] vy = store.vy;
+				double[] ax = store.ax;
+				double[] ay = store.ay;
+				for (int k = from; k < to; k++) {
+					int i = active[k];
+					if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+						double halfStep = (beats >> level[i]) * beat / 2;
+						vx[i] += ax[i] * halfStep;
+						vy[i] += ay[i] * halfStep;
+					}
+				}
+			});
+		}
+
+		// Every body's step ends on the last beat, so every body now has the pull at its new position.
+		store.accelerationCurrent = true;
+	}
+
+	// Puts every body on the coarsest level that is fine enough for it, and returns the finest level used.
+	private int assignLevels(BodyStore store, int n, double dt, ForkJoinPool pool) {
+		findGaps(store, n, pool);
+		int top = maxLevel;
+		double eta = accuracy;
+
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			double[] vx = store.vx;
+			double[] vy = store.vy;
+			double[] ax = store.ax;
+			double[] ay = store.ay;
+			int[] flags = store.flags;
+			for (int i = from; i < to; i++) {
+				if ((flags[i] & BodyStore.FLAG_INERTIA) == 0) {
+					level[i] = 0;
+					continue;
+				}
+				double acceleration = Math.hypot(ax[i], ay[i]);
+				double speed = Math.hypot(vx[i], vy[i]);
+				double fall = acceleration > 0 ? Math.sqrt(gap[i] / acceleration) : Double.POSITIVE_INFINITY;
+				double coast = speed > 0 ? gap[i] / speed : Double.POSITIVE_INFINITY;
+				double wanted = eta * Math.min(fall, coast);
+
+				int k = 0;
+				while (k < top && dt / (1 << k) > wanted) {
+					k++;
+				}
+				level[i] = k;
+			}
+		});
+
+		int deepest = 0;
+		for (int i = 0; i < n; i++) {
+			deepest = Math.max(deepest, level[i]);
+		}
+		return deepest;
+	}
+
+	// Works out the gap between each body's edge and the edge of its nearest neighbour, at least one pixel.
+	// Bodies with no neighbour close enough to find are given the distance they are known to be clear by.
+	private void findGaps(BodyStore store, int n, ForkJoinPool pool) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] radius = store.radius;
+
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		double maxRadius = 0;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+			maxRadius = Math.max(maxRadius, radius[i]);
+		}
+
+		// Cells about twice the average spacing put a few dozen bodies in each 3x3 block of cells.
+		double area = Math.max(maxX - minX, 1) * Math.max(maxY - minY, 1);
+		double largest = maxRadius;
+		double cellSize = Math.max(maxRadius, 2 * Math.sqrt(area / Math.max(n, 1)));
+		grid.build(x, y, n, cellSize);
+
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			double[] nearest = new double[1];
+			SpatialHashGrid.PairVisitor closest = (i, j) -> {
+				double dx = x[i] - x[j];
+				double dy = y[i] - y[j];
+				// A body's radius is drawn as the diameter of its circle.
+				double d = Math.sqrt(dx * dx + dy * dy) - (radius[i] + radius[j]) / 2;
+				nearest[0] = Math.min(nearest[0], d);
+			};
+			for (int i = from; i < to; i++) {
+				nearest[0] = cellSize - (radius[i] + largest) / 2;
+				grid.forEachNearby(i, closest);
+				gap[i] = Math.max(nearest[0], 1);
+			}
+		});
+	}
+}
@@ -0,0 +1,270 @@
+// The BodyStore keeps the physical state of every body in parallel primitive columns.
+
+// Row i of every column belongs to the same body. The physics hot loops walk these arrays
+// sequentially instead of chasing PlanetaryBody references and calling getters for each pair,
+// and a PlanetaryBody is just a thin view over one row.
+//
+// Positions and velocities are double-buffered. During a tick the engine reads the current
+// columns and writes the next ones, then swaps them, so no body ever sees another body half-moved.
+//
+// The acceleration columns hold the solver's pull at the current positions. They are only
+// trusted while accelerationCurrent is true, which any change to the positions, masses, sizes,
+// flags or the force law (the gravity divisor and the world's edges) undoes.
+
+import java.util.Arrays;
+
+public class BodyStore {
+
+	// Behavior flags, one bit each, kept per row in the flags column.
+	public static final int FLAG_GRAVITY = 1;     // The body pulls on other bodies.
+	public static final int FLAG_INERTIA = 1 << 1; // The body keeps its velocity from tick to tick.
+	public static final int FLAG_COLLIDES = 1 << 2; // The body bounces off other bodies.
+	public static final int FLAG_PINNED = 1 << 3;  // The body is never moved by gravity.
+	public static final int FLAG_WRAP = 1 << 4;    // The body wraps around the edges of the world.
+	public static final int FLAG_SOUND = 1 << 5;   // The body plays a sound when it is hit.
+
+	// Role flags. They say how a body takes part, not whether a behavior is switched on.
+	public static final int FLAG_MASSIVE = 1 << 6;       // Collisions never move the body, only what hits it.
+	public static final int FLAG_TEST_PARTICLE = 1 << 7; // The body is pulled, but pulls and pushes nothing.
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// The columns. Only the first size() rows are in use.
+	double[] x;
+	double[] y;
+	double[] vx;
+	double[] vy;
+
+	// The next state of x, y, vx and vy, written during a tick and swapped in at its end.
+	double[] nextX;
+	double[] nextY;
+	double[] nextVx;
+	double[] nextVy;
+
+	// The acceleration at the current positions, in pixels per tick per tick.
+	double[] ax;
+	double[] ay;
+	boolean accelerationCurrent;
+
+	double[] mass;
+	double[] radius;
+	int[] id;
+	int[] flags;
+
+	private int size;
+	private int nextId;
+
+	// Lower numbers give stronger gravity. Higher, weaker. 1000 is normal scale.
+	private volatile double gravityDivisor = 1000;
+
+	// The size of the world. Bodies flagged to wrap jump to the opposite edge when they leave it.
+	private volatile double worldWidth;
+	private volatile double worldHeight;
+
+	// True when the world's edges wrap around ('Arcade Mode'), so gravity reaches across them too.
+	private volatile boolean periodic;
+
+	// Constructor
+	public BodyStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public BodyStore(int capacity) {
+		capacity = Math.max(1, capacity);
+		x = new double[capacity];
+		y = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		nextX = new double[capacity];
+		nextY = new double[capacity];
+		nextVx = new double[capacity];
+		nextVy = new double[capacity];
+		ax = new double[capacity];
+		ay = new double[capacity];
+		mass = new double[capacity];
+		radius = new double[capacity];
+		id = new int[capacity];
+		flags = new int[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Appends a row and returns its index.
+	public int add(double xPos, double yPos, double velocityX, double velocityY, double bodyMass, double bodyRadius, int bodyFlags) {
+		if (size == x.length) {
+			grow();
+		}
+		int row = size++;
+		x[row] = xPos;
+		y[row] = yPos;
+		vx[row] = velocityX;
+		vy[row] = velocityY;
+		mass[row] = bodyMass;
+		radius[row] = bodyRadius;
+		id[row] = nextId++;
+		flags[row] = bodyFlags;
+		accelerationCurrent = false;
+		return row;
+	}
+
+	// Forgets every row. Views onto the old rows must not be used afterwards.
+	public void clear() {
+		size = 0;
+		accelerationCurrent = false;
+	}
+
+	// Makes room for exactly n rows, for the caller to fill in, and hands out ids from nextId onwards.
+	// Used to restore a saved state. Views onto the old rows must not be used afterwards.
+	void setRows(int n, int nextId) {
+		while (x.length < n) {
+			grow();
+		}
+		size = n;
+		this.nextId = nextId;
+		accelerationCurrent = false;
+	}
+
+	int getNextId() {
+		return nextId;
+	}
+
+	// Makes the next positions and velocities the current ones. Every row of the next
+	// columns must have been written since the last swap.
+	void swapBuffers() {
+		double[] t = x;
+		x = nextX;
+		nextX = t;
+		t = y;
+		y = nextY;
+		nextY = t;
+		t = vx;
+		vx = nextVx;
+		nextVx = t;
+		t = vy;
+		vy = nextVy;
+		nextVy = t;
+		accelerationCurrent = false;
+	}
+
+	// EXPERIMENTAL: moves rows [from, to) that are flagged to wrap and have left the world
+	// to the opposite side, like in Asteroids or Pac-Man.
+	void wrapPositions(int from, int to) {
+		double width = worldWidth;
+		double height = worldHeight;
+		boolean moved = false;
+		for (int i = from; i < to; i++) {
+			if ((flags[i] & FLAG_WRAP) == 0) {
+				continue;
+			}
+			if (x[i] > width) {
+				x[i] = 0;
+				moved = true;
+			} else if (x[i] <= 0) {
+				x[i] = width;
+				moved = true;
+			}
+			if (y[i] > height) {
+				y[i] = 0;
+				moved = true;
+			} else if (y[i] <= 0) {
+				y[i] = height;
+				moved = true;
+			}
+		}
+		if (moved) {
+			accelerationCurrent = false;
+		}
+	}
+
+	private void grow() {
+		int capacity = x.length * 2;
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		vx = Arrays.copyOf(vx, capacity);
+		vy = Arrays.copyOf(vy, capacity);
+		nextX = Arrays.copyOf(nextX, capacity);
+		nextY = Arrays.copyOf(nextY, capacity);
+		nextVx = Arrays.copyOf(nextVx, capacity);
+		nextVy = Arrays.copyOf(nextVy, capacity);
+		ax = Arrays.copyOf(ax, capacity);
+		ay = Arrays.copyOf(ay, capacity);
+		mass = Arrays.copyOf(mass, capacity);
+		radius = Arrays.copyOf(radius, capacity);
+		id = Arrays.copyOf(id, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+	}
+
+	// True if a body with these flags pulls on other bodies.
+	static boolean pullsOthers(int bodyFlags) {
+		return (bodyFlags & (FLAG_GRAVITY | FLAG_TEST_PARTICLE)) == FLAG_GRAVITY;
+	}
+
+	// The mass a body's potential energy counts with. A body that pulls back shares the energy of each
+	// pair with the other body, so counts half of it. One that doesn't pull owns all of its energy.
+	static double potentialMass(int bodyFlags, double mass) {
+		return pullsOthers(bodyFlags) ? mass / 2 : mass;
+	}
+
+	public boolean hasFlag(int row, int flag) {
+		return (flags[row] & flag) != 0;
+	}
+
+	public void setFlag(int row, int flag, boolean on) {
+		int before = flags[row];
+		if (on) {
+			flags[row] |= flag;
+		} else {
+			flags[row] &= ~flag;
+		}
+		if (flags[row] != before) {
+			accelerationCurrent = false;
+		}
+	}
+
+	// Sets or clears a flag on every row.
+	public void setFlagOnAll(int flag, boolean on) {
+		for (int i = 0; i < size; i++) {
+			setFlag(i, flag, on);
+		}
+	}
+
+	public double getGravityDivisor() {
+		return gravityDivisor;
+	}
+
+	public void setGravityDivisor(double gravityDivisor) {
+		if (this.gravityDivisor != gravityDivisor) {
+			this.gravityDivisor = gravityDivisor;
+			accelerationCurrent = false;
+		}
+	}
+
+	public double getWorldWidth() {
+		return worldWidth;
+	}
+
+	public double getWorldHeight() {
+		return worldHeight;
+	}
+
+	public void setWorldSize(double width, double height) {
+		if (worldWidth != width || worldHeight != height) {
+			this.worldWidth = width;
+			this.worldHeight = height;
+			accelerationCurrent = false;
+		}
+	}
+
+	public boolean isPeriodic() {
+		return periodic;
+	}
+
+	public void setPeriodic(boolean periodic) {
+		if (this.periodic != periodic) {
+			this.periodic = periodic;
+			accelerationCurrent = false;
+		}
+	}
+}
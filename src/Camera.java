@@ -0,0 +1,145 @@
+// The Camera decides which part of the world is on screen, and how large it is drawn.
+
+// It looks at a centre point in the world, at a zoom of so many pixels to the world unit. It can
+// be panned and zoomed by hand, or told to follow a body, in which case it centres on that body in
+// every frame it draws. Panning by hand stops following, and tells the FollowListener so.
+//
+// Until it is panned, the camera looks at its home: the point the canvas was told to centre on.
+// The UI thread moves the camera while the render thread reads it, so every method is synchronized.
+
+public class Camera {
+
+	public static final double MIN_ZOOM = 1.0 / 64;
+	public static final double MAX_ZOOM = 64;
+
+	private double homeX;
+	private double homeY;
+	private double centerX;
+	private double centerY;
+	private boolean panned;
+	private double zoom = 1;
+
+	// Told when panning by hand stops the camera following a body, so a toggle for it can show that.
+	public interface FollowListener {
+		void followStopped();
+	}
+
+	private FollowListener followListener;
+
+	// The id of the body to follow, or -1, and the row it was found at last time, to look there first.
+	private int followId = -1;
+	private int followHint;
+
+	// Where the view was last placed, so screen points can be turned back into world points.
+	private double lastLeft;
+	private double lastTop;
+	private double lastZoom = 1;
+
+	public synchronized double getZoom() {
+		return zoom;
+	}
+
+	public synchronized void setZoom(double zoom) {
+		if (!(zoom > 0)) {
+			throw new IllegalArgumentException("zoom must be positive: " + zoom);
+		}
+		this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+	}
+
+	// The world point to look at until the camera is panned or follows a body.
+	public synchronized void setHome(double x, double y) {
+		homeX = x;
+		homeY = y;
+	}
+
+	// Goes back home, at a zoom of 1. A followed body is still followed.
+	public synchronized void reset() {
+		panned = false;
+		zoom = 1;
+	}
+
+	public synchronized void setFollowListener(FollowListener listener) {
+		followListener = listener;
+	}
+
+	// Moves the view by the given number of pixels, and stops following.
+	// The listener is called on the thread that panned.
+	public synchronized void pan(double dxPixels, double dyPixels) {
+		if (!panned) {
+			centerX = homeX;
+			centerY = homeY;
+			panned = true;
+		}
+		// Carry on from wherever the followed body was last drawn.
+		boolean wasFollowing = followId >= 0;
+		followId = -1;
+		centerX -= dxPixels / zoom;
+		centerY -= dyPixels / zoom;
+		if (wasFollowing && followListener != null) {
+			followListener.followStopped();
+		}
+	}
+
+	// Zooms by the given factor, keeping the world point under the given screen point where it is.
+	public synchronized void zoomAt(double factor, double screenX, double screenY) {
+		double worldX = lastLeft + screenX / lastZoom;
+		double worldY = lastTop + screenY / lastZoom;
+		double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * factor));
+		if (followId < 0) {
+			if (!panned) {
+				centerX = homeX;
+				centerY = homeY;
+				panned = true;
+			}
+			// The point under the cursor stays put: move the centre towards it by the change in scale.
+			centerX = worldX + (centerX - worldX) * zoom / newZoom;
+			centerY = worldY + (centerY - worldY) * zoom / newZoom;
+		}
+		zoom = newZoom;
+	}
+
+	// Centres on the body with the given id in every frame. -1 to stop.
+	public synchronized void follow(int bodyId) {
+		followId = bodyId;
+	}
+
+	public synchronized int getFollowId() {
+		return followId;
+	}
+
+	// Places the view for a frame of the given snapshot, and returns it as { left, top, zoom }:
+	// the world point at the top left corner of the screen, and the pixels per world unit.
+	public synchronized double[] view(WorldSnapshot snapshot, int width, int height) {
+		double x = panned ? centerX : homeX;
+		double y = panned ? centerY : homeY;
+		if (followId >= 0 && snapshot != null) {
+			int i = find(snapshot, followId);
+			if (i >= 0) {
+				x = snapshot.getX(i);
+				y = snapshot.getY(i);
+				centerX = x;
+				centerY = y;
+				panned = true;
+			}
+		}
+		lastLeft = x - width / 2.0 / zoom;
+		lastTop = y - height / 2.0 / zoom;
+		lastZoom = zoom;
+		return new double[] { lastLeft, lastTop, lastZoom };
+	}
+
+	// The row of the body with the given id in the snapshot, or -1.
+	private int find(WorldSnapshot snapshot, int id) {
+		int n = snapshot.getCount();
+		if (followHint < n && snapshot.getId(followHint) == id) {
+			return followHint;
+		}
+		for (int i = 0; i < n; i++) {
+			if (snapshot.getId(i) == id) {
+				followHint = i;
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,33 @@
+// A Flight Recorder event for a step in which a lot of bodies collided at once.
+
+// It covers the step's collision phase, and is only committed when at least MIN_CONTACTS pairs
+// were bounced, so the usual trickle of collisions doesn't drown out the bursts.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gravity.CollisionBurst")
+@Label("Collision Burst")
+@Category({ "Gravity Simulator", "Physics" })
+@Description("A step's collision phase that bounced at least 100 pairs of bodies")
+@StackTrace(false)
+public class CollisionBurstEvent extends jdk.jfr.Event {
+
+	static final int MIN_CONTACTS = 100;
+
+	@Label("Contacts")
+	@Description("The pairs of bodies bounced")
+	int contacts;
+
+	@Label("Tick")
+	long tick;
+
+	@Label("Body Count")
+	int bodyCount;
+
+	@Label("Solver")
+	String solver;
+}
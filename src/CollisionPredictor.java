@@ -0,0 +1,229 @@
+// The CollisionPredictor finds collisions by predicting them, instead of testing for them every step.
+
+// Most runs have a few dozen fast satellites in a big empty frame, where contacts are rare.
+// Rather than searching for touching bodies every step, the predictor works out when nearby pairs
+// will next touch, assuming they keep their current velocities, and keeps those predictions in a
+// priority queue. Each step it only has to:
+//
+// * Re-predict the bodies whose velocity has drifted (gravity bends every path a little).
+// * Bounce the pairs whose predicted contact falls within the next step. Because the bounce
+//   happens before the move that would carry them through each other, fast bodies can't tunnel.
+//
+// Every body has a version number, bumped whenever its predictions go stale, and each prediction
+// remembers the versions it was made with. Stale predictions are simply skipped when they come up.
+//
+// Nearby pairs come from a SpatialHashGrid with cells wide enough to cover how far bodies can
+// travel within the prediction horizon. The grid and all predictions are rebuilt once per horizon,
+// or sooner if a body speeds up past what the grid allows for.
+//
+// Times are in ticks of the original simulation, like the velocities, and one step moves dt of them.
+
+import java.util.PriorityQueue;
+
+public class CollisionPredictor {
+
+	// The number of steps between rebuilds.
+	public static final int DEFAULT_HORIZON = 16;
+
+	// A velocity change smaller than this, in pixels per tick, doesn't invalidate a body's predictions.
+	private static final double VELOCITY_TOLERANCE = 0.01;
+
+	// Called for each pair that touches within the next step.
+	public interface ContactHandler {
+		void contact(int i, int j);
+	}
+
+	// One predicted contact between bodies i and j, at a time in ticks.
+	private static class Event implements Comparable<Event> {
+		final double time;
+		final int i;
+		final int j;
+		final int versionI;
+		final int versionJ;
+
+		Event(double time, int i, int j, int versionI, int versionJ) {
+			this.time = time;
+			this.i = i;
+			this.j = j;
+			this.versionI = versionI;
+			this.versionJ = versionJ;
+		}
+
+		public int compareTo(Event other) {
+			if (time != other.time) {
+				return time < other.time ? -1 : 1;
+			}
+			if (i != other.i) {
+				return i < other.i ? -1 : 1;
+			}
+			return Integer.compare(j, other.j);
+		}
+	}
+
+	private final int horizon;
+	private final PriorityQueue<Event> queue = new PriorityQueue<Event>();
+	private final SpatialHashGrid grid = new SpatialHashGrid();
+
+	private int[] version = new int[0];
+	private double[] predictedVx = new double[0];
+	private double[] predictedVy = new double[0];
+
+	private int count = -1;
+	private int stepsSinceRebuild;
+	private double gridSpeed;
+
+	// Constructor
+	public CollisionPredictor() {
+		this(DEFAULT_HORIZON);
+	}
+
+	public CollisionPredictor(int horizon) {
+		if (horizon < 1) {
+			throw new IllegalArgumentException("horizon must be at least one step");
+		}
+		this.horizon = horizon;
+	}
+
+	public int getHorizon() {
+		return horizon;
+	}
+
+	// The number of predictions waiting, including stale ones not yet skipped.
+	public int getPendingCount() {
+		return queue.size();
+	}
+
+	// Forgets every prediction. The next step() starts from scratch.
+	public void reset() {
+		queue.clear();
+		count = -1;
+	}
+
+	// Called once per step, after the bodies have moved to where they are at the given time.
+	// The next step will move them by their velocity times dt. Bounces only change velocities,
+	// so a pair due part way through the step is bounced before the move rather than at the exact moment.
+	public void step(BodyStore store, int n, double time, double dt, ContactHandler handler) {
+		double[] vx = store.vx;
+		double[] vy = store.vy;
+
+		double maxSpeed = 0;
+		for (int i = 0; i < n; i++) {
+			maxSpeed = Math.max(maxSpeed, Math.abs(vx[i]) + Math.abs(vy[i]));
+		}
+		if (n != count || ++stepsSinceRebuild >= horizon || maxSpeed > gridSpeed) {
+			rebuild(store, n, time, dt, maxSpeed);
+		} else {
+			// Re-predict only the bodies whose velocity has changed since they were last predicted.
+			for (int i = 0; i < n; i++) {
+				if (Math.abs(vx[i] - predictedVx[i]) + Math.abs(vy[i] - predictedVy[i]) > VELOCITY_TOLERANCE) {
+					repredict(store, i, time, dt, 0);
+				}
+			}
+		}
+
+		// Bounce everything due before the next step's move is over. Once a body has bounced, its
+		// new predictions wait for the next step, so a body bounces at most once per step.
+		while (!queue.isEmpty() && queue.peek().time < time + dt) {
+			Event e = queue.poll();
+			if (e.versionI != version[e.i] || e.versionJ != version[e.j]) {
+				continue;
+			}
+
+			// Check again against where the bodies are now. Screen wrap moves bodies without
+			// changing their velocity, so a prediction can go stale without its versions changing.
+			double t = timeOfImpact(store, e.i, e.j);
+			if (t >= dt) {
+				if (t <= horizon * dt) {
+					queue.add(new Event(time + t, e.i, e.j, e.versionI, e.versionJ));
+				}
+				continue;
+			}
+
+			handler.contact(e.i, e.j);
+			repredict(store, e.i, time, dt, dt);
+			repredict(store, e.j, time, dt, dt);
+		}
+	}
+
+	// Rebuilds the grid and predicts every nearby pair from scratch.
+	private void rebuild(BodyStore store, int n, double time, double dt, double maxSpeed) {
+		queue.clear();
+		if (version.length < n) {
+			version = new int[n];
+			predictedVx = new double[n];
+			predictedVy = new double[n];
+		}
+		count = n;
+		stepsSinceRebuild = 0;
+
+		// Leave some room to speed up, so a little acceleration doesn't force a rebuild every step.
+		gridSpeed = Math.max(maxSpeed * 1.5, 1);
+		double maxRadius = 0;
+		for (int i = 0; i < n; i++) {
+			maxRadius = Math.max(maxRadius, store.radius[i]);
+			version[i]++;
+			predictedVx[i] = store.vx[i];
+			predictedVy[i] = store.vy[i];
+		}
+
+		// Two bodies can close at up to twice gridSpeed, for a whole horizon.
+		grid.build(store.x, store.y, n, maxRadius + 2 * gridSpeed * horizon * dt);
+		SpatialHashGrid.PairVisitor predict = (i, j) -> predict(store, i, j, time, dt, 0);
+		for (int i = 0; i < n; i++) {
+			grid.forEachNeighbour(i, predict);
+		}
+	}
+
+	// Throws away body i's predictions and makes new ones against the bodies near it.
+	// None of the new predictions are due until earliest ticks from now.
+	private void repredict(BodyStore store, int i, double time, double dt, double earliest) {
+		version[i]++;
+		predictedVx[i] = store.vx[i];
+		predictedVy[i] = store.vy[i];
+		grid.forEachNearby(i, (a, b) -> predict(store, a, b, time, dt, earliest));
+	}
+
+	// Queues the next contact between i and j, if there is one within the horizon.
+	private void predict(BodyStore store, int i, int j, double time, double dt, double earliest) {
+		int[] flags = store.flags;
+		if (((flags[i] | flags[j]) & BodyStore.FLAG_COLLIDES) == 0) {
+			return;
+		}
+		double t = Math.max(timeOfImpact(store, i, j), earliest);
+		if (t <= horizon * dt) {
+			int first = Math.min(i, j);
+			int second = Math.max(i, j);
+			queue.add(new Event(time + t, first, second, version[first], version[second]));
+		}
+	}
+
+	// How many ticks until i and j touch if they keep their velocities: zero if they already
+	// touch and are closing in, and infinity if they never will.
+	private static double timeOfImpact(BodyStore store, int i, int j) {
+		double dx = store.x[j] - store.x[i];
+		double dy = store.y[j] - store.y[i];
+		double wx = store.vx[j] - store.vx[i];
+		double wy = store.vy[j] - store.vy[i];
+
+		// Only pairs that are closing in can touch.
+		double b = dx * wx + dy * wy;
+		if (b >= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		// A body's radius is drawn as the diameter of its circle.
+		double contact = (store.radius[i] + store.radius[j]) / 2;
+		double c = dx * dx + dy * dy - contact * contact;
+		if (c <= 0) {
+			return 0;
+		}
+
+		// Solve |d + w t| = contact for the first t.
+		double a = wx * wx + wy * wy;
+		double discriminant = b * b - a * c;
+		if (discriminant < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return (-b - Math.sqrt(discriminant)) / a;
+	}
+}
@@ -0,0 +1,168 @@
+// CollisionSounds plays the "hit" sound for every body, through a small shared pool of voices.
+
+// Every body used to open the sound file and a Clip of its own when it was created, so a thousand
+// bodies meant a thousand reads of the same file and a thousand audio lines before the first tick.
+// Here the sound is read and decoded once, into one buffer of PCM samples, and played through a
+// fixed number of Clips (the voices), all opened on that buffer. At most that many hits sound at
+// once; a hit that comes while every voice is busy is not heard, which is what the ear expects in
+// a crowd anyway.
+//
+// Nothing here runs on the thread that asks for a sound. play() only queues the request, and a
+// background thread loads the sound the first time it is needed and starts the voices. If there
+// is no sound card, or the file can't be read, the sounds are switched off and the simulation goes
+// on without them.
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+public class CollisionSounds {
+
+	public static final String DEFAULT_SOUND = "src/sounds/karma-ron_orch-002-boom.wav";
+	public static final int DEFAULT_VOICES = 8;
+
+	// The loudest a hit is played, in decibels.
+	public static final float MAX_GAIN = 6;
+
+	// Making one does no audio I/O, so the shared one is made up front.
+	private static final CollisionSounds instance = new CollisionSounds(new File(DEFAULT_SOUND), DEFAULT_VOICES);
+
+	private final File soundFile;
+	private final int voiceCount;
+
+	// Requests waiting for a voice, as gains in decibels. Requests that don't fit are dropped.
+	private final BlockingQueue<Float> requests;
+
+	private Clip[] voices;
+	private FloatControl[] gains;
+	private volatile Thread player;
+	private volatile boolean unavailable;
+
+	// Constructor
+	public CollisionSounds(File soundFile, int voiceCount) {
+		if (voiceCount <= 0) {
+			throw new IllegalArgumentException("voice count must be positive: " + voiceCount);
+		}
+		this.soundFile = soundFile;
+		this.voiceCount = voiceCount;
+		this.requests = new ArrayBlockingQueue<Float>(voiceCount * 2);
+	}
+
+	// The sounds every body shares.
+	public static CollisionSounds getInstance() {
+		return instance;
+	}
+
+	// False once loading the sound or opening the voices has failed.
+	public boolean isAvailable() {
+		return !unavailable;
+	}
+
+	// Starts loading the sound in the background, so the first hit doesn't wait for it.
+	public synchronized void preload() {
+		if (player == null && !unavailable) {
+			player = new Thread("Collision Sounds") {
+				public void run() {
+					playLoop();
+				}
+			};
+			player.setDaemon(true);
+			player.start();
+		}
+	}
+
+	// Plays the sound at the given gain, in decibels, if a voice comes free soon. Never blocks.
+	public void play(float gain) {
+		if (unavailable) {
+			return;
+		}
+		if (player == null) {
+			preload();
+		}
+		requests.offer(Math.min(gain, MAX_GAIN));
+	}
+
+	private void playLoop() {
+		try {
+			open();
+		} catch (Exception e) {
+			// LineUnavailableException, or IllegalArgumentException when there is no mixer at all.
+			System.out.println("Collision sounds are off: " + e);
+			unavailable = true;
+			if (voices != null) {
+				for (Clip voice : voices) {
+					if (voice != null) {
+						voice.close();
+					}
+				}
+			}
+			requests.clear();
+			return;
+		}
+
+		while (true) {
+			float gain;
+			try {
+				gain = requests.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			for (int v = 0; v < voices.length; v++) {
+				if (!voices[v].isActive()) {
+					FloatControl control = gains[v];
+					if (control != null) {
+						control.setValue(Math.max(control.getMinimum(), Math.min(control.getMaximum(), gain)));
+					}
+					voices[v].setFramePosition(0);  // Must always rewind!
+					voices[v].start();
+					break;
+				}
+			}
+		}
+	}
+
+	// Reads and decodes the sound once, then opens every voice on the same samples.
+	private void open() throws IOException, UnsupportedAudioFileException, LineUnavailableException {
+		AudioFormat format;
+		byte[] samples;
+		AudioInputStream in = AudioSystem.getAudioInputStream(soundFile);
+		try {
+			format = in.getFormat();
+			if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED && format.getEncoding() != AudioFormat.Encoding.PCM_UNSIGNED) {
+				AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+						format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+				in = AudioSystem.getAudioInputStream(pcm, in);
+				format = pcm;
+			}
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				decoded.write(buffer, 0, read);
+			}
+			samples = decoded.toByteArray();
+		} finally {
+			in.close();
+		}
+
+		voices = new Clip[voiceCount];
+		gains = new FloatControl[voiceCount];
+		for (int v = 0; v < voiceCount; v++) {
+			voices[v] = AudioSystem.getClip();
+			voices[v].open(format, samples, 0, samples.length);
+			if (voices[v].isControlSupported(FloatControl.Type.MASTER_GAIN)) {
+				gains[v] = (FloatControl)voices[v].getControl(FloatControl.Type.MASTER_GAIN);
+			}
+		}
+	}
+}
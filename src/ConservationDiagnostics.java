@@ -0,0 +1,222 @@
+// ConservationDiagnostics measures what the physics should keep the same, and how far a run has drifted from it.
+
+// Without outside forces, gravity and elastic bounces keep the total energy, the linear momentum
+// and the angular momentum of the bodies the same. A step that is too long, an approximate solver
+// or a weak gravity divisor makes them drift, so how far they drift shows what a faster setting
+// costs in accuracy. The engine measures them every so many ticks, if asked to.
+//
+// The kinetic energy and both momenta are summed over the bodies in parallel. The potential energy
+// comes from the solver in use, so it costs about as much as working out the pull once: a full
+// pass over the pairs for the direct sum, a walk of the tree for Barnes-Hut, one more grid solve
+// for the particle mesh. It is also only as accurate as that solver.
+//
+// Each drift compares a measurement with the first one, and is relative to a scale that depends
+// neither on where the world's origin is nor on the units of distance:
+// * The energy drift is the change in total energy over how much the potential energy grows when
+//   every distance grows by a factor of e. Gravity falls off as 1/d here, so the potential is a log
+//   of the distance, and its zero point, and so the total energy, depends on the units of distance.
+//   The kinetic energy is no use as a scale either, as the bodies often start almost at rest.
+//   An energy drift of 0.001 is as much energy as every distance being off by 0.1%.
+// * The momentum drift is the change in momentum over the sum of every body's momentum on its own.
+// * The angular momentum drift is the change in angular momentum about the origin, over the sum of
+//   every body's own angular momentum.
+// Screen wrap, pinned bodies and test particles don't conserve these, so they drift anyway.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ConservationDiagnostics implements GravitationalConstants {
+
+	// The sums worked out in parallel, in the order they are kept.
+	private static final int KINETIC = 0;
+	private static final int MOMENTUM_X = 1;
+	private static final int MOMENTUM_Y = 2;
+	private static final int ANGULAR_MOMENTUM = 3;
+	private static final int MOMENTUM_SCALE = 4;
+	private static final int ANGULAR_MOMENTUM_SCALE = 5;
+	private static final int SOURCE_MASS = 6;     // The mass that pulls.
+	private static final int POTENTIAL_MASS = 7;  // The mass the potential counts with (see BodyStore.potentialMass).
+	private static final int SELF_PAIRS = 8;      // Each body's potential mass times the mass it pulls with.
+	private static final int SUMS = 9;
+
+	private volatile Sample baseline;
+	private volatile Sample latest;
+	private volatile double maxEnergyDrift;
+	private volatile double maxMomentumDrift;
+	private volatile double maxAngularMomentumDrift;
+
+	// One measurement, with its drift from the first.
+	public static class Sample {
+		private final long tick;
+		private final double simulatedTime;
+		private final int bodyCount;
+		private final String solver;
+		private final double kineticEnergy;
+		private final double potentialEnergy;
+		private final double momentumX;
+		private final double momentumY;
+		private final double angularMomentum;
+		private final double momentumScale;
+		private final double angularMomentumScale;
+		private final double energyScale;
+		private double energyDrift;
+		private double momentumDrift;
+		private double angularMomentumDrift;
+
+		Sample(long tick, double simulatedTime, int bodyCount, String solver, double kineticEnergy, double potentialEnergy,
+				double energyScale, double[] sums) {
+			this.tick = tick;
+			this.simulatedTime = simulatedTime;
+			this.bodyCount = bodyCount;
+			this.solver = solver;
+			this.kineticEnergy = kineticEnergy;
+			this.potentialEnergy = potentialEnergy;
+			this.energyScale = energyScale;
+			this.momentumX = sums[MOMENTUM_X];
+			this.momentumY = sums[MOMENTUM_Y];
+			this.angularMomentum = sums[ANGULAR_MOMENTUM];
+			this.momentumScale = sums[MOMENTUM_SCALE];
+			this.angularMomentumScale = sums[ANGULAR_MOMENTUM_SCALE];
+		}
+
+		public long getTick() {
+			return tick;
+		}
+
+		public double getSimulatedTime() {
+			return simulatedTime;
+		}
+
+		public int getBodyCount() {
+			return bodyCount;
+		}
+
+		public String getSolverName() {
+			return solver;
+		}
+
+		public double getKineticEnergy() {
+			return kineticEnergy;
+		}
+
+		public double getPotentialEnergy() {
+			return potentialEnergy;
+		}
+
+		public double getEnergy() {
+			return kineticEnergy + potentialEnergy;
+		}
+
+		public double getMomentumX() {
+			return momentumX;
+		}
+
+		public double getMomentumY() {
+			return momentumY;
+		}
+
+		public double getAngularMomentum() {
+			return angularMomentum;
+		}
+
+		// The change in total energy since the first sample, over the potential energy's scale then.
+		public double getEnergyDrift() {
+			return energyDrift;
+		}
+
+		// The change in momentum since the first sample, over the sum of the bodies' momenta then.
+		public double getMomentumDrift() {
+			return momentumDrift;
+		}
+
+		// The change in angular momentum since the first sample, over the sum of the bodies' angular momenta then.
+		public double getAngularMomentumDrift() {
+			return angularMomentumDrift;
+		}
+	}
+
+	// The first measurement since the diagnostics were made or reset, or null.
+	public Sample getBaseline() {
+		return baseline;
+	}
+
+	// The last measurement, or null.
+	public Sample getLatest() {
+		return latest;
+	}
+
+	// The largest drifts seen since the first measurement, whichever way they went.
+	public double getMaxEnergyDrift() {
+		return maxEnergyDrift;
+	}
+
+	public double getMaxMomentumDrift() {
+		return maxMomentumDrift;
+	}
+
+	public double getMaxAngularMomentumDrift() {
+		return maxAngularMomentumDrift;
+	}
+
+	// Forgets the measurements, so the next one is the new baseline.
+	public synchronized void reset() {
+		baseline = null;
+		latest = null;
+		maxEnergyDrift = 0;
+		maxMomentumDrift = 0;
+		maxAngularMomentumDrift = 0;
+	}
+
+	// Measures bodies [0, n) as they are now. Only call between ticks, from the tick thread.
+	synchronized Sample measure(BodyStore store, int n, GravitySolver solver, ForkJoinPool pool, long tick, double simulatedTime) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] vx = store.vx;
+		double[] vy = store.vy;
+		double[] mass = store.mass;
+		int[] flags = store.flags;
+		double[] sums = ParallelLoop.sum(pool, n, SUMS, (from, to, total) -> {
+			for (int i = from; i < to; i++) {
+				double m = mass[i];
+				double source = BodyStore.pullsOthers(flags[i]) ? m : 0;
+				double potentialMass = BodyStore.potentialMass(flags[i], m);
+				double px = m * vx[i];
+				double py = m * vy[i];
+				double l = x[i] * py - y[i] * px;
+				total[KINETIC] += 0.5 * (px * vx[i] + py * vy[i]);
+				total[MOMENTUM_X] += px;
+				total[MOMENTUM_Y] += py;
+				total[ANGULAR_MOMENTUM] += l;
+				total[MOMENTUM_SCALE] += Math.sqrt(px * px + py * py);
+				total[ANGULAR_MOMENTUM_SCALE] += Math.abs(l);
+				total[SOURCE_MASS] += source;
+				total[POTENTIAL_MASS] += potentialMass;
+				total[SELF_PAIRS] += potentialMass * source;
+			}
+		});
+		double potential = solver.computePotential(store, n, pool);
+		// Every pair's masses, which is what the log of the distance is multiplied by, less each body with itself.
+		double pairs = sums[SOURCE_MASS] * sums[POTENTIAL_MASS] - sums[SELF_PAIRS];
+		double energyScale = Math.abs(gravitationalConstant) * pairs / store.getGravityDivisor();
+		Sample sample = new Sample(tick, simulatedTime, n, solver.getName(), sums[KINETIC], potential, energyScale, sums);
+
+		Sample first = baseline;
+		if (first == null) {
+			baseline = sample;
+		} else {
+			sample.energyDrift = relative(sample.getEnergy() - first.getEnergy(), first.energyScale);
+			sample.momentumDrift = relative(Math.hypot(sample.momentumX - first.momentumX, sample.momentumY - first.momentumY),
+					first.momentumScale);
+			sample.angularMomentumDrift = relative(sample.angularMomentum - first.angularMomentum, first.angularMomentumScale);
+			maxEnergyDrift = Math.max(maxEnergyDrift, Math.abs(sample.energyDrift));
+			maxMomentumDrift = Math.max(maxMomentumDrift, Math.abs(sample.momentumDrift));
+			maxAngularMomentumDrift = Math.max(maxAngularMomentumDrift, Math.abs(sample.angularMomentumDrift));
+		}
+		latest = sample;
+		return sample;
+	}
+
+	// A change over its scale, or the change itself if there is nothing to scale it by.
+	private static double relative(double change, double scale) {
+		return scale > 0 ? change / scale : change;
+	}
+}
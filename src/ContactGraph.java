@@ -0,0 +1,120 @@
+// The ContactGraph splits one tick's touching pairs into batches that can be resolved at the same time.
+
+// Bodies are the vertices of the graph and each contact is an edge. Contacts are coloured greedily,
+// in the order they were added, so that no body appears twice in the same colour. A whole colour
+// can then be bounced in parallel without any locks, one colour after another.
+//
+// The colouring only depends on the order the contacts were added, never on which thread got
+// there first, so the outcome of a tick is the same no matter how the threads were scheduled.
+
+import java.util.Arrays;
+
+public class ContactGraph {
+
+	// Colours 0 to 62 are tracked with one bit each. Any contact that doesn't fit goes in
+	// the last colour, which is resolved one contact at a time.
+	private static final int MAX_COLOURS = 64;
+
+	private int count;
+	private int[] first = new int[16];
+	private int[] second = new int[16];
+	private int[] colour = new int[16];
+
+	// The contacts sorted by colour. Colour c is batch[batchStart[c] .. batchStart[c + 1]).
+	private int[] batch = new int[16];
+	private final int[] batchStart = new int[MAX_COLOURS + 1];
+	private int colours;
+
+	// The colours already used by each body, one bit per colour.
+	private long[] used = new long[0];
+
+	public int size() {
+		return count;
+	}
+
+	public int getFirst(int contact) {
+		return first[contact];
+	}
+
+	public int getSecond(int contact) {
+		return second[contact];
+	}
+
+	public void clear() {
+		count = 0;
+		colours = 0;
+	}
+
+	public void add(int i, int j) {
+		if (count == first.length) {
+			int capacity = count * 2;
+			first = Arrays.copyOf(first, capacity);
+			second = Arrays.copyOf(second, capacity);
+			colour = Arrays.copyOf(colour, capacity);
+			batch = Arrays.copyOf(batch, capacity);
+		}
+		first[count] = i;
+		second[count] = j;
+		count++;
+	}
+
+	// Colours the contacts for bodies [0, n) and sorts them into batches.
+	public void colour(int n) {
+		if (used.length < n) {
+			used = new long[n];
+		}
+		Arrays.fill(batchStart, 0);
+		colours = 0;
+
+		for (int c = 0; c < count; c++) {
+			int i = first[c];
+			int j = second[c];
+			long free = ~(used[i] | used[j]);
+			int k = Long.numberOfTrailingZeros(free);
+			if (k >= MAX_COLOURS - 1) {
+				k = MAX_COLOURS - 1;
+			} else {
+				used[i] |= 1L << k;
+				used[j] |= 1L << k;
+			}
+			colour[c] = k;
+			batchStart[k + 1]++;
+			colours = Math.max(colours, k + 1);
+		}
+
+		for (int k = 0; k < MAX_COLOURS; k++) {
+			batchStart[k + 1] += batchStart[k];
+		}
+		int[] fill = Arrays.copyOf(batchStart, MAX_COLOURS);
+		for (int c = 0; c < count; c++) {
+			batch[fill[colour[c]]++] = c;
+
+			// Tidy up for next time while we're here.
+			used[first[c]] = 0;
+			used[second[c]] = 0;
+		}
+	}
+
+	// The number of batches, including any that are empty.
+	public int getColourCount() {
+		return colours;
+	}
+
+	// True for the overflow batch, whose contacts may share bodies and must be resolved in order.
+	public boolean isSequential(int colourIndex) {
+		return colourIndex == MAX_COLOURS - 1;
+	}
+
+	public int getBatchStart(int colourIndex) {
+		return batchStart[colourIndex];
+	}
+
+	public int getBatchEnd(int colourIndex) {
+		return batchStart[colourIndex + 1];
+	}
+
+	// The contact at a position in the batches.
+	public int getBatchContact(int position) {
+		return batch[position];
+	}
+}
@@ -0,0 +1,244 @@
+// The DirectSumSolver adds up the pull of every body on every other body, one pair at a time.
+
+// This is O(N^2), so it is the slowest solver, but it is exact and is the reference
+// the approximate solvers are measured against, so it is kept as fast as we can make it:
+//
+// * Each pair is evaluated once. By Newton's third law the pull of j on i and of i on j share
+//   the same direction over distance squared, so one evaluation updates both bodies.
+// * The bodies are split into tiles small enough to stay in cache, and pairs of tiles are worked
+//   on together. Tile pairs are scheduled in round-robin rounds where no tile appears twice, so
+//   a round runs in parallel with no locks and no per-thread copies, and the summation order
+//   (and so the result) does not depend on thread scheduling.
+// * The inner loop runs over plain double columns with no branches on flags, so the JIT can
+//   unroll it. Bodies that don't pull simply count with zero mass.
+//
+// The loop is scalar code. SIMD by hand would need the Vector API, which only exists, as the
+// jdk.incubator.vector module, from JDK 16 on, and the project builds for Java 11. Nor is there
+// anything to show C2 vectorizes it by itself: its superword pass leaves a select like the
+// 'apart ? ... : 0' below alone unless -XX:+UseVectorCmov is given, and that is off by default.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class DirectSumSolver implements GravitySolver {
+
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	private final int tileSize;
+
+	// The mass each body pulls with this tick: its mass if gravity is on, otherwise zero.
+	private double[] sourceMass = new double[0];
+
+	// Constructor
+	public DirectSumSolver() {
+		this(DEFAULT_TILE_SIZE);
+	}
+
+	public DirectSumSolver(int tileSize) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("tile size must be positive");
+		}
+		this.tileSize = tileSize;
+	}
+
+	public String getName() {
+		return "Direct Sum";
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public void computePull(BodyStore store, int n, double[] pullX, double[] pullY, ForkJoinPool pool) {
+		prepareSources(store, n);
+		for (int i = 0; i < n; i++) {
+			pullX[i] = 0;
+			pullY[i] = 0;
+		}
+
+		int tiles = (n + tileSize - 1) / tileSize;
+
+		// Every tile against itself. The tiles are disjoint, so they can all run at once.
+		ParallelLoop.forEach(pool, tiles, 1, (from, to) -> {
+			for (int t = from; t < to; t++) {
+				diagonalTile(store, t * tileSize, Math.min(n, (t + 1) * tileSize), pullX, pullY);
+			}
+		});
+
+		// Every tile against every other tile, in a round-robin tournament: in each round every tile
+		// meets at most one other, so no two pairs in a round write the same bodies.
+		int players = tiles % 2 == 0 ? tiles : tiles + 1;
+		for (int round = 0; round < players - 1; round++) {
+			int r = round;
+			ParallelLoop.forEach(pool, players / 2, 1, (from, to) -> {
+				for (int k = from; k < to; k++) {
+					int a;
+					int b;
+					if (k == 0) {
+						a = players - 1;
+						b = r;
+					} else {
+						a = (r + k) % (players - 1);
+						b = (r - k + players - 1) % (players - 1);
+					}
+					if (a < tiles && b < tiles) {
+						tilePair(store, a * tileSize, Math.min(n, (a + 1) * tileSize),
+								b * tileSize, Math.min(n, (b + 1) * tileSize), pullX, pullY);
+					}
+				}
+			});
+		}
+
+		double scale = gravitationalConstant / store.getGravityDivisor();
+		for (int i = 0; i < n; i++) {
+			pullX[i] *= scale;
+			pullY[i] *= scale;
+		}
+	}
+
+	// With only a few bodies to update, Newton's third law doesn't help: each active body simply sums
+	// the pull of every other body. This is O(count * N), which is what makes block timesteps pay off.
+	public void computePull(BodyStore store, int n, int[] active, int count, double[] pullX, double[] pullY, ForkJoinPool pool) {
+		prepareSources(store, n);
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] radius = store.radius;
+		double[] m = sourceMass;
+		double scale = gravitationalConstant / store.getGravityDivisor();
+
+		ParallelLoop.forEach(pool, count, 16, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				int i = active[k];
+				double xi = x[i];
+				double yi = y[i];
+				double ri = radius[i];
+				double sumX = 0;
+				double sumY = 0;
+
+				// A body is never apart from itself, so j == i adds nothing.
+				for (int j = 0; j < n; j++) {
+					double dx = xi - x[j];
+					double dy = yi - y[j];
+					double combinedRadius = ri + radius[j];
+					boolean apart = Math.abs(dx) > combinedRadius && Math.abs(dy) > combinedRadius;
+					double w = apart ? m[j] / (dx * dx + dy * dy) : 0;
+					sumX += dx * w;
+					sumY += dy * w;
+				}
+				pullX[i] = sumX * scale;
+				pullY[i] = sumY * scale;
+			}
+		});
+	}
+
+	// Each pair once, summed row by row in parallel.
+	public double computePotential(BodyStore store, int n, ForkJoinPool pool) {
+		prepareSources(store, n);
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] radius = store.radius;
+		double[] m = sourceMass;
+		double[] pm = new double[n];
+		for (int i = 0; i < n; i++) {
+			pm[i] = BodyStore.potentialMass(store.flags[i], store.mass[i]);
+		}
+
+		double[] sums = ParallelLoop.sum(pool, n, 16, 1, (from, to, total) -> {
+			double sum = 0;
+			for (int i = from; i < to; i++) {
+				double xi = x[i];
+				double yi = y[i];
+				double ri = radius[i];
+				double pmi = pm[i];
+				double si = m[i];
+				for (int j = i + 1; j < n; j++) {
+					double dx = xi - x[j];
+					double dy = yi - y[j];
+					double combinedRadius = ri + radius[j];
+					double distanceSquared = dx * dx + dy * dy;
+					if (distanceSquared > combinedRadius * combinedRadius) {
+						// j pulling on i, and i pulling on j. log(d^2) / 2 == log(d).
+						sum += (pmi * m[j] + pm[j] * si) * 0.5 * Math.log(distanceSquared);
+					}
+				}
+			}
+			total[0] += sum;
+		});
+		return -gravitationalConstant * sums[0] / store.getGravityDivisor();
+	}
+
+	// Works out the mass each body pulls with this time.
+	private void prepareSources(BodyStore store, int n) {
+		if (sourceMass.length < n) {
+			sourceMass = new double[n];
+		}
+		double[] mass = store.mass;
+		int[] flags = store.flags;
+		for (int i = 0; i < n; i++) {
+			sourceMass[i] = BodyStore.pullsOthers(flags[i]) ? mass[i] : 0;
+		}
+	}
+
+	// Every pair within [from, to), each once.
+	private void diagonalTile(BodyStore store, int from, int to, double[] pullX, double[] pullY) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] radius = store.radius;
+		double[] m = sourceMass;
+
+		for (int i = from; i < to; i++) {
+			double xi = x[i];
+			double yi = y[i];
+			double ri = radius[i];
+			double mi = m[i];
+			double sumX = 0;
+			double sumY = 0;
+			for (int j = i + 1; j < to; j++) {
+				double dx = xi - x[j];
+				double dy = yi - y[j];
+				double combinedRadius = ri + radius[j];
+				boolean apart = Math.abs(dx) > combinedRadius && Math.abs(dy) > combinedRadius;
+				double w = apart ? 1 / (dx * dx + dy * dy) : 0;
+				double wx = dx * w;
+				double wy = dy * w;
+				sumX += m[j] * wx;
+				sumY += m[j] * wy;
+				pullX[j] -= mi * wx;
+				pullY[j] -= mi * wy;
+			}
+			pullX[i] += sumX;
+			pullY[i] += sumY;
+		}
+	}
+
+	// Every pair with one body in [fromA, toA) and the other in [fromB, toB).
+	private void tilePair(BodyStore store, int fromA, int toA, int fromB, int toB, double[] pullX, double[] pullY) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] radius = store.radius;
+		double[] m = sourceMass;
+
+		for (int i = fromA; i < toA; i++) {
+			double xi = x[i];
+			double yi = y[i];
+			double ri = radius[i];
+			double mi = m[i];
+			double sumX = 0;
+			double sumY = 0;
+			for (int j = fromB; j < toB; j++) {
+				double dx = xi - x[j];
+				double dy = yi - y[j];
+				double combinedRadius = ri + radius[j];
+				boolean apart = Math.abs(dx) > combinedRadius && Math.abs(dy) > combinedRadius;
+				double w = apart ? 1 / (dx * dx + dy * dy) : 0;
+				double wx = dx * w;
+				double wy = dy * w;
+				sumX += m[j] * wx;
+				sumY += m[j] * wy;
+				pullX[j] -= mi * wx;
+				pullY[j] -= mi * wy;
+			}
+			pullX[i] += sumX;
+			pullY[i] += sumY;
+		}
+	}
+}
@@ -7,7 +7,11 @@ public class Earth extends PlanetaryBody{
 
 	// Constructor
 	public Earth() {
-		loadAudio();
+		this(Main.getBodyStore());
+	}
+
+	private Earth(BodyStore store) {
+		super(store);
 		this.setColor(Color.WHITE);
 		this.setSatelliteName("Earth");
 		//float rawMass = 59.72 * (10^24);
@@ -19,22 +23,39 @@ public class Earth extends PlanetaryBody{
 		this.setUseGravity(true);
 		this.setUseInertia(true);
 		this.setUseCollisions(false);
-		this.setKeepAlive(true);
+		this.setMassive(true); // Satellites bounce off the Earth, but can't knock it about. Gravity still moves it.
 		this.setCollider(new Rectangle((int)getX(), (int)getY(), (int)getRadius() * (1 + (1/2)), (int)getRadius() * (1 + (1/2))));
 	}
 
+	// The Earth restored from a saved state, onto a row that is already filled in.
+	private Earth(BodyStore store, int row, Color color) {
+		super(store, row, "Earth", color);
+	}
+
 	// Use getInstance to ensure there is only one instance at a time.
 	public static synchronized Earth getInstance() {
+		return getInstance(Main.getBodyStore());
+	}
+
+	// The first call after a reset() creates the Earth in the given store.
+	public static synchronized Earth getInstance(BodyStore store) {
 		
 		if(instance==null) {
 			System.out.println("======== \n NEW EARTH HERE! \n=========");
-			instance = new Earth();
+			instance = new Earth(store);
 		}
 		return instance;
 	}
 	
+	// Makes the Earth at the given row of a restored store the one getInstance() returns.
+	static synchronized Earth restore(BodyStore store, int row, Color color) {
+		instance = new Earth(store, row, color);
+		return instance;
+	}
+
 	// The reset so Singleton can be intentionally circumvented.
-	public static void reset() {
-		instance = new Earth();
+	// The next getInstance() creates a fresh Earth, with a row in the fresh BodyStore.
+	public static synchronized void reset() {
+		instance = null;
 	}
 }
@@ -0,0 +1,137 @@
+// The EffectScheduler keeps the short-lived visual effects on bodies, such as the flash when two collide.
+
+// A flash used to be a new Thread for every collision, which set the body's colour, slept for 32 ms
+// and set it back. In a storm of collisions that was thousands of threads a second, all writing the
+// colour without any locking. Here an effect is just an entry with an expiry time. The physics
+// threads only add requests to a lock-free queue. The render thread drains that queue once a frame,
+// stamps the new effects with the frame time, drops the ones that have run out (a priority queue
+// ordered by expiry finds them), and recolours the bodies that still have one.
+//
+// Nothing reads the requests unless a SceneCanvas is drawing, so effects are only accepted while
+// the scheduler is enabled. Headless runs and benchmarks then pay nothing for them.
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class EffectScheduler {
+
+	// How long a collision flash lasts. This matches the old sleep(32).
+	public static final long FLASH_NANOS = 32000000L;
+
+	private static final EffectScheduler instance = new EffectScheduler();
+
+	private volatile boolean enabled;
+
+	// Added to by any thread.
+	private final Queue<Effect> requests = new ConcurrentLinkedQueue<Effect>();
+
+	// Only used by the render thread: the running effects by expiry, and the newest one on each body.
+	private final PriorityQueue<Effect> byExpiry = new PriorityQueue<Effect>(16, (a, b) -> Long.compare(a.end, b.end));
+	private final Map<Integer, Effect> byBody = new HashMap<Integer, Effect>();
+	private int[] colors = new int[0];
+
+	// One effect on one body.
+	private static class Effect {
+		final int row;
+		final int id;
+		final int color;
+		final long duration;
+		final boolean fade;
+		long start;
+		long end;
+
+		Effect(int row, int id, int color, long duration, boolean fade) {
+			this.row = row;
+			this.id = id;
+			this.color = color;
+			this.duration = duration;
+			this.fade = fade;
+		}
+	}
+
+	// The effects every body shares.
+	public static EffectScheduler getInstance() {
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// Turning the scheduler off also forgets any requests no frame has picked up yet.
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			requests.clear();
+		}
+	}
+
+	// Shows the body at the given row, with the given id, in the given colour for the given time.
+	public void flash(int row, int id, int rgb, long nanos) {
+		schedule(row, id, rgb, nanos, false);
+	}
+
+	// Like flash, but the colour fades back into the body's own over the given time.
+	public void fade(int row, int id, int rgb, long nanos) {
+		schedule(row, id, rgb, nanos, true);
+	}
+
+	private void schedule(int row, int id, int rgb, long nanos, boolean fade) {
+		if (nanos <= 0) {
+			throw new IllegalArgumentException("effect time must be positive: " + nanos);
+		}
+		if (enabled) {
+			requests.offer(new Effect(row, id, rgb, nanos, fade));
+		}
+	}
+
+	// Called by the render thread once a frame. Returns the colours to draw the snapshot with at the
+	// given time: the snapshot's own when no effect is running, otherwise a copy with the effects applied.
+	// The copy is reused by the next call.
+	public int[] colors(WorldSnapshot snapshot, long now) {
+		Effect effect;
+		while ((effect = requests.poll()) != null) {
+			effect.start = now;
+			effect.end = now + effect.duration;
+			// A new effect on a body replaces the one it already has.
+			byBody.put(effect.id, effect);
+			byExpiry.add(effect);
+		}
+		while ((effect = byExpiry.peek()) != null && effect.end - now <= 0) {
+			byExpiry.poll();
+			byBody.remove(effect.id, effect);
+		}
+		if (byBody.isEmpty()) {
+			return snapshot.color;
+		}
+
+		int n = snapshot.count;
+		if (colors.length < n) {
+			colors = new int[Math.max(n, colors.length * 2)];
+		}
+		System.arraycopy(snapshot.color, 0, colors, 0, n);
+		for (Effect e : byBody.values()) {
+			// The row is where the body was when the effect began. If it isn't there now, it has gone.
+			if (e.row >= n || snapshot.id[e.row] != e.id) {
+				continue;
+			}
+			if (e.fade) {
+				colors[e.row] = blend(e.color, colors[e.row], (double)(now - e.start) / e.duration);
+			} else {
+				colors[e.row] = e.color;
+			}
+		}
+		return colors;
+	}
+
+	// Mixes from colour a at f = 0 to colour b at f = 1.
+	private static int blend(int a, int b, double f) {
+		int red = (int)Math.round(((a >> 16) & 0xFF) + (((b >> 16) & 0xFF) - ((a >> 16) & 0xFF)) * f);
+		int green = (int)Math.round(((a >> 8) & 0xFF) + (((b >> 8) & 0xFF) - ((a >> 8) & 0xFF)) * f);
+		int blue = (int)Math.round((a & 0xFF) + ((b & 0xFF) - (a & 0xFF)) * f);
+		return 0xFF000000 | (red << 16) | (green << 8) | blue;
+	}
+}
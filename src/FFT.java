@@ -0,0 +1,111 @@
+// A pure-Java fast Fourier transform for power-of-two sizes.
+
+// The transform is the iterative radix-2 Cooley-Tukey algorithm, done in place on separate
+// real and imaginary arrays. The forward transform uses e^(-i...) and is not scaled;
+// the inverse uses e^(+i...) and divides by the number of points, so inverse(forward(f)) == f.
+
+import java.util.concurrent.ForkJoinPool;
+
+public final class FFT {
+
+	private final int n;
+	private final int[] reversed;
+	private final double[] cos;
+	private final double[] sin;
+
+	// Constructor
+	public FFT(int n) {
+		if (n < 1 || (n & (n - 1)) != 0) {
+			throw new IllegalArgumentException("FFT size must be a power of two: " + n);
+		}
+		this.n = n;
+
+		int bits = Integer.numberOfTrailingZeros(n);
+		reversed = new int[n];
+		for (int i = 0; i < n; i++) {
+			reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+
+		cos = new double[n / 2 + 1];
+		sin = new double[n / 2 + 1];
+		for (int i = 0; i < cos.length; i++) {
+			double angle = -2 * Math.PI * i / n;
+			cos[i] = Math.cos(angle);
+			sin[i] = Math.sin(angle);
+		}
+	}
+
+	public int size() {
+		return n;
+	}
+
+	// Transforms re[offset..offset+n) and im[offset..offset+n) in place.
+	public void transform(double[] re, double[] im, int offset, boolean inverse) {
+		for (int i = 0; i < n; i++) {
+			int j = reversed[i];
+			if (j > i) {
+				double t = re[offset + i];
+				re[offset + i] = re[offset + j];
+				re[offset + j] = t;
+				t = im[offset + i];
+				im[offset + i] = im[offset + j];
+				im[offset + j] = t;
+			}
+		}
+
+		double direction = inverse ? -1 : 1;
+		for (int length = 2; length <= n; length <<= 1) {
+			int half = length >> 1;
+			int step = n / length;
+			for (int start = offset; start < offset + n; start += length) {
+				for (int k = 0; k < half; k++) {
+					double wr = cos[k * step];
+					double wi = direction * sin[k * step];
+					int a = start + k;
+					int b = a + half;
+					double tr = re[b] * wr - im[b] * wi;
+					double ti = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+
+		if (inverse) {
+			double scale = 1.0 / n;
+			for (int i = offset; i < offset + n; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	// Transforms a rows x cols grid, stored row by row, in place. Rows and then columns are
+	// transformed in parallel on the pool. rowFFT must have size cols and columnFFT size rows.
+	public static void transform2D(double[] re, double[] im, int rows, int cols, FFT rowFFT, FFT columnFFT,
+			boolean inverse, ForkJoinPool pool) {
+		ParallelLoop.forEach(pool, rows, 8, (from, to) -> {
+			for (int r = from; r < to; r++) {
+				rowFFT.transform(re, im, r * cols, inverse);
+			}
+		});
+
+		ParallelLoop.forEach(pool, cols, 8, (from, to) -> {
+			double[] columnRe = new double[rows];
+			double[] columnIm = new double[rows];
+			for (int c = from; c < to; c++) {
+				for (int r = 0; r < rows; r++) {
+					columnRe[r] = re[r * cols + c];
+					columnIm[r] = im[r * cols + c];
+				}
+				columnFFT.transform(columnRe, columnIm, 0, inverse);
+				for (int r = 0; r < rows; r++) {
+					re[r * cols + c] = columnRe[r];
+					im[r * cols + c] = columnIm[r];
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,31 @@
+// A GravitySolver works out how hard gravity pulls on every body.
+
+// The pull is an acceleration, in pixels per tick per tick. The SimulationEngine calls computePull()
+// whenever its Integrator needs the acceleration at the current positions. Different solvers
+// trade accuracy for speed.
+//
+// A gravity-enabled body pulls on the others unless it is a test particle (see BodyStore.pullsOthers).
+
+import java.util.concurrent.ForkJoinPool;
+
+public interface GravitySolver extends GravitationalConstants {
+
+	// A short name to show in the UI and in logs.
+	String getName();
+
+	// Fills pullX[0..n) and pullY[0..n) with the pull of every gravity-enabled body on each body,
+	// already scaled by the store's gravity divisor. Positions must only be read.
+	void computePull(BodyStore store, int n, double[] pullX, double[] pullY, ForkJoinPool pool);
+
+	// The same, but only fills the rows of the count bodies listed in active, and leaves the others alone.
+	// Every gravity-enabled body in [0, n) still pulls on them.
+	void computePull(BodyStore store, int n, int[] active, int count, double[] pullX, double[] pullY, ForkJoinPool pool);
+
+	// The potential energy of bodies [0, n) in the pull computePull() works out, with the same
+	// approximations, already scaled by the store's gravity divisor. The pull falls off as 1/d, so the
+	// potential grows with the log of the distance, and only its changes mean anything. Every pair
+	// counts unless the bodies touch: the pull also skips pairs lined up along either axis, but their
+	// potential is far too big to drop and pick up again as they pass. A body that doesn't pull still
+	// has energy in the pull of the others.
+	double computePotential(BodyStore store, int n, ForkJoinPool pool);
+}
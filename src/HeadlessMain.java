@@ -0,0 +1,399 @@
+// HeadlessMain runs a simulation with no window, as fast as the CPU allows, and reports how fast it went.
+
+// Nothing here touches Swing or the sound card, so it runs on servers with no screen. The world is
+// set up by a Scenario from the command line, then ticked back to back on this thread instead of
+// at the interactive cadence. At the end it prints ticks per second and a summary of the final
+// state, which is the same for the same arguments and seed.
+//
+// A run can be saved at the end, and every so many ticks along the way, and carried on later from the save.
+//
+// With --diagnostics the engine measures the energy and momenta every so many ticks, and each
+// measurement is printed with its drift from the first, so settings can be compared for accuracy as
+// well as speed.
+//
+// Example:
+//   java HeadlessMain --width 1920 --height 1080 --bodies 5000 --ticks 2000 --solver barnes-hut --seed 42
+//   java HeadlessMain --resume run.gsim --ticks 100000 --save run.gsim --autosave-every 10000
+//   java HeadlessMain --bodies 100000 --solver particle-mesh --ticks 1000 --record run.gtrj --record-policy block
+//   java HeadlessMain --bodies 5000 --solver barnes-hut --dt 2 --ticks 5000 --diagnostics 500
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+public class HeadlessMain {
+
+	static final GravitySolver[] SOLVERS = { new DirectSumSolver(), new BarnesHutSolver(), new ParticleMeshSolver() };
+	static final Integrator[] INTEGRATORS = { new SemiImplicitEulerIntegrator(), new LeapfrogIntegrator(),
+			new VelocityVerletIntegrator(), new BlockTimestepIntegrator() };
+
+	private static final String USAGE =
+			"Usage: java HeadlessMain [options]\n"
+			+ "  --width <px>           World width. Default 1440.\n"
+			+ "  --height <px>          World height. Default 810.\n"
+			+ "  --bodies <n>           Satellites, counting the Moon but not the Earth. Default 1000.\n"
+			+ "  --ticks <n>            Ticks to run. Default 1000.\n"
+			+ "  --solver <name>        direct-sum, barnes-hut or particle-mesh. Default direct-sum.\n"
+			+ "  --integrator <name>    semi-implicit-euler, leapfrog, velocity-verlet or block-timesteps.\n"
+			+ "  --dt <ticks>           Length of one step. Default 1.\n"
+			+ "  --substeps <n>         Steps per tick. Default 1.\n"
+			+ "  --placement <0-5>      Where satellites are created, as in the options window. Default 2.\n"
+			+ "  --seed <n>             Seed for placement and starting velocities. Default 1.\n"
+			+ "  --threads <n>          Worker threads. Default: one per core.\n"
+			+ "  --no-earth, --no-moon  Leave out the Earth or the Moon.\n"
+			+ "  --collisions           Bounce bodies that touch.\n"
+			+ "  --predict-collisions   Bounce bodies that touch, predicting contacts ahead of time.\n"
+			+ "  --wrap                 'Arcade Mode': bodies wrap around the edges of the world.\n"
+			+ "  --report <n>           Print progress every n ticks. Default: never.\n"
+			+ "  --diagnostics <n>      Measure the energy and momenta every n ticks, and print their drift.\n"
+			+ "  --resume <file>        Carry on from a saved run, with its bodies and settings. The\n"
+			+ "                         options that make the world and set up the engine are ignored.\n"
+			+ "  --save <file>          Save the run here when it ends.\n"
+			+ "  --autosave-every <n>   Also save it there every n ticks.\n"
+			+ "  --record <file>        Record every body's position and velocity at every tick to a trajectory log.\n"
+			+ "  --record-policy <p>    drop: skip ticks the recorder can't keep up with (the default).\n"
+			+ "                         block: slow the run down instead.";
+
+	public static void main(String[] args) {
+		int width = 1440;
+		int height = 810;
+		int ticks = 1000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int report = 0;
+		int diagnostics = 0;
+		double dt = 1;
+		int substeps = 1;
+		boolean collisions = false;
+		boolean predictCollisions = false;
+		boolean wrap = false;
+		GravitySolver solver = SOLVERS[0];
+		Integrator integrator = INTEGRATORS[0];
+		File resumeFile = null;
+		File saveFile = null;
+		long autosaveEvery = 0;
+		TrajectoryRecorder recorder = null;
+		TrajectoryRecorder.OverflowPolicy recordPolicy = TrajectoryRecorder.OverflowPolicy.DROP;
+
+		Scenario scenario = new Scenario();
+		scenario.setSatelliteCount(1000);
+		scenario.setSeed(1L);
+
+		try {
+			for (int a = 0; a < args.length; a++) {
+				String arg = args[a];
+				switch (arg) {
+					case "--width":
+						width = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--height":
+						height = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--bodies":
+						scenario.setSatelliteCount(Integer.parseInt(value(args, ++a, arg)));
+						break;
+					case "--ticks":
+						ticks = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--solver":
+						solver = find(SOLVERS, value(args, ++a, arg));
+						break;
+					case "--integrator":
+						integrator = find(INTEGRATORS, value(args, ++a, arg));
+						break;
+					case "--dt":
+						dt = Double.parseDouble(value(args, ++a, arg));
+						break;
+					case "--substeps":
+						substeps = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--placement":
+						scenario.setPlacement(Integer.parseInt(value(args, ++a, arg)));
+						break;
+					case "--seed":
+						scenario.setSeed(Long.parseLong(value(args, ++a, arg)));
+						break;
+					case "--threads":
+						threads = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--report":
+						report = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--diagnostics":
+						diagnostics = Integer.parseInt(value(args, ++a, arg));
+						break;
+					case "--no-earth":
+						scenario.setUseEarth(false);
+						break;
+					case "--no-moon":
+						scenario.setUseMoon(false);
+						break;
+					case "--collisions":
+						collisions = true;
+						break;
+					case "--predict-collisions":
+						collisions = true;
+						predictCollisions = true;
+						break;
+					case "--wrap":
+						wrap = true;
+						break;
+					case "--resume":
+						resumeFile = new File(value(args, ++a, arg));
+						break;
+					case "--save":
+						saveFile = new File(value(args, ++a, arg));
+						break;
+					case "--autosave-every":
+						autosaveEvery = Long.parseLong(value(args, ++a, arg));
+						break;
+					case "--record":
+						recorder = new TrajectoryRecorder(new File(value(args, ++a, arg)));
+						break;
+					case "--record-policy":
+						recordPolicy = TrajectoryRecorder.OverflowPolicy.valueOf(value(args, ++a, arg).toUpperCase(Locale.ROOT));
+						break;
+					case "--help":
+					case "-h":
+						System.out.println(USAGE);
+						return;
+					default:
+						throw new IllegalArgumentException("unknown option " + arg);
+				}
+			}
+			if (width <= 0 || height <= 0 || ticks < 0 || diagnostics < 0) {
+				throw new IllegalArgumentException("width and height must be positive, and ticks and diagnostics must not be negative");
+			}
+			checkStep(dt, substeps);
+			if (threads < 1) {
+				throw new IllegalArgumentException("threads must be at least 1");
+			}
+			if (autosaveEvery < 0 || (autosaveEvery > 0 && saveFile == null)) {
+				throw new IllegalArgumentException("--autosave-every needs a positive number of ticks, and --save");
+			}
+		} catch (IllegalArgumentException e) {
+			// NumberFormatException is an IllegalArgumentException too.
+			System.err.println("Error: " + e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		// No sound card on a server, and no point playing sounds nobody will hear.
+		PlanetaryBody.setAudioEnabled(false);
+
+		BodyStore store = new BodyStore();
+		SimulationEngine engine;
+		if (resumeFile != null) {
+			SimulationState saved;
+			try {
+				long readStart = System.nanoTime();
+				saved = StateFile.read(resumeFile);
+				System.out.println(String.format(Locale.ROOT, "Read %s in %.1f ms.", resumeFile, (System.nanoTime() - readStart) / 1e6));
+			} catch (IOException e) {
+				System.err.println("Error: can't resume from " + resumeFile + ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			List<PlanetaryBody> bodies = saved.restore(store);
+			engine = new SimulationEngine(store, bodies, threads);
+			saved.applyTo(engine, SOLVERS, INTEGRATORS);
+			width = (int)store.getWorldWidth();
+			height = (int)store.getWorldHeight();
+			System.out.println(String.format(Locale.ROOT, "Resuming at tick %d, %.1f simulated ticks in.", saved.getTick(), saved.getSimulatedTime()));
+		} else {
+			scenario.setUseAsteroidsMode(wrap);
+			scenario.setUseCollisions(collisions);
+			Earth.reset();
+			List<PlanetaryBody> bodies = scenario.build(store, width, height);
+
+			engine = new SimulationEngine(store, bodies, threads);
+			engine.setSolver(solver);
+			engine.setIntegrator(integrator);
+			engine.setTimeStep(dt);
+			engine.setSubsteps(substeps);
+			engine.setWorldSize(width, height);
+			engine.setPredictiveCollisions(predictCollisions);
+			engine.setSeed(scenario.getSeed());
+			store.setPeriodic(wrap);
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%d bodies in a %dx%d world, %s solver, %s integrator, dt %s x %d, %d threads, seed %s",
+				store.size(), width, height, engine.getSolver().getName(), engine.getIntegrator().getName(),
+				engine.getTimeStep(), engine.getSubsteps(), engine.getWorkerThreads(), engine.getSeed()));
+
+		StateSaver saver = new StateSaver(engine);
+		if (autosaveEvery > 0) {
+			saver.startAutosave(saveFile, autosaveEvery);
+		}
+		if (recorder != null) {
+			try {
+				recorder.setPolicy(recordPolicy);
+				recorder.start();
+			} catch (IOException e) {
+				System.err.println("Error: can't record to " + recorder.getFile() + ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			engine.addSnapshotListener(recorder);
+		}
+
+		// Long runs can be watched in JConsole or Mission Control while they go.
+		SimulationMetrics metrics = SimulationMetrics.getInstance();
+		metrics.registerMBean();
+
+		ConservationDiagnostics conservation = engine.getDiagnostics();
+		ConservationDiagnostics.Sample printed = null;
+		if (diagnostics > 0) {
+			engine.setDiagnosticsInterval(diagnostics);
+			System.out.println("Drift from the first measurement: energy / momentum / angular momentum.");
+		}
+
+		long start = System.nanoTime();
+		long lastReport = start;
+		for (int t = 1; t <= ticks; t++) {
+			engine.tick();
+			if (report > 0 && t % report == 0) {
+				long now = System.nanoTime();
+				System.out.println(String.format(Locale.ROOT, "tick %d: %.1f ticks/s", t, report * 1e9 / (now - lastReport)));
+				lastReport = now;
+			}
+			ConservationDiagnostics.Sample sample = conservation.getLatest();
+			if (sample != printed) {
+				printDrift(sample);
+				printed = sample;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		engine.shutdown();
+		if (recorder != null) {
+			engine.removeSnapshotListener(recorder);
+			try {
+				recorder.close();
+			} catch (IOException e) {
+				System.err.println("Error: recording to " + recorder.getFile() + " failed: " + e.getMessage());
+			}
+			System.out.println(String.format(Locale.ROOT, "Recorded %d ticks (%d dropped) to %s: %.1f MB, %.2f bytes per body per tick.",
+					recorder.getTicksRecorded(), recorder.getTicksDropped(), recorder.getFile(), recorder.getBytesWritten() / 1e6,
+					recorder.getBytesWritten() / (double)Math.max(1, recorder.getTicksRecorded() * store.size())));
+		}
+
+		double seconds = elapsed / 1e9;
+		System.out.println(String.format(Locale.ROOT, "Ran %d ticks in %.3f s: %.1f ticks/s, %.1f ms/tick, %d force evaluations.",
+				ticks, seconds, ticks / Math.max(seconds, 1e-9), seconds * 1000 / Math.max(ticks, 1), engine.getForceEvaluations()));
+		printPhases(metrics);
+		if (diagnostics > 0) {
+			System.out.println(String.format(Locale.ROOT, "Largest drift, energy / momentum / angular momentum: %.3e / %.3e / %.3e",
+					conservation.getMaxEnergyDrift(), conservation.getMaxMomentumDrift(), conservation.getMaxAngularMomentumDrift()));
+		}
+		printSummary(store, engine);
+		if (saveFile != null) {
+			try {
+				saver.save(saveFile).join();
+				saver.close();
+				System.out.println("Saved the run to " + saveFile + ".");
+			} catch (RuntimeException | InterruptedException e) {
+				// A CompletionException, carrying the IOException that stopped the save.
+				System.err.println("Error: can't save to " + saveFile + ": " + (e.getCause() != null ? e.getCause().getMessage() : e));
+				System.exit(1);
+			}
+		}
+	}
+
+	// Prints how long each phase of a step took, and how many collisions there were.
+	private static void printPhases(SimulationMetrics metrics) {
+		System.out.println("Phase times, mean / p99 / max ms:");
+		printPhase("force", metrics.getForceTimes());
+		printPhase("integrate", metrics.getIntegrateTimes());
+		printPhase("collide", metrics.getCollideTimes());
+		printPhase("publish", metrics.getPublishTimes());
+		System.out.println(String.format(Locale.ROOT, "  collisions:      %d", metrics.getCollisions()));
+	}
+
+	private static void printDrift(ConservationDiagnostics.Sample sample) {
+		System.out.println(String.format(Locale.ROOT, "tick %d: energy %.6e (kinetic %.6e, potential %.6e), drift %+.3e / %.3e / %+.3e",
+				sample.getTick(), sample.getEnergy(), sample.getKineticEnergy(), sample.getPotentialEnergy(),
+				sample.getEnergyDrift(), sample.getMomentumDrift(), sample.getAngularMomentumDrift()));
+	}
+
+	private static void printPhase(String name, LatencyHistogram.Summary times) {
+		System.out.println(String.format(Locale.ROOT, "  %-16s %.3f / %.3f / %.3f", name + ":", times.getMeanMillis(), times.getP99Millis(),
+				times.getMaxMillis()));
+	}
+
+	// Prints the final state: where the bodies are, how they move, and a checksum to compare runs by.
+	private static void printSummary(BodyStore store, SimulationEngine engine) {
+		int n = store.size();
+		double mass = 0;
+		double comX = 0;
+		double comY = 0;
+		double momentumX = 0;
+		double momentumY = 0;
+		double kineticEnergy = 0;
+		double fastest = 0;
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		long checksum = 17;
+		for (int i = 0; i < n; i++) {
+			double m = store.mass[i];
+			double x = store.x[i];
+			double y = store.y[i];
+			double vx = store.vx[i];
+			double vy = store.vy[i];
+			mass += m;
+			comX += m * x;
+			comY += m * y;
+			momentumX += m * vx;
+			momentumY += m * vy;
+			kineticEnergy += 0.5 * m * (vx * vx + vy * vy);
+			fastest = Math.max(fastest, Math.sqrt(vx * vx + vy * vy));
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			checksum = 31 * checksum + Double.doubleToLongBits(x);
+			checksum = 31 * checksum + Double.doubleToLongBits(y);
+		}
+		if (mass > 0) {
+			comX /= mass;
+			comY /= mass;
+		}
+
+		System.out.println(String.format(Locale.ROOT, "Final state after %.1f simulated ticks:", engine.getSimulatedTime()));
+		System.out.println(String.format(Locale.ROOT, "  bodies:          %d, total mass %.1f", n, mass));
+		System.out.println(String.format(Locale.ROOT, "  centre of mass:  (%.3f, %.3f)", comX, comY));
+		System.out.println(String.format(Locale.ROOT, "  bounds:          (%.1f, %.1f) to (%.1f, %.1f)", minX, minY, maxX, maxY));
+		System.out.println(String.format(Locale.ROOT, "  momentum:        (%.6f, %.6f)", momentumX, momentumY));
+		System.out.println(String.format(Locale.ROOT, "  kinetic energy:  %.6f", kineticEnergy));
+		System.out.println(String.format(Locale.ROOT, "  fastest body:    %.4f px/tick", fastest));
+		System.out.println(String.format("  checksum:        %016x", checksum));
+	}
+
+	// Checks a step length and substep count from the command line, before the engine would refuse them.
+	static void checkStep(double dt, int substeps) {
+		if (!(dt > 0) || Double.isInfinite(dt) || substeps < 1) {
+			throw new IllegalArgumentException("dt must be a positive number, and substeps must be at least 1");
+		}
+	}
+
+	static String value(String[] args, int index, String option) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException(option + " needs a value");
+		}
+		return args[index];
+	}
+
+	// Finds a solver or integrator by name, ignoring case, spaces and dashes. A prefix is enough.
+	static <T> T find(T[] choices, String name) {
+		String wanted = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "");
+		for (T choice : choices) {
+			String choiceName = choice instanceof GravitySolver ? ((GravitySolver)choice).getName() : ((Integrator)choice).getName();
+			if (!wanted.isEmpty() && choiceName.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "").startsWith(wanted)) {
+				return choice;
+			}
+		}
+		throw new IllegalArgumentException("no such choice: " + name);
+	}
+}
@@ -0,0 +1,33 @@
+// An Integrator moves the bodies forward through one step of simulated time.
+
+// Time is measured in ticks of the original simulation, so velocities are in pixels per tick and
+// accelerations (the solver's pull) are in pixels per tick per tick. With dt == 1 the
+// SemiImplicitEulerIntegrator moves the bodies exactly as the original per-body threads did,
+// but without depending on how long Thread.sleep() actually slept.
+//
+// Integrators only read and write the BodyStore columns. Whenever one needs the acceleration at
+// the current positions it asks the Forces, which runs the gravity solver into the ax and ay columns.
+// Every integrator treats the flags the same way:
+//
+// * Bodies flagged to wrap jump to the opposite edge at the start of the step.
+// * Pinned bodies have no acceleration. The engine sees to that.
+// * Bodies without inertia don't keep a velocity. They move by a * dt^2 each step, and that's all.
+
+import java.util.concurrent.ForkJoinPool;
+
+public interface Integrator {
+
+	// Fills the store's ax and ay columns with the acceleration at the current positions.
+	interface Forces {
+		void evaluate();
+
+		// Only fills the rows of the count bodies listed in active.
+		void evaluate(int[] active, int count);
+	}
+
+	// A short name to show in the UI and in logs.
+	String getName();
+
+	// Advances bodies [0, n) by dt ticks.
+	void step(BodyStore store, int n, double dt, Forces forces, ForkJoinPool pool);
+}
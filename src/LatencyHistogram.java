@@ -0,0 +1,185 @@
+// A LatencyHistogram counts how long something took, in nanoseconds, to within about 3%, without locks.
+
+// As in an HDR histogram, the buckets are spaced logarithmically: each power of two is split into 32
+// even buckets, so anything from a nanosecond to centuries lands in one of 1920 buckets, and a
+// percentile read back is within about 3% of the real one. Recording a value adds one to its bucket
+// and to a few totals, all atomically, so any thread can record at any time without waiting, and a
+// reader sees a histogram that is at worst a few values behind.
+//
+// A summary can cover everything recorded, or only what was recorded since the last summary taken
+// with the same interval array, which is what a live display wants.
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	// What a histogram held, in milliseconds.
+	public static class Summary {
+		private final long count;
+		private final double meanMillis;
+		private final double p50Millis;
+		private final double p99Millis;
+		private final double maxMillis;
+
+		@ConstructorProperties({"count", "meanMillis", "p50Millis", "p99Millis", "maxMillis"})
+		public Summary(long count, double meanMillis, double p50Millis, double p99Millis, double maxMillis) {
+			this.count = count;
+			this.meanMillis = meanMillis;
+			this.p50Millis = p50Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMeanMillis() {
+			return meanMillis;
+		}
+
+		public double getP50Millis() {
+			return p50Millis;
+		}
+
+		public double getP99Millis() {
+			return p99Millis;
+		}
+
+		public double getMaxMillis() {
+			return maxMillis;
+		}
+	}
+
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	public double getMeanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double)total.sum() / n;
+	}
+
+	// The value below which the given percent of the values fall, give or take a bucket.
+	public long getValueAtPercentile(double percentile) {
+		long[] current = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			current[i] = counts.get(i);
+		}
+		return valueAtPercentile(current, null, sum(current, null), percentile);
+	}
+
+	// Everything recorded since the histogram was made, or last reset.
+	public Summary summarize() {
+		return summarize(null);
+	}
+
+	// An array to hand to summarizeSince(), covering nothing yet.
+	public static long[] newInterval() {
+		return new long[BUCKETS + 1];
+	}
+
+	// What was recorded since the last call with the same interval array, which is then moved on to now.
+	// The maximum is only as exact as its bucket.
+	public Summary summarizeSince(long[] interval) {
+		return summarize(interval);
+	}
+
+	// Forgets everything. Values recorded while it runs may be partly kept.
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+
+	private Summary summarize(long[] interval) {
+		long[] current = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			current[i] = counts.get(i);
+		}
+		long totalNanos = total.sum();
+		long n = sum(current, interval);
+		double mean = n == 0 ? 0 : (double)(totalNanos - (interval == null ? 0 : interval[BUCKETS])) / n;
+		long p50 = valueAtPercentile(current, interval, n, 50);
+		long p99 = valueAtPercentile(current, interval, n, 99);
+		long highest = interval == null ? max.get() : valueAtPercentile(current, interval, n, 100);
+		// A bucket can reach past the biggest value in it.
+		p50 = Math.min(p50, highest);
+		p99 = Math.min(p99, highest);
+		if (interval != null) {
+			System.arraycopy(current, 0, interval, 0, BUCKETS);
+			interval[BUCKETS] = totalNanos;
+		}
+		return new Summary(n, mean / 1e6, p50 / 1e6, p99 / 1e6, highest / 1e6);
+	}
+
+	private static long sum(long[] current, long[] base) {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			n += current[i] - (base == null ? 0 : base[i]);
+		}
+		return n;
+	}
+
+	private static long valueAtPercentile(long[] current, long[] base, long n, double percentile) {
+		if (n <= 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long)Math.ceil(n * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += current[i] - (base == null ? 0 : base[i]);
+			if (seen >= wanted) {
+				return highest(i);
+			}
+		}
+		return highest(BUCKETS - 1);
+	}
+
+	// Values below 32 have a bucket each. Above, the top 6 bits of the value pick the bucket.
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int)value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+	}
+
+	// The biggest value that lands in the bucket.
+	static long highest(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long top = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long highest = ((top + 1) << shift) - 1;
+		return highest < 0 ? Long.MAX_VALUE : highest;
+	}
+}
@@ -0,0 +1,75 @@
+// The LeapfrogIntegrator moves the bodies with a kick-drift-kick leapfrog step.
+
+// Each step kicks the velocity by half a step of acceleration, drifts the position a whole step,
+// works out the acceleration at the new positions, and kicks by the other half. The acceleration
+// at the end of one step is the acceleration at the start of the next, so it still needs only one
+// force evaluation per step.
+//
+// It is second order and time-reversible, so orbits stay stable at several times the step size
+// Euler needs, which cuts the force evaluations per simulated second by the same factor.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class LeapfrogIntegrator implements Integrator {
+
+	public String getName() {
+		return "Leapfrog";
+	}
+
+	public void step(BodyStore store, int n, double dt, Forces forces, ForkJoinPool pool) {
+		if (!store.accelerationCurrent) {
+			forces.evaluate();
+		}
+		double halfStep = dt / 2;
+
+		// Kick half a step, then drift a whole one.
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			store.wrapPositions(from, to);
+			double[] x = store.x;
+			double[] y = store.y;
+			double[] vx = store.vx;
+			double[] vy = store.vy;
+			double[] ax = store.ax;
+			double[] ay = store.ay;
+			double[] nextX = store.nextX;
+			double[] nextY = store.nextY;
+			double[] nextVx = store.nextVx;
+			double[] nextVy = store.nextVy;
+			int[] flags = store.flags;
+
+			for (int i = from; i < to; i++) {
+				if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+					double halfVx = vx[i] + ax[i] * halfStep;
+					double halfVy = vy[i] + ay[i] * halfStep;
+					nextX[i] = x[i] + halfVx * dt;
+					nextY[i] = y[i] + halfVy * dt;
+					nextVx[i] = halfVx;
+					nextVy[i] = halfVy;
+				} else {
+					nextX[i] = x[i] + ax[i] * dt * dt;
+					nextY[i] = y[i] + ay[i] * dt * dt;
+					nextVx[i] = vx[i];
+					nextVy[i] = vy[i];
+				}
+			}
+		});
+		store.swapBuffers();
+
+		// Kick the other half with the acceleration at the new positions.
+		forces.evaluate();
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			double[] vx = store.vx;
+			double[] vy = store.vy;
+			double[] ax = store.ax;
+			double[] ay = store.ay;
+			int[] flags = store.flags;
+
+			for (int i = from; i < to; i++) {
+				if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+					vx[i] += ax[i] * halfStep;
+					vy[i] += ay[i] * halfStep;
+				}
+			}
+		});
+	}
+}
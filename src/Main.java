@@ -11,9 +11,9 @@
 // * Clustering / Glob / Strand formation
 
 // This project utilizes the following concepts learned in Java 4:
-// * Multi-threading - Each PlanetaryBody extends Thread. There are also Threads for sound effects and screen refreshing.
-// * Synchronization - Mutex locks help balance all of the concurrent physics calculations across the entire array of objects.
-// * I/O - Music and collision sound effect are loaded from resources.
+// * Multi-threading - A SimulationEngine steps every PlanetaryBody on a fork-join pool. There are also Threads for sound effects, and a render thread that page-flips each published tick onto the screen.
+// * Synchronization - The engine's phases are separated by barriers, and collision bounces are coloured into lock-free batches.
+// * I/O - Music and collision sound effect are loaded from resources. Runs are saved to and loaded from memory-mapped files, and recorded runs are played back from them.
 // * Design Patterns - Earth object uses a Singleton design pattern.
 // 
 
@@ -21,14 +21,16 @@
 
 import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.GridLayout;
 import java.awt.Toolkit;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -40,26 +42,55 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 
 public class Main {
-	// A list of satellites
+	// A list of satellites, and the store that holds their physical properties.
 	private static List<PlanetaryBody> satellites = new ArrayList<PlanetaryBody>();
+	private static BodyStore bodyStore = new BodyStore();
 	
-	// The JFrame where the main scene is rendered, and a JPanel where buttons are shown.
+	// The engine that steps the satellites, the solvers it can use for gravity, and the integrators it can move them with.
+	private static volatile SimulationEngine engine;
+	private static GravitySolver[] solvers = { new DirectSumSolver(), new BarnesHutSolver(), new ParticleMeshSolver() };
+	private static GravitySolver solver = solvers[0];
+	private static Integrator[] integrators = { new SemiImplicitEulerIntegrator(), new LeapfrogIntegrator(), new VelocityVerletIntegrator(), new BlockTimestepIntegrator() };
+	private static Integrator integrator = integrators[0];
+	private static JComboBox<String> cmbBoxSolver;
+	private static JComboBox<String> cmbBoxIntegrator;
+
+	// Saves the run when asked, and every few minutes to the autosave file. Each run's bodies come from a seed, which is saved too.
+	private static StateSaver saver;
+	private static final File SAVE_DIRECTORY = new File("saves");
+	private static final File AUTOSAVE_FILE = new File(SAVE_DIRECTORY, "autosave.gsim");
+	private static final long AUTOSAVE_TICKS = 5 * 60 * 1000 / SimulationEngine.TICK_MILLIS;
+	// While the metrics are shown, the energy and momenta are measured once a second.
+	private static final int DIAGNOSTICS_TICKS = (int)(1000 / SimulationEngine.TICK_MILLIS);
+	private static Long scenarioSeed;
+
+	// Plays back a run recorded with HeadlessMain --record, in place of the simulation, and the controls shown while it does.
+	private static TrajectoryPlayer player;
+	private static final File RECORDING_DIRECTORY = new File("recordings");
+	private static JPanel replayPanel;
+	private static JButton btnReplayPlay;
+	private static JSlider sldReplayTick;
+	private static JLabel lblReplayTick;
+	private static Timer replayTimer;
+	private static boolean movingReplaySlider;
+	
+	// The JFrame where the main scene is rendered, the canvas it is drawn on, and a JPanel where buttons are shown.
 	private static JFrame orbitFrame;
+	private static SceneCanvas sceneCanvas;
 	private static JPanel buttonPanel;
 	private static JPanel topPanel;
 	
-	// A set of boundaries where PlanetaryBodies can be instantiated.
-	static int minHoriz;
-	static int maxHoriz;
-	static int minVert;
-	static int maxVert;
-	
 	// The background music.
 	private static File soundFile = new File("src/sounds/Boy_1904.wav");
 	private static AudioInputStream audioIn;
@@ -73,6 +104,10 @@ public class Main {
 	public static List<PlanetaryBody> getSatellites() {
 		return satellites;
 	}
+	
+	public static BodyStore getBodyStore() {
+		return bodyStore;
+	}
 
 	protected static int qtySatellites;
 
@@ -87,12 +122,15 @@ public class Main {
 	protected static boolean randomizeInitialX;
 	protected static boolean randomizeInitialY;
 
-	private static boolean runUpdateLoop;
-
 	protected static boolean useAsteroidsMode;
 
 	private static boolean useCollisons;
 
+	protected static boolean usePredictiveCollisions;
+
+	// Keeps the Earth in the middle of the view, wherever gravity takes it.
+	private static boolean followEarth = true;
+
 	public void setFrame(JFrame thisFrame) {
 		setOrbitFrame(thisFrame);
 	}
@@ -106,6 +144,7 @@ public class Main {
 		useMoon = true;
 		useCollisons = false;
 		useAsteroidsMode = false;
+		usePredictiveCollisions = false;
 		satLocationCase = 2;
 		
 		loadBackgroundMusic();
@@ -119,7 +158,7 @@ public class Main {
 	}
 	
 	private static void playMusic() {
-		if (!clip.isActive()) {
+		if (clip != null && !clip.isActive()) {
 			clip.setFramePosition(0);
 			clip.start();
 			clip.loop(Clip.LOOP_CONTINUOUSLY);
@@ -145,6 +184,10 @@ public class Main {
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.out.println("I/O EXCEPTION while trying to get Clip.");
+		} catch (IllegalArgumentException e) {
+			// No sound card at all, or the file couldn't be read. Play on without music.
+			System.out.println("NO CLIP AVAILABLE: " + e.getMessage());
+			clip = null;
 		}
 	}
 
@@ -156,7 +199,7 @@ public class Main {
 		optionsFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		JPanel optionsPanel = new JPanel();
 		
-		optionsPanel.setLayout(new GridLayout(8,2));
+		optionsPanel.setLayout(new GridLayout(9,2));
 		optionsFrame.add(optionsPanel);
 		
 		JLabel lblInitialXVel = new JLabel("Initial X Velocity");
@@ -219,9 +262,7 @@ public class Main {
 	 	lblSatelliteInstantiationLocation.setHorizontalAlignment(SwingConstants.RIGHT);
 	 	optionsPanel.add(lblSatelliteInstantiationLocation);
 	 	
-	 	String[] satLocs = {"All Around - Extend Beyond Window", 
-	 			"All Around - Fit Inside Window", "Above", "Below", "To the Left", "To the Right" };
-	 	JComboBox<?> cmbBoxSatLocs = new JComboBox<String>(satLocs);
+	 	JComboBox<?> cmbBoxSatLocs = new JComboBox<String>(Scenario.PLACEMENTS);
 	 	cmbBoxSatLocs.setToolTipText("Different arrangements of objects have different, interesting effects on the ordiliness of the orbital relationships.");
 	 	cmbBoxSatLocs.setSelectedIndex(2);
 	 	cmbBoxSatLocs.addActionListener(new ActionListener() {
@@ -288,6 +329,21 @@ public class Main {
 	 	});
 	 	optionsPanel.add(chkBoxUseAsteroidsMode);
 	 	
+	 	JLabel lblUsePredictiveCollisions = new JLabel("Predict collisions (sparse scenes)");
+	 	lblUsePredictiveCollisions.setHorizontalAlignment(SwingConstants.RIGHT);
+	 	optionsPanel.add(lblUsePredictiveCollisions);
+	 	
+	 	JCheckBox chkBoxUsePredictiveCollisions = new JCheckBox();
+	 	chkBoxUsePredictiveCollisions.setToolTipText("Work out when satellites will touch ahead of time. Faster when collisions are rare, and fast satellites can't pass through each other.");
+	 	chkBoxUsePredictiveCollisions.setHorizontalAlignment(SwingConstants.LEFT);
+	 	chkBoxUsePredictiveCollisions.setSelected(false);
+	 	chkBoxUsePredictiveCollisions.addActionListener(new ActionListener() {
+	 		public void actionPerformed(ActionEvent e) {
+	 			usePredictiveCollisions = chkBoxUsePredictiveCollisions.isSelected();
+	 		}
+	 	});
+	 	optionsPanel.add(chkBoxUsePredictiveCollisions);
+	 	
 	 	JButton btnOK = new JButton("OK");
 	 	btnOK.addActionListener(new ActionListener() {
 	 		public void actionPerformed(ActionEvent e) {
@@ -316,23 +372,42 @@ public class Main {
 		getOrbitFrame().setDefaultCloseOperation(0);
 		getOrbitFrame().setLocationRelativeTo(null);
 		getOrbitFrame().setUndecorated(true);
+		getOrbitFrame().addComponentListener(new ComponentAdapter() {
+			public void componentResized(ComponentEvent e) {
+				SimulationEngine resized = engine;
+				if (resized != null) {
+					int width = getOrbitFrame().getWidth();
+					int height = getOrbitFrame().getHeight();
+					resized.runBetweenTicks(() -> resized.setWorldSize(width, height));
+				}
+			}
+		});
 		
+		// The scene is made first, as some buttons work on its camera.
+		sceneCanvas = new SceneCanvas();
+
 		// Make the bottom button panel.
 		createButtonPanel();
 		
-		// Make the top button panel.
+		// Make the top button panel, and the replay controls in it.
 		createTopButtonPanel();
+		createReplayPanel();
+
+		// The scene is drawn between the two panels.
+		getOrbitFrame().add(sceneCanvas, BorderLayout.CENTER);
 
 		// Finally, set (or re-set) the frame visibility, to ensure all buttons are showing.
 		getOrbitFrame().setVisible(true);
+		sceneCanvas.matchRefreshRate();
 
 		// Instantiate the rest of the satellites
-		setSatelliteLocations(satLocationCase);
 		instantiateSatellites();
 		setSatellitesInMotion();
 		
 		// Play Sound FX and music
 		useSoundFX = true;
+		CollisionSounds.getInstance().preload();
+		SimulationMetrics.getInstance().registerMBean();
 		readyAndWillingToPlayMusic = true;
 		playMusic();
 	}
@@ -374,7 +449,76 @@ public class Main {
 			}
 		});
 		topPanel.add(btnCloseWindow);
-		getOrbitFrame().add(topPanel);
+	}
+
+	// The controls for a replay. They are hidden until one starts.
+	private static void createReplayPanel() {
+		replayPanel = new JPanel();
+		replayPanel.setVisible(false);
+		topPanel.add(replayPanel);
+
+		btnReplayPlay = new JButton("Pause");
+		btnReplayPlay.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (player == null) {
+					return;
+				}
+				if (player.isPlaying()) {
+					player.pause();
+				} else {
+					player.play();
+				}
+				showReplayTick();
+			}
+		});
+		replayPanel.add(btnReplayPlay);
+
+		JLabel lblSpeed = new JLabel("Speed: ");
+		lblSpeed.setToolTipText("How fast the recording plays, against how fast it was run. Below 0 plays it backwards.");
+		replayPanel.add(lblSpeed);
+
+		String[] speeds = {"-8x", "-4x", "-2x", "-1x", "-0.5x", "0.25x", "0.5x", "1x", "2x", "4x", "8x"};
+		JComboBox<String> cmbBoxReplaySpeed = new JComboBox<String>(speeds);
+		cmbBoxReplaySpeed.setSelectedItem("1x");
+		cmbBoxReplaySpeed.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				String speed = speeds[cmbBoxReplaySpeed.getSelectedIndex()];
+				if (player != null) {
+					player.setSpeed(Double.parseDouble(speed.substring(0, speed.length() - 1)));
+				}
+			}
+		});
+		replayPanel.add(cmbBoxReplaySpeed);
+
+		// Dragging the slider seeks. While the recording plays, the slider follows it.
+		sldReplayTick = new JSlider();
+		sldReplayTick.addChangeListener(e -> {
+			if (!movingReplaySlider && player != null) {
+				player.seek(sldReplayTick.getValue());
+				showReplayTick();
+			}
+		});
+		replayPanel.add(sldReplayTick);
+
+		lblReplayTick = new JLabel();
+		replayPanel.add(lblReplayTick);
+
+		replayTimer = new Timer(100, e -> showReplayTick());
+	}
+
+	// Moves the replay controls to where the player is.
+	private static void showReplayTick() {
+		if (player == null) {
+			return;
+		}
+		long tick = player.getTick();
+		if (!sldReplayTick.getValueIsAdjusting()) {
+			movingReplaySlider = true;
+			sldReplayTick.setValue((int)tick);
+			movingReplaySlider = false;
+		}
+		lblReplayTick.setText("Tick " + tick + " of " + player.getLog().getLastTick());
+		btnReplayPlay.setText(player.isPlaying() ? "Pause" : "Play");
 	}
 
 	private static void createButtonPanel() {
@@ -397,6 +541,39 @@ public class Main {
         });
 
         buttonPanel.add(btnReset);
+
+        JButton btnSave = new JButton();
+        btnSave.setText("Save");
+        btnSave.setToolTipText("Saves the run as it is now, to carry on from later. It is also saved every 5 minutes, to " + AUTOSAVE_FILE + ".");
+        btnSave.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		doSave();
+        	}
+        });
+
+        buttonPanel.add(btnSave);
+
+        JButton btnLoad = new JButton();
+        btnLoad.setText("Load");
+        btnLoad.setToolTipText("Carries on from a saved run.");
+        btnLoad.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		doLoad();
+        	}
+        });
+
+        buttonPanel.add(btnLoad);
+
+        JButton btnReplay = new JButton();
+        btnReplay.setText("Replay");
+        btnReplay.setToolTipText("Plays back a run recorded with HeadlessMain --record, without simulating it. Reset goes back to simulating.");
+        btnReplay.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		doReplay();
+        	}
+        });
+
+        buttonPanel.add(btnReplay);
         
         JButton btnGravity = new JButton();
         btnGravity.setText("Toggle Gravity");
@@ -456,6 +633,35 @@ public class Main {
         });
         
         buttonPanel.add(btnSound);
+
+        JButton btnFollowEarth = new JButton();
+        btnFollowEarth.setText("Follow Earth");
+        btnFollowEarth.setToolTipText("Keep the Earth in the middle. Drag to pan, scroll to zoom, double-click to go back.");
+        btnFollowEarth.setBackground(Color.CYAN);
+        btnFollowEarth.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		doToggleFollowEarth(btnFollowEarth);
+        	}
+        });
+        // Dragging the view stops following the Earth, so the button has to say so too.
+        sceneCanvas.getCamera().setFollowListener(() -> {
+        	followEarth = false;
+        	btnFollowEarth.setBackground(Color.RED);
+        });
+        
+        buttonPanel.add(btnFollowEarth);
+
+        JButton btnMetrics = new JButton();
+        btnMetrics.setText("Metrics");
+        btnMetrics.setToolTipText("Shows how long each tick and frame takes, and how far the energy and momenta drift, over the scene. They are also published over JMX.");
+        btnMetrics.setBackground(Color.RED);
+        btnMetrics.addActionListener(new ActionListener() {
+        	public void actionPerformed(ActionEvent e) {
+        		doToggleMetrics(btnMetrics);
+        	}
+        });
+
+        buttonPanel.add(btnMetrics);
         
         JLabel lbldivisor = new JLabel("Gravity divisor: ");
         lbldivisor.setToolTipText("Lower numbers give stronger gravity. Higher, weaker. 1000 is normal scale."); 
@@ -468,25 +674,73 @@ public class Main {
 		cmbBoxGravitydivisor.addActionListener(new ActionListener() {
 		  public void actionPerformed(ActionEvent e) {
 			  int divisor = Integer.parseInt(divisors[cmbBoxGravitydivisor.getSelectedIndex()]);
+			  changeSatellites(() -> {
 		  		for (PlanetaryBody pb : satellites) {
 		  			pb.setGravityDivisor(divisor);
 		  		}
+			  });
 		  	}
 		});
 		buttonPanel.add(cmbBoxGravitydivisor);
+		
+		JLabel lblSolver = new JLabel("Solver: ");
+		lblSolver.setToolTipText("Direct Sum is exact. Barnes-Hut approximates distant groups of bodies. Particle Mesh spreads mass over a grid, and is fastest for huge, even crowds.");
+		buttonPanel.add(lblSolver);
+		
+		String[] solverNames = new String[solvers.length];
+		for (int i = 0; i < solvers.length; i++) {
+			solverNames[i] = solvers[i].getName();
+		}
+		
+		cmbBoxSolver = new JComboBox<String>(solverNames);
+		cmbBoxSolver.setSelectedIndex(Arrays.asList(solvers).indexOf(solver));
+		cmbBoxSolver.addActionListener(new ActionListener() {
+		  public void actionPerformed(ActionEvent e) {
+			  solver = solvers[cmbBoxSolver.getSelectedIndex()];
+			  if (engine != null) {
+				  engine.setSolver(solver);
+			  }
+		  }
+		});
+		buttonPanel.add(cmbBoxSolver);
+		
+		JLabel lblIntegrator = new JLabel("Integrator: ");
+		lblIntegrator.setToolTipText("Semi-implicit Euler moves satellites as they always have. Leapfrog and Velocity Verlet keep orbits stable with bigger steps. Block Timesteps gives close encounters smaller steps than everyone else.");
+		buttonPanel.add(lblIntegrator);
+		
+		String[] integratorNames = new String[integrators.length];
+		for (int i = 0; i < integrators.length; i++) {
+			integratorNames[i] = integrators[i].getName();
+		}
+		
+		cmbBoxIntegrator = new JComboBox<String>(integratorNames);
+		cmbBoxIntegrator.setSelectedIndex(Arrays.asList(integrators).indexOf(integrator));
+		cmbBoxIntegrator.addActionListener(new ActionListener() {
+		  public void actionPerformed(ActionEvent e) {
+			  integrator = integrators[cmbBoxIntegrator.getSelectedIndex()];
+			  if (engine != null) {
+				  engine.setIntegrator(integrator);
+			  }
+		  }
+		});
+		buttonPanel.add(cmbBoxIntegrator);
     }
 	
 	protected static void doToggleCollisions(JButton btnCollisions) {
 		if (useCollisons == true) {
-			for (PlanetaryBody pb : satellites) {
-				pb.setUseCollisions(false);	
-			}
+			changeSatellites(() -> {
+				for (PlanetaryBody pb : satellites) {
+					pb.setUseCollisions(false);	
+				}
+			});
 			useCollisons = false;
 			btnCollisions.setBackground(Color.RED);
 		} else {
-			for (PlanetaryBody pb : satellites) {
-				pb.setUseCollisions(true);
-			}
+			changeSatellites(() -> {
+				for (PlanetaryBody pb : satellites) {
+					pb.setUseCollisions(true);
+				}
+			});
 			useCollisons = true;
 			btnCollisions.setBackground(Color.CYAN);
 		}
@@ -495,27 +749,70 @@ public class Main {
 
 	protected static void doToggleSoundFX(JButton btnSound) {
 		if (useSoundFX == true) {
-			for (PlanetaryBody pb : satellites) {
-				// Turn off sound.
-				pb.setUseSound(false);
-			}
+			changeSatellites(() -> {
+				for (PlanetaryBody pb : satellites) {
+					// Turn off sound.
+					pb.setUseSound(false);
+				}
+			});
 			btnSound.setBackground(Color.RED);
 			useSoundFX = false;
 		} else {
-			for (PlanetaryBody pb : satellites) {
-				// Turn off sound.
-				pb.setUseSound(true);
-			}
+			changeSatellites(() -> {
+				for (PlanetaryBody pb : satellites) {
+					// Turn off sound.
+					pb.setUseSound(true);
+				}
+			});
 			btnSound.setBackground(Color.CYAN);
 			useSoundFX = true;
 		}
 	}
 
+	protected static void doToggleFollowEarth(JButton btnFollowEarth) {
+		if (followEarth == true) {
+			followEarth = false;
+			btnFollowEarth.setBackground(Color.RED);
+		} else {
+			followEarth = true;
+			btnFollowEarth.setBackground(Color.CYAN);
+		}
+		pointCamera();
+	}
+
+	protected static void doToggleMetrics(JButton btnMetrics) {
+		if (sceneCanvas.isShowMetrics()) {
+			sceneCanvas.setShowMetrics(false);
+			btnMetrics.setBackground(Color.RED);
+		} else {
+			sceneCanvas.setShowMetrics(true);
+			btnMetrics.setBackground(Color.CYAN);
+		}
+		if (engine != null) {
+			engine.setDiagnosticsInterval(sceneCanvas.isShowMetrics() ? DIAGNOSTICS_TICKS : 0);
+		}
+	}
+
+	// Points the camera at the Earth, if there is one and it should be followed, or leaves it where it is.
+	private static void pointCamera() {
+		int earthId = -1;
+		if (followEarth) {
+			for (PlanetaryBody pb : satellites) {
+				if (pb instanceof Earth) {
+					earthId = pb.getId();
+				}
+			}
+		}
+		sceneCanvas.getCamera().follow(earthId);
+	}
+
 	protected static void doToggleMusic(JButton btnMusic) {
 		if (readyAndWillingToPlayMusic == true) {
 			System.out.println("Stop music");
-			clip.stop();
-			clip.close();
+			if (clip != null) {
+				clip.stop();
+				clip.close();
+			}
 			readyAndWillingToPlayMusic = false;
 			btnMusic.setBackground(Color.RED);
 		} else {
@@ -532,7 +829,81 @@ public class Main {
 		}
 	}
 
+	private static void doSave() {
+		if (saver == null) {
+			return;
+		}
+		JFileChooser chooser = new JFileChooser(SAVE_DIRECTORY.isDirectory() ? SAVE_DIRECTORY : new File("."));
+		if (chooser.showSaveDialog(getOrbitFrame()) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = chooser.getSelectedFile();
+		if (!file.getName().contains(".")) {
+			file = new File(file.getPath() + ".gsim");
+		}
+		// The state is captured after the next tick, and written on the saver's thread.
+		saver.save(file).whenComplete((savedFile, failure) -> {
+			if (failure != null) {
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(getOrbitFrame(),
+						"Couldn't save the run: " + failure.getCause().getMessage(), "Save", JOptionPane.ERROR_MESSAGE));
+			} else {
+				System.out.println("Saved the run to " + savedFile);
+			}
+		});
+	}
+
+	private static void doLoad() {
+		JFileChooser chooser = new JFileChooser(SAVE_DIRECTORY.isDirectory() ? SAVE_DIRECTORY : new File("."));
+		if (chooser.showOpenDialog(getOrbitFrame()) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		SimulationState saved;
+		try {
+			saved = StateFile.read(chooser.getSelectedFile());
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(getOrbitFrame(), "Couldn't load the run: " + e.getMessage(), "Load", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		killAllSatellites();
+		satellites.addAll(saved.restore(bodyStore));
+		scenarioSeed = saved.getSeed();
+		setSatellitesInMotion(saved);
+	}
+
+	private static void doReplay() {
+		JFileChooser chooser = new JFileChooser(RECORDING_DIRECTORY.isDirectory() ? RECORDING_DIRECTORY : new File("."));
+		if (chooser.showOpenDialog(getOrbitFrame()) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		TrajectoryLog log;
+		try {
+			log = new TrajectoryLog(chooser.getSelectedFile());
+		} catch (IOException | IllegalArgumentException e) {
+			JOptionPane.showMessageDialog(getOrbitFrame(), "Couldn't open the recording: " + e.getMessage(), "Replay", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		killAllSatellites();
+		player = new TrajectoryPlayer(log);
+
+		movingReplaySlider = true;
+		sldReplayTick.setMinimum((int)log.getFirstTick());
+		sldReplayTick.setMaximum((int)log.getLastTick());
+		movingReplaySlider = false;
+		replayPanel.setVisible(true);
+		replayTimer.start();
+
+		pointCamera();
+		sceneCanvas.setSource(player);
+		sceneCanvas.start();
+		player.play();
+		showReplayTick();
+	}
+
 	private static void doReset() {
+		ResetEvent event = new ResetEvent();
+		event.begin();
+		int bodyCount = satellites.size();
+		GravitySolver solverBefore = solver;
 		killAllSatellites();
 		instantiateSatellites();
 		try {
@@ -542,199 +913,108 @@ public class Main {
 			e.printStackTrace();
 		}
 		setSatellitesInMotion();
-		
+		commitReset(event, ResetEvent.RESET, bodyCount, solverBefore);
+	}
+
+	// Fills in a reset event and commits it, if a recording wants it.
+	private static void commitReset(ResetEvent event, String action, int bodyCount, GravitySolver solverBefore) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.action = action;
+			event.bodyCount = bodyCount;
+			event.solver = solverBefore.getName();
+			event.commit();
+		}
 	}
 	
 	private static void doToggleGravity(JButton btnGravity) {
-		for (PlanetaryBody pb : satellites) {
-        	if (pb.isUseGravity() == true) {
-        		synchronized (pb.lock) {
-            		pb.setUseGravity(false);
-            		btnGravity.setBackground(Color.RED);
-				}
-        	}
-        	else {
-        		synchronized (pb.lock) {
-            		pb.setUseGravity(true);
-            		btnGravity.setBackground(Color.CYAN);
-				}
-        	}
-        }
+		if (satellites.isEmpty()) {
+			return;
+		}
+		// The button shows what the last body will be once the change is made.
+		boolean gravityOn = !satellites.get(satellites.size() - 1).isUseGravity();
+		changeSatellites(() -> {
+			for (PlanetaryBody pb : satellites) {
+				pb.setUseGravity(!pb.isUseGravity());
+			}
+		});
+		btnGravity.setBackground(gravityOn ? Color.CYAN : Color.RED);
 	}
 	
 	private static void doToggleInertia(JButton btnInertia) {
-		for (PlanetaryBody pb : satellites) {
-        	if (pb.isUseInertia() == true) {
-        		synchronized (pb.lock) {
-            		pb.setUseInertia(false);
-            		btnInertia.setBackground(Color.RED);
-				}
-        	}
-        	else {
-        		synchronized (pb.lock) {
-            		pb.setUseInertia(true);
-            		btnInertia.setBackground(Color.CYAN);
-				}
-        	}
-        }
-	}
-
-	private static void instantiateSatellites() {		
-		if (useEarth == true) {
-			// Create the Earth and add it to the satellites list.
-			Earth theEarth = Earth.getInstance();
-			theEarth.setX(getOrbitFrame().getWidth()/2);
-			theEarth.setY(getOrbitFrame().getHeight()/2);
-			satellites.add(theEarth);
+		if (satellites.isEmpty()) {
+			return;
 		}
-		
-		if (useMoon == true) {
-			//double moonMass = 7.34767309 * (10^22);
-			//float moonMass = 205.73f;
-			float moonMass = 20;
-			System.out.println("Moon's Mass: " + moonMass);
-			PlanetaryBody theMoon = new PlanetaryBody("Luna", moonMass, 24, getOrbitFrame().getWidth()/2 - 200, getOrbitFrame().getHeight()/2 +100, randomizeInitialX, randomizeInitialY);
-			satellites.add(theMoon);
-			
-			if (useAsteroidsMode == true) {
-				theMoon.setUseAsteroidsMode(true);
-			} else {
-				theMoon.setUseAsteroidsMode(false);
-			}
-			qtySatellites--;
-		} 
-		for (int i = 0; i < qtySatellites; i++)
-		{
-			int randomXpos = getRandomNumberInRange(minHoriz, maxHoriz);
-			int randomYpos = getRandomNumberInRange(minVert, maxVert);
-			int randomMass = getRandomNumberInRange(2, 12);
-			int pbRadius = randomMass;
-			
-			PlanetaryBody pb = new PlanetaryBody("Satellite " + i, (long)randomMass, pbRadius, randomXpos, randomYpos, randomizeInitialX, randomizeInitialY);
-			satellites.add(pb);
-			
-			if (useAsteroidsMode == true) {
-				pb.setUseAsteroidsMode(true);
-			} else {
-				pb.setUseAsteroidsMode(false);
+		// The button shows what the last body will be once the change is made.
+		boolean inertiaOn = !satellites.get(satellites.size() - 1).isUseInertia();
+		changeSatellites(() -> {
+			for (PlanetaryBody pb : satellites) {
+				pb.setUseInertia(!pb.isUseInertia());
 			}
-			//System.out.println(pb.getPlanetName() + "|" + pb.getMass() +"|" + pb.getRadius() + "|" + randomX + "|" + randomY );
-		}
+		});
+		btnInertia.setBackground(inertiaOn ? Color.CYAN : Color.RED);
 	}
-	
-	private static void setSatelliteLocations(int satCase) {
-		switch(satCase) {
-			case 0:
-				// All around, extending beyond edges.
-				minHoriz = -getOrbitFrame().getWidth()/2;
-				maxHoriz = getOrbitFrame().getWidth() + (getOrbitFrame().getWidth()/2);
-				minVert = -getOrbitFrame().getHeight()/2;
-				maxVert= getOrbitFrame().getHeight() + (getOrbitFrame().getHeight()/2);
-				break;
-			case 1: // All around, inside edges.
-				minHoriz = 0;
-				maxHoriz = getOrbitFrame().getWidth();
-				minVert = 0;
-				maxVert= getOrbitFrame().getHeight();
-				break;
-			case 2: // Above
-				minHoriz = -getOrbitFrame().getWidth()/3;
-				maxHoriz = getOrbitFrame().getWidth() + (getOrbitFrame().getWidth()/3);
-				minVert = -getOrbitFrame().getHeight() * (2/ 3);
-				maxVert= getOrbitFrame().getHeight() /3;
-				break;
-			case 3: // Below
-				minHoriz = -getOrbitFrame().getWidth()/3;
-				maxHoriz = getOrbitFrame().getWidth() + (getOrbitFrame().getWidth()/3);
-				minVert = getOrbitFrame().getHeight()/2;
-				maxVert= getOrbitFrame().getHeight() + getOrbitFrame().getHeight() * (1/2);
-				break;
-			case 4: // To the left
-				minHoriz = -getOrbitFrame().getWidth() * (2/3);
-				maxHoriz = (getOrbitFrame().getWidth()/3);
-				minVert = -getOrbitFrame().getHeight()/3;
-				maxVert= getOrbitFrame().getHeight() + getOrbitFrame().getHeight() /3;
-				break;
-			case 5:
-				// To the Right
-				minHoriz = getOrbitFrame().getWidth()/2;
-				maxHoriz = getOrbitFrame().getWidth() + (getOrbitFrame().getWidth()/2);
-				minVert = -getOrbitFrame().getHeight()/3;
-				maxVert= getOrbitFrame().getHeight() + getOrbitFrame().getHeight() /3;
-				break;
+
+	// Changes the satellites between ticks, so the workers never see a change half made.
+	// Without an engine nothing else touches them, so the change is made straight away.
+	private static void changeSatellites(Runnable change) {
+		if (engine != null) {
+			engine.runBetweenTicks(change);
+		} else {
+			change.run();
 		}
-		
 	}
 
-	private static void setSatellitesInMotion() {
-		// Set the satellites in motion.
-		for (PlanetaryBody p : satellites) {
-			if (!p.isAlive()){
-				System.out.println(p.getState());
-				if (p.getState().toString().equals("NEW"))
-					p.start();
-			}
-		}
-		runUpdateLoop = true;
-		
-		Thread updateThread = new Thread( ) {
-			public void run() {
-				try {
-					System.out.println("Calling updateLoop().");
-					updateLoop();
-					
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					System.out.println("Failed to call updateLoop(). If orbitWindow frame was closed, this is okay.");
-				}
-				
-				System.out.println("updateThread finished.");
-			}
-		};
-		
-		if (!updateThread.isAlive())
-		{
-			System.out.println("UpdateLoop is not alive. Starting it.");
-			updateThread.start();
-		}
-		else {
-			System.out.println("UpdateLoop is already alive. Calling Run.");
-			updateThread.run();
-		}
+	// Creates the satellites for the options chosen, sized to fit the window.
+	private static void instantiateSatellites() {
+		Scenario scenario = new Scenario();
+		scenario.setSatelliteCount(qtySatellites);
+		scenario.setUseEarth(useEarth);
+		scenario.setUseMoon(useMoon);
+		scenario.setPlacement(satLocationCase);
+		scenario.setRandomizeVelocityX(randomizeInitialX);
+		scenario.setRandomizeVelocityY(randomizeInitialY);
+		scenario.setInitialVelocity(initialX, initialY);
+		scenario.setUseAsteroidsMode(useAsteroidsMode);
+		scenario.setUseCollisions(useCollisons);
+		scenarioSeed = new Random().nextLong();
+		scenario.setSeed(scenarioSeed);
+		satellites.addAll(scenario.build(bodyStore, getOrbitFrame().getWidth(), getOrbitFrame().getHeight()));
 	}
 
-	// This loop keeps the updateFrame method running.
-	private static void updateLoop() {
-		System.out.println("Update loop here. I have been called.");
-		while(runUpdateLoop == true) {
-			updateFrame();
-		}
-		return;
+	private static void setSatellitesInMotion() {
+		setSatellitesInMotion(null);
 	}
-	
-	// Draws one still-frame rendering of the scene.
-	public static void updateFrame() {
-		int innerBoundaryWidth = getOrbitFrame().getWidth();
-		int innerBoundaryHeight = getOrbitFrame().getHeight() - 70;
-		Graphics bodyG = getOrbitFrame().getGraphics();
 
-		try {
-			Thread.sleep((long)16.67); // Sleep for 1/60th second so the update happens at 60 frames per second.
-			Graphics G = getOrbitFrame().getGraphics();
-			G.setColor(new Color(6, 16, 23));
-			G.fillRect(0, 35, innerBoundaryWidth, innerBoundaryHeight); // Paint background.
-			
-			for (PlanetaryBody p : satellites) { // Paint all PlanetaryBodies.
-				if (p.getX() > 0 && p.getX() < innerBoundaryWidth && p.getY() > 40 && p.getY() < innerBoundaryHeight + 20) {
-					bodyG.setColor(p.getColor());
-					//draw the ball at the new x and y position
-					bodyG.fillOval((int)p.getX() - (int)p.getRadius()/2, (int)p.getY() - (int)p.getRadius()/2, (int)p.getRadius(), (int)p.getRadius());	
-				}
-			}
-		}
-		catch(InterruptedException e) {
-			System.out.println(e);
+	// With a saved state, the engine carries on with the settings it was saved with.
+	private static void setSatellitesInMotion(SimulationState saved) {
+		// Set the satellites in motion.
+		engine = new SimulationEngine(bodyStore, satellites);
+		engine.setSolver(solver);
+		engine.setIntegrator(integrator);
+		engine.setWorldSize(getOrbitFrame().getWidth(), getOrbitFrame().getHeight());
+		engine.setSeed(scenarioSeed);
+		if (saved != null) {
+			saved.applyTo(engine, solvers, integrators);
+			usePredictiveCollisions = saved.isPredictiveCollisions();
+			useAsteroidsMode = saved.isPeriodic();
+			cmbBoxSolver.setSelectedIndex(Arrays.asList(solvers).indexOf(engine.getSolver()));
+			cmbBoxIntegrator.setSelectedIndex(Arrays.asList(integrators).indexOf(engine.getIntegrator()));
+		} else {
+			engine.setPredictiveCollisions(usePredictiveCollisions);
 		}
+		bodyStore.setPeriodic(useAsteroidsMode);
+		engine.setDiagnosticsInterval(sceneCanvas.isShowMetrics() ? DIAGNOSTICS_TICKS : 0);
+		SimulationMetrics.getInstance().reset();
+		engine.start();
+
+		saver = new StateSaver(engine);
+		saver.startAutosave(AUTOSAVE_FILE, AUTOSAVE_TICKS);
+
+		// Draw each tick the engine publishes.
+		pointCamera();
+		sceneCanvas.setSource(engine.getSnapshots());
+		sceneCanvas.start();
 	}
 	
 	public static int getRandomNumberInRange(int min, int max) {
@@ -747,11 +1027,11 @@ public class Main {
 	}
 
 	private static void killEverythingButTheProgram() {
-		if (clip.isActive()) {
+		if (clip != null && clip.isActive()) {
 			clip.stop();
 		}
 		killAllSatellites();
-		runUpdateLoop = false;
+		sceneCanvas.stop();
 		
 		synchronized(satellites) {
 			getOrbitFrame().dispose();
@@ -760,25 +1040,33 @@ public class Main {
 	}
 
 	private static void killAllSatellites() {
-		runUpdateLoop = false;
-		for (PlanetaryBody pb : satellites) {
-			 {
-				
-				if (pb.getSatelliteName().equals("Earth")) {
-					Earth.reset();
-				}
-				pb.setKeepAlive(false);
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				
-				System.out.println(pb.getSatelliteName() + " state: " + pb.getState());
+		ResetEvent event = new ResetEvent();
+		event.begin();
+		int bodyCount = satellites.size();
+		GravitySolver solverBefore = solver;
+		sceneCanvas.setSource(null);
+		if (player != null) {
+			replayTimer.stop();
+			replayPanel.setVisible(false);
+			try {
+				player.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
+			player = null;
+		}
+		if (saver != null) {
+			saver.shutdown();
+			saver = null;
+		}
+		if (engine != null) {
+			engine.shutdown();
+			engine = null;
 		}
+		Earth.reset();
 		satellites.clear();
+		bodyStore.clear();
+		commitReset(event, ResetEvent.KILL_ALL_SATELLITES, bodyCount, solverBefore);
 	}
 
 	public static JFrame getOrbitFrame() {
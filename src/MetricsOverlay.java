@@ -0,0 +1,98 @@
+// The MetricsOverlay draws the live SimulationMetrics in the corner of the scene, as a few lines of text.
+
+// The figures cover only the last half second or so, not the whole run, so a stall shows up while
+// it is happening. They are worked out again twice a second rather than every frame, so they can
+// be read, and so drawing them costs next to nothing.
+//
+// While the engine is measuring the energy and momenta, the drift it last measured is shown as well.
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.util.Locale;
+
+public class MetricsOverlay {
+
+	private static final long REFRESH_NANOS = 500000000L;
+	private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+	private static final Color TEXT = new Color(150, 255, 150);
+	private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+	private final SimulationMetrics metrics;
+
+	// The histograms shown, their names, and where each was last summarised up to.
+	private final LatencyHistogram[] histograms;
+	private final String[] names = { "tick", "  force", "  integrate", "  collide", "  publish", "frame", "  render" };
+	private final long[][] intervals;
+
+	private String[] lines = new String[0];
+	private long refreshed;
+	private long droppedBefore;
+	private int resetsSeen;
+
+	// Constructor
+	public MetricsOverlay(SimulationMetrics metrics) {
+		this.metrics = metrics;
+		histograms = new LatencyHistogram[] { metrics.tick, metrics.force, metrics.integrate, metrics.collide, metrics.publish,
+				metrics.frame, metrics.render };
+		intervals = new long[histograms.length][];
+		for (int h = 0; h < histograms.length; h++) {
+			intervals[h] = LatencyHistogram.newInterval();
+		}
+		resetsSeen = metrics.getResetCount();
+		droppedBefore = metrics.getDroppedFrames();
+	}
+
+	// Draws the figures in the top left corner. Only the render thread calls this.
+	public void draw(Graphics g, long now) {
+		if (lines.length == 0 || now - refreshed >= REFRESH_NANOS) {
+			refresh();
+			refreshed = now;
+		}
+		g.setFont(FONT);
+		FontMetrics fontMetrics = g.getFontMetrics();
+		int lineHeight = fontMetrics.getHeight();
+		int width = 0;
+		for (String line : lines) {
+			width = Math.max(width, fontMetrics.stringWidth(line));
+		}
+		g.setColor(BACKGROUND);
+		g.fillRect(4, 4, width + 12, lineHeight * lines.length + 8);
+		g.setColor(TEXT);
+		for (int k = 0; k < lines.length; k++) {
+			g.drawString(lines[k], 10, 8 + fontMetrics.getAscent() + k * lineHeight);
+		}
+	}
+
+	private void refresh() {
+		// After the metrics are reset, the baselines kept here would be counted off nothing.
+		int resets = metrics.getResetCount();
+		if (resets != resetsSeen) {
+			for (int h = 0; h < histograms.length; h++) {
+				intervals[h] = LatencyHistogram.newInterval();
+			}
+			droppedBefore = 0;
+			resetsSeen = resets;
+		}
+		long dropped = metrics.getDroppedFrames();
+		ConservationDiagnostics.Sample conservation = metrics.getConservation();
+		String[] next = new String[histograms.length + (conservation != null ? 3 : 2)];
+		next[0] = String.format(Locale.ROOT, "%,d bodies   %.1f ticks/s   %,.0f collisions/s",
+				metrics.getBodyCount(), metrics.getTicksPerSecond(), metrics.getCollisionsPerSecond());
+		next[1] = String.format(Locale.ROOT, "%.1f fps   %,d frames dropped in all, %,d just now",
+				metrics.getFramesPerSecond(), dropped, dropped - droppedBefore);
+		for (int h = 0; h < histograms.length; h++) {
+			LatencyHistogram.Summary summary = histograms[h].summarizeSince(intervals[h]);
+			next[h + 2] = String.format(Locale.ROOT, "%-11s %8.2f mean %8.2f p50 %8.2f p99 %8.2f max ms",
+					names[h], summary.getMeanMillis(), summary.getP50Millis(), summary.getP99Millis(), summary.getMaxMillis());
+		}
+		if (conservation != null) {
+			next[histograms.length + 2] = String.format(Locale.ROOT, "drift at tick %d: energy %+.2e  momentum %.2e  angular %+.2e",
+					conservation.getTick(), conservation.getEnergyDrift(), conservation.getMomentumDrift(),
+					conservation.getAngularMomentumDrift());
+		}
+		droppedBefore = dropped;
+		lines = next;
+	}
+}
@@ -0,0 +1,129 @@
+// Runs a piece of work over a range of indices on a fork-join pool.
+
+// The range is split in halves until the pieces are small enough, and forEach() only returns
+// once every index has been processed, so each call doubles as a barrier between phases.
+//
+// sum() adds things up over a range the same way: each piece sums into its own array, and the
+// halves are added together on the way back up. The pieces are always split at the same places
+// for the same pool, so the result does not depend on which thread ran which piece.
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+public final class ParallelLoop {
+
+	// Below this many indices a range is processed directly rather than split further.
+	private static final int MIN_SPLIT = 64;
+
+	// A piece of work over the indices [from, to).
+	public interface RangeAction {
+		void apply(int from, int to);
+	}
+
+	// A piece of a sum over the indices [from, to), added into sums.
+	public interface RangeSum {
+		void apply(int from, int to, double[] sums);
+	}
+
+	private ParallelLoop() {
+	}
+
+	public static void forEach(ForkJoinPool pool, int n, RangeAction action) {
+		forEach(pool, n, MIN_SPLIT, action);
+	}
+
+	// Like forEach(pool, n, action), but never hands out pieces smaller than minSplit.
+	public static void forEach(ForkJoinPool pool, int n, int minSplit, RangeAction action) {
+		if (n <= 0) {
+			return;
+		}
+		int chunk = Math.max(minSplit, n / (pool.getParallelism() * 4) + 1);
+		if (n <= chunk) {
+			action.apply(0, n);
+			return;
+		}
+		pool.invoke(new RangeTask(action, 0, n, chunk));
+	}
+
+	// Adds up width sums over [0, n), in parallel, and returns them.
+	public static double[] sum(ForkJoinPool pool, int n, int width, RangeSum action) {
+		return sum(pool, n, MIN_SPLIT, width, action);
+	}
+
+	// Like sum(pool, n, width, action), but never hands out pieces smaller than minSplit.
+	public static double[] sum(ForkJoinPool pool, int n, int minSplit, int width, RangeSum action) {
+		if (n <= 0) {
+			return new double[width];
+		}
+		int chunk = Math.max(minSplit, n / (pool.getParallelism() * 4) + 1);
+		if (n <= chunk) {
+			double[] sums = new double[width];
+			action.apply(0, n, sums);
+			return sums;
+		}
+		return pool.invoke(new SumTask(action, 0, n, chunk, width));
+	}
+
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final RangeAction action;
+		private final int from;
+		private final int to;
+		private final int chunk;
+
+		RangeTask(RangeAction action, int from, int to, int chunk) {
+			this.action = action;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunk) {
+				action.apply(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new RangeTask(action, from, mid, chunk), new RangeTask(action, mid, to, chunk));
+		}
+	}
+
+	private static class SumTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final RangeSum action;
+		private final int from;
+		private final int to;
+		private final int chunk;
+		private final int width;
+
+		SumTask(RangeSum action, int from, int to, int chunk, int width) {
+			this.action = action;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.width = width;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (to - from <= chunk) {
+				double[] sums = new double[width];
+				action.apply(from, to, sums);
+				return sums;
+			}
+			int mid = (from + to) >>> 1;
+			SumTask right = new SumTask(action, mid, to, chunk, width);
+			right.fork();
+			double[] sums = new SumTask(action, from, mid, chunk, width).compute();
+			double[] rightSums = right.join();
+			for (int k = 0; k < width; k++) {
+				sums[k] += rightSums[k];
+			}
+			return sums;
+		}
+	}
+}
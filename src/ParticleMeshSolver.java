@@ -0,0 +1,387 @@
+// The ParticleMeshSolver approximates gravity on a grid, in O(N + G log G) per tick.
+
+// Each tick the mass of the gravity-enabled bodies is spread onto a square grid with
+// cloud-in-cell weights, Poisson's equation is solved on the grid with a fast Fourier transform,
+// and the pull at each body is read back from the grid with the same weights.
+//
+// Our pull between two bodies falls off as 1/d (G * m * direction / d^2), which is exactly the
+// gravity of a flat, two dimensional world, so the grid solves the 2D Poisson equation.
+//
+// Without screen wrap the grid covers the bodies plus some padding, and is zero-padded to twice
+// its size so the FFT convolution does not wrap around. With screen wrap the grid covers the
+// world and is periodic, so bodies feel each other across the edges, as they should.
+//
+// The grid cannot see anything smaller than a cell, so close encounters are softened. This is
+// meant for very large, fairly uniform populations of light satellites.
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParticleMeshSolver implements GravitySolver {
+
+	public static final int DEFAULT_GRID_SIZE = 256;
+	public static final double DEFAULT_PADDING = 0.1;
+
+	private volatile int gridSize;
+	private volatile double padding;
+
+	// Grids, rebuilt only when the grid size or boundary changes.
+	private int size;       // The number of points along each side of the FFT grid.
+	private boolean periodicGrid;
+	private FFT fft;
+	private double[] re = new double[0];
+	private double[] im = new double[0];
+
+	// The transform of the isolated Green's function, x in the real part and y in the imaginary part.
+	private double[] kernelRe;
+	private double[] kernelIm;
+
+	// The transform of the isolated potential, the log of the distance. Made the first time it is needed.
+	private double[] potentialKernelRe;
+	private double[] potentialKernelIm;
+
+	// Constructor
+	public ParticleMeshSolver() {
+		this(DEFAULT_GRID_SIZE, DEFAULT_PADDING);
+	}
+
+	public ParticleMeshSolver(int gridSize, double padding) {
+		setGridSize(gridSize);
+		setPadding(padding);
+	}
+
+	public String getName() {
+		return "Particle Mesh";
+	}
+
+	public int getGridSize() {
+		return gridSize;
+	}
+
+	// The number of cells along each side of the world. Must be a power of two.
+	public void setGridSize(int gridSize) {
+		if (gridSize < 4 || (gridSize & (gridSize - 1)) != 0) {
+			throw new IllegalArgumentException("grid size must be a power of two, at least 4: " + gridSize);
+		}
+		this.gridSize = gridSize;
+	}
+
+	public double getPadding() {
+		return padding;
+	}
+
+	// The space left around the bodies without screen wrap, as a fraction of their extent on each side.
+	public void setPadding(double padding) {
+		if (padding < 0) {
+			throw new IllegalArgumentException("padding must not be negative");
+		}
+		this.padding = padding;
+	}
+
+	public void computePull(BodyStore store, int n, double[] pullX, double[] pullY, ForkJoinPool pool) {
+		computePull(store, n, null, n, pullX, pullY, pool);
+	}
+
+	// The whole grid is still solved, but the pull is only read back for the active bodies.
+	// A null active list means every body in [0, n).
+	public void computePull(BodyStore store, int n, int[] active, int count, double[] pullX, double[] pullY, ForkJoinPool pool) {
+		boolean periodic = store.isPeriodic() && store.getWorldWidth() > 0 && store.getWorldHeight() > 0;
+		int g = gridSize;
+		if (n == 0) {
+			return;
+		}
+		prepare(g, periodic, pool);
+		double[] placement = place(store, n, g, periodic);
+		double originX = placement[0];
+		double originY = placement[1];
+		double cellWidth = placement[2];
+		double cellHeight = placement[3];
+
+		deposit(store, n, g, periodic, originX, originY, cellWidth, cellHeight);
+		FFT.transform2D(re, im, size, size, fft, fft, false, pool);
+		if (periodic) {
+			solvePeriodic(cellWidth, cellHeight);
+		} else {
+			solveIsolated(cellWidth);
+		}
+		FFT.transform2D(re, im, size, size, fft, fft, true, pool);
+
+		// The pull grid now holds x in the real part and y in the imaginary part.
+		double divisor = store.getGravityDivisor();
+		ParallelLoop.forEach(pool, count, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				int i = active == null ? k : active[k];
+				interpolate(store, i, g, periodic, originX, originY, cellWidth, cellHeight, divisor, pullX, pullY);
+			}
+		});
+	}
+
+	// The potential is solved on the same grid as the pull, and read back at each body with the same weights.
+	public double computePotential(BodyStore store, int n, ForkJoinPool pool) {
+		boolean periodic = store.isPeriodic() && store.getWorldWidth() > 0 && store.getWorldHeight() > 0;
+		int g = gridSize;
+		if (n == 0) {
+			return 0;
+		}
+		prepare(g, periodic, pool);
+		double[] placement = place(store, n, g, periodic);
+		double originX = placement[0];
+		double originY = placement[1];
+		double cellWidth = placement[2];
+		double cellHeight = placement[3];
+
+		deposit(store, n, g, periodic, originX, originY, cellWidth, cellHeight);
+		FFT.transform2D(re, im, size, size, fft, fft, false, pool);
+		if (periodic) {
+			solvePeriodicPotential(cellWidth, cellHeight);
+		} else {
+			solveIsolatedPotential(g, pool);
+		}
+		FFT.transform2D(re, im, size, size, fft, fft, true, pool);
+
+		// The grid now holds the sum of mass times the log of the distance, in the real part.
+		double[] potential = new double[n];
+		double[] unused = new double[n];
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				interpolate(store, i, g, periodic, originX, originY, cellWidth, cellHeight, 1, potential, unused);
+			}
+		});
+
+		// Without screen wrap the kernel is in cell units, and log(h k) == log(h) + log(k), so the log of the
+		// cell width is added back for the mass of every other body.
+		double sourceMass = 0;
+		for (int i = 0; i < n; i++) {
+			if (BodyStore.pullsOthers(store.flags[i])) {
+				sourceMass += store.mass[i];
+			}
+		}
+		double logCell = periodic ? 0 : Math.log(cellWidth);
+		double others = sourceMass;
+		double[] sums = ParallelLoop.sum(pool, n, 1, (from, to, total) -> {
+			for (int i = from; i < to; i++) {
+				int flags = store.flags[i];
+				double own = BodyStore.pullsOthers(flags) ? store.mass[i] : 0;
+				total[0] += BodyStore.potentialMass(flags, store.mass[i]) * (potential[i] + logCell * (others - own));
+			}
+		});
+		return -gravitationalConstant * sums[0] / store.getGravityDivisor();
+	}
+
+	// Where the grid sits in the world, and how big a cell is in each direction: originX, originY, cellWidth, cellHeight.
+	private double[] place(BodyStore store, int n, int g, boolean periodic) {
+		if (periodic) {
+			return new double[] { 0, 0, store.getWorldWidth() / g, store.getWorldHeight() / g };
+		}
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, store.x[i]);
+			minY = Math.min(minY, store.y[i]);
+			maxX = Math.max(maxX, store.x[i]);
+			maxY = Math.max(maxY, store.y[i]);
+		}
+		double extent = Math.max(Math.max(maxX - minX, maxY - minY), 1);
+		double span = extent * (1 + 2 * padding);
+
+		// Cloud-in-cell touches the next point along too, so the bodies must stay within the first g - 1 points.
+		double cellWidth = span / (g - 2);
+		return new double[] { (minX + maxX) / 2 - span / 2, (minY + maxY) / 2 - span / 2, cellWidth, cellWidth };
+	}
+
+	// Allocates the grids, and the kernel transform without screen wrap, when the size or boundary changes.
+	private void prepare(int g, boolean periodic, ForkJoinPool pool) {
+		int newSize = periodic ? g : 2 * g;
+		if (newSize == size && periodic == periodicGrid) {
+			return;
+		}
+		size = newSize;
+		periodicGrid = periodic;
+		fft = new FFT(size);
+		re = new double[size * size];
+		im = new double[size * size];
+		kernelRe = null;
+		kernelIm = null;
+		potentialKernelRe = null;
+		potentialKernelIm = null;
+
+		if (!periodic) {
+			// The pull of a unit mass one cell-width away, in cell units: d / |d|^2.
+			// Offsets past the middle are negative, so the circular convolution acts as a linear one.
+			kernelRe = new double[size * size];
+			kernelIm = new double[size * size];
+			for (int row = 0; row < size; row++) {
+				int dy = row < g ? row : row - size;
+				for (int col = 0; col < size; col++) {
+					int dx = col < g ? col : col - size;
+					double d2 = dx * dx + dy * dy;
+					if (d2 > 0) {
+						kernelRe[row * size + col] = dx / d2;
+						kernelIm[row * size + col] = dy / d2;
+					}
+				}
+			}
+			FFT.transform2D(kernelRe, kernelIm, size, size, fft, fft, false, pool);
+		}
+	}
+
+	// Spreads the mass of every gravity-enabled body over the 4 nearest grid points.
+	private void deposit(BodyStore store, int n, int g, boolean periodic, double originX, double originY,
+			double cellWidth, double cellHeight) {
+		Arrays.fill(re, 0);
+		Arrays.fill(im, 0);
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] mass = store.mass;
+		int[] flags = store.flags;
+
+		for (int i = 0; i < n; i++) {
+			if (!BodyStore.pullsOthers(flags[i])) {
+				continue;
+			}
+			double u = (x[i] - originX) / cellWidth;
+			double v = (y[i] - originY) / cellHeight;
+			int col = (int)Math.floor(u);
+			int row = (int)Math.floor(v);
+			double fx = u - col;
+			double fy = v - row;
+			int col1 = col + 1;
+			int row1 = row + 1;
+			if (periodic) {
+				col = Math.floorMod(col, g);
+				row = Math.floorMod(row, g);
+				col1 = col + 1 == g ? 0 : col + 1;
+				row1 = row + 1 == g ? 0 : row + 1;
+			}
+			double m = mass[i];
+			re[row * size + col] += m * (1 - fx) * (1 - fy);
+			re[row * size + col1] += m * fx * (1 - fy);
+			re[row1 * size + col] += m * (1 - fx) * fy;
+			re[row1 * size + col1] += m * fx * fy;
+		}
+	}
+
+	// Convolves the mass with the isolated Green's function. The kernel is in cell units,
+	// and G * m * (h k) / (h k)^2 == (G / h) * m * k / k^2.
+	private void solveIsolated(double cellWidth) {
+		double scale = gravitationalConstant / cellWidth;
+		for (int i = 0; i < re.length; i++) {
+			double a = re[i];
+			double b = im[i];
+			re[i] = scale * (a * kernelRe[i] - b * kernelIm[i]);
+			im[i] = scale * (a * kernelIm[i] + b * kernelRe[i]);
+		}
+	}
+
+	// Convolves the mass with the log of the distance in cell units, which is zero at the body itself.
+	private void solveIsolatedPotential(int g, ForkJoinPool pool) {
+		if (potentialKernelRe == null) {
+			potentialKernelRe = new double[size * size];
+			potentialKernelIm = new double[size * size];
+			for (int row = 0; row < size; row++) {
+				int dy = row < g ? row : row - size;
+				for (int col = 0; col < size; col++) {
+					int dx = col < g ? col : col - size;
+					double d2 = dx * dx + dy * dy;
+					if (d2 > 0) {
+						potentialKernelRe[row * size + col] = 0.5 * Math.log(d2);
+					}
+				}
+			}
+			FFT.transform2D(potentialKernelRe, potentialKernelIm, size, size, fft, fft, false, pool);
+		}
+		for (int i = 0; i < re.length; i++) {
+			double a = re[i];
+			double b = im[i];
+			re[i] = a * potentialKernelRe[i] - b * potentialKernelIm[i];
+			im[i] = a * potentialKernelIm[i] + b * potentialKernelRe[i];
+		}
+	}
+
+	// Solves Poisson's equation for the potential on the periodic grid, in the same units as the
+	// isolated one: the log of the distance solves laplacian = 2 pi delta, so phi^ = -2 pi rho^ / k^2.
+	private void solvePeriodicPotential(double cellWidth, double cellHeight) {
+		double area = cellWidth * cellHeight;
+		double worldWidth = cellWidth * size;
+		double worldHeight = cellHeight * size;
+		for (int row = 0; row < size; row++) {
+			int my = row <= size / 2 ? row : row - size;
+			double ky = 2 * Math.PI * my / worldHeight;
+			for (int col = 0; col < size; col++) {
+				int mx = col <= size / 2 ? col : col - size;
+				double kx = 2 * Math.PI * mx / worldWidth;
+				int i = row * size + col;
+				double k2 = kx * kx + ky * ky;
+				double factor = k2 == 0 ? 0 : -2 * Math.PI / (area * k2);
+				re[i] *= factor;
+				im[i] *= factor;
+			}
+		}
+	}
+
+	// Solves Poisson's equation for the pull on the periodic grid.
+	// The 2D potential is phi^ = 2 pi G rho^ / k^2, and pull = -grad phi, so
+	// pullX^ + i pullY^ = phi^ * (ky - i kx). The mean (k = 0) is dropped, as it must be on a torus.
+	private void solvePeriodic(double cellWidth, double cellHeight) {
+		double area = cellWidth * cellHeight;
+		double worldWidth = cellWidth * size;
+		double worldHeight = cellHeight * size;
+		for (int row = 0; row < size; row++) {
+			int my = row <= size / 2 ? row : row - size;
+			double ky = row == size / 2 ? 0 : 2 * Math.PI * my / worldHeight;
+			for (int col = 0; col < size; col++) {
+				int mx = col <= size / 2 ? col : col - size;
+				double kx = col == size / 2 ? 0 : 2 * Math.PI * mx / worldWidth;
+				int i = row * size + col;
+				double k2 = kx * kx + ky * ky;
+				if (k2 == 0) {
+					re[i] = 0;
+					im[i] = 0;
+					continue;
+				}
+				double factor = 2 * Math.PI * gravitationalConstant / (area * k2);
+				double phiRe = factor * re[i];
+				double phiIm = factor * im[i];
+				re[i] = phiRe * ky + phiIm * kx;
+				im[i] = phiIm * ky - phiRe * kx;
+			}
+		}
+	}
+
+	// Reads the pull at body i back from the grid with the same weights used to deposit it.
+	private void interpolate(BodyStore store, int i, int g, boolean periodic, double originX, double originY,
+			double cellWidth, double cellHeight, double divisor, double[] pullX, double[] pullY) {
+		double u = (store.x[i] - originX) / cellWidth;
+		double v = (store.y[i] - originY) / cellHeight;
+		int col = (int)Math.floor(u);
+		int row = (int)Math.floor(v);
+		double fx = u - col;
+		double fy = v - row;
+		int col1;
+		int row1;
+		if (periodic) {
+			col = Math.floorMod(col, g);
+			row = Math.floorMod(row, g);
+			col1 = col + 1 == g ? 0 : col + 1;
+			row1 = row + 1 == g ? 0 : row + 1;
+		} else {
+			col = Math.max(0, Math.min(col, size - 2));
+			row = Math.max(0, Math.min(row, size - 2));
+			col1 = col + 1;
+			row1 = row + 1;
+		}
+
+		double w00 = (1 - fx) * (1 - fy);
+		double w10 = fx * (1 - fy);
+		double w01 = (1 - fx) * fy;
+		double w11 = fx * fy;
+		int a = row * size + col;
+		int b = row * size + col1;
+		int c = row1 * size + col;
+		int d = row1 * size + col1;
+		pullX[i] = (re[a] * w00 + re[b] * w10 + re[c] * w01 + re[d] * w11) / divisor;
+		pullY[i] = (im[a] * w00 + im[b] * w10 + im[c] * w01 + im[d] * w11) / divisor;
+	}
+}
@@ -0,0 +1,37 @@
+// A Flight Recorder event for each phase of a tick: force, integrate, collide or publish, and
+// diagnose on the ticks the engine measures the energy and momenta.
+
+// The force phase runs inside the integrator, so the force events of a step fall inside its
+// integrate event, which covers the integrator's whole step.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gravity.Phase")
+@Label("Tick Phase")
+@Category({ "Gravity Simulator", "Physics" })
+@Description("One phase of a tick")
+@StackTrace(false)
+public class PhaseEvent extends jdk.jfr.Event {
+
+	static final String FORCE = "force";
+	static final String INTEGRATE = "integrate";
+	static final String COLLIDE = "collide";
+	static final String PUBLISH = "publish";
+	static final String DIAGNOSE = "diagnose";
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Tick")
+	long tick;
+
+	@Label("Body Count")
+	int bodyCount;
+
+	@Label("Solver")
+	String solver;
+}
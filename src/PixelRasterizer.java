@@ -0,0 +1,273 @@
+// The PixelRasterizer draws a WorldSnapshot by writing pixels straight into an image, in parallel tiles.
+
+// Drawing a body with Graphics.fillOval costs a trip through Java2D for every body, which is fine
+// for thousands of bodies and far too slow for hundreds of thousands. Here the bodies are first
+// sorted into square tiles of the screen, by which tiles they cover, and then every tile is drawn
+// on its own thread, straight into the int[] behind a BufferedImage. No two threads ever write to
+// the same pixel, so no locks are needed, and the cost is about one pass over the bodies plus one
+// pass over the pixels.
+//
+// Bodies smaller than a pixel on screen are not drawn as circles at all. Each one adds to a count
+// in the pixel under it instead, and the counts are shown as a heat map, from the background colour
+// through blue and cyan to white. A million bodies then show where the crowds are, instead of a
+// speckle where most of them are hidden behind each other.
+//
+// Larger bodies are drawn as filled circles in their own colour, over the heat map, in the same
+// order as the snapshot, so later bodies cover earlier ones as they do with fillOval.
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class PixelRasterizer {
+
+	// The width and height of a tile, in pixels.
+	public static final int TILE_SIZE = 64;
+
+	// Bodies narrower than this many pixels go into the heat map.
+	public static final double DEFAULT_DENSITY_DIAMETER = 1;
+
+	// Counts at or above this many bodies in one pixel are shown as white.
+	private static final int HEAT_LEVELS = 256;
+	private static final int[] HEAT = buildHeat();
+
+	private volatile double densityDiameter = DEFAULT_DENSITY_DIAMETER;
+
+	private BufferedImage image;
+	private int[] pixels;
+	private int[] density;
+	private int width;
+	private int height;
+
+	// Where each body lands on screen, and how wide it is there, in pixels.
+	private double[] screenX = new double[0];
+	private double[] screenY = new double[0];
+	private double[] diameter = new double[0];
+
+	// The bodies in each tile, in snapshot order: tile t has tileBodies[tileStart[t]] to tileBodies[tileStart[t + 1] - 1].
+	private int[] tileStart = new int[0];
+	private int[] tileFill = new int[0];
+	private int[] tileBodies = new int[0];
+	private final int[] span = new int[4]; // Scratch for tileSpan().
+
+	public double getDensityDiameter() {
+		return densityDiameter;
+	}
+
+	public void setDensityDiameter(double densityDiameter) {
+		if (densityDiameter < 0) {
+			throw new IllegalArgumentException("density diameter must not be negative: " + densityDiameter);
+		}
+		this.densityDiameter = densityDiameter;
+	}
+
+	// Draws the part of the world from (left, top), scale pixels to the world unit, into a width x height image.
+	// The image is reused by the next call, so it must be drawn or copied before then.
+	public BufferedImage render(WorldSnapshot snapshot, double left, double top, double scale, int width, int height,
+			ForkJoinPool pool) {
+		return render(snapshot, snapshot.color, left, top, scale, width, height, pool);
+	}
+
+	// The same, but with each body in the colour given for its row instead of its own.
+	public BufferedImage render(WorldSnapshot snapshot, int[] colors, double left, double top, double scale, int width,
+			int height, ForkJoinPool pool) {
+		if (width <= 0 || height <= 0 || !(scale > 0)) {
+			throw new IllegalArgumentException("width, height and scale must be positive");
+		}
+		ensureImage(width, height);
+		int n = snapshot.count;
+		int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		project(snapshot, n, left, top, scale, pool);
+		double smallest = densityDiameter;
+		sortIntoTiles(n, tilesX, tilesY, smallest);
+
+		ParallelLoop.forEach(pool, tilesX * tilesY, 1, (from, to) -> {
+			for (int t = from; t < to; t++) {
+				drawTile(t, tilesX, colors, smallest);
+			}
+		});
+		return image;
+	}
+
+	private void ensureImage(int width, int height) {
+		if (image == null || this.width != width || this.height != height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+			density = new int[width * height];
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	// Works out where every body lands on screen.
+	private void project(WorldSnapshot snapshot, int n, double left, double top, double scale, ForkJoinPool pool) {
+		if (screenX.length < n) {
+			screenX = new double[n];
+			screenY = new double[n];
+			diameter = new double[n];
+		}
+		double[] x = snapshot.x;
+		double[] y = snapshot.y;
+		double[] radius = snapshot.radius;
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				screenX[i] = (x[i] - left) * scale;
+				screenY[i] = (y[i] - top) * scale;
+				// A body's radius is drawn as the diameter of its circle.
+				diameter[i] = radius[i] * scale;
+			}
+		});
+	}
+
+	// Lists the bodies in each tile, with a counting sort: count them per tile, then place them.
+	// A body in the heat map belongs to the tile under its centre, and a circle to every tile it covers.
+	private void sortIntoTiles(int n, int tilesX, int tilesY, double smallest) {
+		int tiles = tilesX * tilesY;
+		if (tileStart.length < tiles + 1) {
+			tileStart = new int[tiles + 1];
+			tileFill = new int[tiles];
+		}
+		Arrays.fill(tileStart, 0, tiles + 1, 0);
+
+		for (int i = 0; i < n; i++) {
+			int[] span = tileSpan(i, smallest);
+			if (span == null) {
+				continue;
+			}
+			for (int ty = span[2]; ty <= span[3]; ty++) {
+				for (int tx = span[0]; tx <= span[1]; tx++) {
+					tileStart[ty * tilesX + tx + 1]++;
+				}
+			}
+		}
+		for (int t = 0; t < tiles; t++) {
+			tileStart[t + 1] += tileStart[t];
+		}
+		if (tileBodies.length < tileStart[tiles]) {
+			tileBodies = new int[Math.max(tileStart[tiles], tileBodies.length * 2)];
+		}
+		System.arraycopy(tileStart, 0, tileFill, 0, tiles);
+		for (int i = 0; i < n; i++) {
+			int[] span = tileSpan(i, smallest);
+			if (span == null) {
+				continue;
+			}
+			for (int ty = span[2]; ty <= span[3]; ty++) {
+				for (int tx = span[0]; tx <= span[1]; tx++) {
+					tileBodies[tileFill[ty * tilesX + tx]++] = i;
+				}
+			}
+		}
+	}
+
+	// The tiles body i touches, as { first column, last column, first row, last row }, or null if it is off screen.
+	private int[] tileSpan(int i, double smallest) {
+		double cx = screenX[i];
+		double cy = screenY[i];
+		double half = diameter[i] < smallest ? 0 : Math.max(diameter[i] / 2, 0.5);
+		double minX = Math.max(cx - half, 0);
+		double minY = Math.max(cy - half, 0);
+		double maxX = Math.min(cx + half, width - 1e-9);
+		double maxY = Math.min(cy + half, height - 1e-9);
+		if (!(minX <= maxX && minY <= maxY)) {
+			return null;
+		}
+		span[0] = (int)minX / TILE_SIZE;
+		span[1] = (int)maxX / TILE_SIZE;
+		span[2] = (int)minY / TILE_SIZE;
+		span[3] = (int)maxY / TILE_SIZE;
+		return span;
+	}
+
+	private void drawTile(int t, int tilesX, int[] colors, double smallest) {
+		int x0 = (t % tilesX) * TILE_SIZE;
+		int y0 = (t / tilesX) * TILE_SIZE;
+		int x1 = Math.min(x0 + TILE_SIZE, width);
+		int y1 = Math.min(y0 + TILE_SIZE, height);
+		int background = SceneRenderer.BACKGROUND.getRGB();
+		int first = tileStart[t];
+		int last = tileStart[t + 1];
+
+		// Count the small bodies in each pixel.
+		boolean anyDensity = false;
+		for (int row = y0; row < y1; row++) {
+			Arrays.fill(density, row * width + x0, row * width + x1, 0);
+		}
+		for (int k = first; k < last; k++) {
+			int i = tileBodies[k];
+			if (diameter[i] < smallest) {
+				density[(int)screenY[i] * width + (int)screenX[i]]++;
+				anyDensity = true;
+			}
+		}
+
+		// Paint the heat map, or just the background where there is none.
+		for (int row = y0; row < y1; row++) {
+			int offset = row * width;
+			if (!anyDensity) {
+				Arrays.fill(pixels, offset + x0, offset + x1, background);
+				continue;
+			}
+			for (int p = offset + x0; p < offset + x1; p++) {
+				int count = density[p];
+				pixels[p] = count == 0 ? background : HEAT[Math.min(count, HEAT_LEVELS - 1)];
+			}
+		}
+
+		// Then the circles, over the top.
+		for (int k = first; k < last; k++) {
+			int i = tileBodies[k];
+			if (diameter[i] >= smallest) {
+				fillCircle(screenX[i], screenY[i], diameter[i] / 2, colors[i], x0, y0, x1, y1);
+			}
+		}
+	}
+
+	// Fills the pixels whose centres are inside the circle, clipped to the tile [x0, x1) x [y0, y1).
+	// A circle too small to cover any pixel centre still fills the pixel under its centre.
+	private void fillCircle(double cx, double cy, double r, int color, int x0, int y0, int x1, int y1) {
+		if (r < 0.75) {
+			int px = (int)cx;
+			int py = (int)cy;
+			if (px >= x0 && px < x1 && py >= y0 && py < y1) {
+				pixels[py * width + px] = color;
+			}
+			return;
+		}
+		int top = Math.max((int)Math.ceil(cy - r - 0.5), y0);
+		int bottom = Math.min((int)Math.floor(cy + r - 0.5), y1 - 1);
+		double rSquared = r * r;
+		for (int row = top; row <= bottom; row++) {
+			double dy = row + 0.5 - cy;
+			double half = Math.sqrt(Math.max(rSquared - dy * dy, 0));
+			int from = Math.max((int)Math.ceil(cx - half - 0.5), x0);
+			int to = Math.min((int)Math.floor(cx + half - 0.5), x1 - 1);
+			if (from <= to) {
+				Arrays.fill(pixels, row * width + from, row * width + to + 1, color);
+			}
+		}
+	}
+
+	// The heat map colours, on a log scale of the count, from the background through blue and cyan to white.
+	private static int[] buildHeat() {
+		Color[] stops = { SceneRenderer.BACKGROUND, new Color(40, 70, 170), new Color(60, 190, 235), Color.WHITE };
+		int[] heat = new int[HEAT_LEVELS];
+		for (int count = 0; count < HEAT_LEVELS; count++) {
+			// One body already shows clearly; the rest of the range is spread over log(count).
+			double level = count == 0 ? 0 : 0.25 + 0.75 * Math.log(count) / Math.log(HEAT_LEVELS - 1);
+			double position = level * (stops.length - 1);
+			int stop = Math.min((int)position, stops.length - 2);
+			double f = position - stop;
+			Color a = stops[stop];
+			Color b = stops[stop + 1];
+			int red = (int)Math.round(a.getRed() + (b.getRed() - a.getRed()) * f);
+			int green = (int)Math.round(a.getGreen() + (b.getGreen() - a.getGreen()) * f);
+			int blue = (int)Math.round(a.getBlue() + (b.getBlue() - a.getBlue()) * f);
+			heat[count] = (red << 16) | (green << 8) | blue;
+		}
+		return heat;
+	}
+}
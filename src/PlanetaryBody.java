@@ -8,58 +8,56 @@
 
 import java.awt.Color;
 import java.awt.Rectangle;
-import java.io.File;
-import java.io.IOException;
 import java.util.Random;
 
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.FloatControl;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.UnsupportedAudioFileException;
-
-public class PlanetaryBody extends Thread implements GravitationalConstants{
+public class PlanetaryBody implements GravitationalConstants{
 	
 	/*
 	 * The Private Fields
 	 * ==================
 	 */
 	
-	// The planet's name and physical properties (fields).
+	// The body's physical properties live in one row of a BodyStore.
+	// This object is a view onto that row, plus the things the physics never looks at.
+	private final BodyStore store;
+	private final int row;
+
+	// The planet's name and appearance (fields).
 	private String satelliteName;
-	private float mass; 
-	private int radius;
-	private double xPos;
-	private double yPos;
-	private double velocityX;
-	private double velocityY;
-	private Rectangle collider;
+	private Rectangle collider = new Rectangle();
 	private Color color;
 	
-	// Behavior modifiers
-	private boolean useGravity;
-	private boolean useInertia;
-	private boolean useCollisions;
-	private boolean useSound;
-	private boolean keepAlive;
-	private double gravitydivisor = 1000;
-	private boolean useAsteroidsMode;
+	// False when there is no sound card to play on, as on a headless server. New bodies then play no sound.
+	// Either way, making a body does no audio I/O: the hit sound is shared, in CollisionSounds.
+	private static volatile boolean audioEnabled = true;
+
 	
-	// Audio
-	private static AudioInputStream audioIn;
-	private Clip clip;
-	private FloatControl gainControl; 
-
-	// The PlanetaryBody has a mutex lock, needed for handing off permission to alter
-	// the body's position, whether by gravity, inertia, or collision.
-	public Object lock = new Object();
-		
 	/*
 	 * The Getters and Setters
 	 * =======================
 	 */
 	
+	public static boolean isAudioEnabled() {
+		return audioEnabled;
+	}
+
+	public static void setAudioEnabled(boolean enabled) {
+		audioEnabled = enabled;
+	}
+
+	public BodyStore getStore() {
+		return store;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	// The id the body keeps in every snapshot, however the rows are arranged.
+	public int getId() {
+		return store.id[row];
+	}
+
 	public String getSatelliteName() {
 		return this.satelliteName;
 	}
@@ -69,85 +67,83 @@ public class PlanetaryBody extends Thread implements GravitationalConstants{
 	}
 	
 	public float getMass() {
-		return this.mass;
+		return (float)store.mass[row];
 	}
 	
 	public void setMass(float mass) {
-		this.mass = mass;
+		store.mass[row] = mass;
+		store.accelerationCurrent = false;
 	}
 		
 	public double getX() {
-		return xPos;
+		return store.x[row];
 	}
 	
 	public void setX(double x ) {
-		this.xPos = x;
+		store.x[row] = x;
+		store.accelerationCurrent = false;
 	}
 	
 	public double getY() {
-		return this.yPos;
+		return store.y[row];
 	}
 	
 	public void setY(double y) {
-		this.yPos = y;
+		store.y[row] = y;
+		store.accelerationCurrent = false;
 	}
 
 	public double getRadius() {
-		return radius;
+		return store.radius[row];
 	}
 
 	public void setRadius(int radius) {
-		this.radius = radius;
+		store.radius[row] = radius;
+		store.accelerationCurrent = false;
 	}
 	
 	public boolean isUseGravity() {
-		return useGravity;
+		return store.hasFlag(row, BodyStore.FLAG_GRAVITY);
 	}
 
 	public void setUseGravity(boolean useGravity) {
-		this.useGravity = useGravity;
+		store.setFlag(row, BodyStore.FLAG_GRAVITY, useGravity);
 	}
 
 	public boolean isUseInertia() {
-		return useInertia;
+		return store.hasFlag(row, BodyStore.FLAG_INERTIA);
 	}
 
 	public void setUseInertia(boolean useInertia) {
-		this.useInertia = useInertia;
+		store.setFlag(row, BodyStore.FLAG_INERTIA, useInertia);
 	}
 
 	public double getVelocityX() {
-		return velocityX;
+		return store.vx[row];
 	}
 
 	public void setVelocityX(double inertiaX) {
-		this.velocityX = inertiaX;
+		store.vx[row] = inertiaX;
 	}
 
 	public double getVelocityY() {
-		return velocityY;
+		return store.vy[row];
 	}
 
 	public void setVelocityY(double inertiaY) {
-		this.velocityY = inertiaY;
+		store.vy[row] = inertiaY;
 	}
 
+	// The collider follows the body, so a fresh Rectangle at the current position is returned.
 	public Rectangle getCollider() {
-		return collider;
+		return new Rectangle((int)getX(), (int)getY(), collider.width, collider.height);
 	}
 
+	// Only the size of the collider is kept. Its location always comes from the body's position.
 	public void setCollider(Rectangle collider) {
-		this.collider = collider;
+		this.collider = new Rectangle(collider.width, collider.height);
 	}	
 	
-	public Clip getClip() {
-		return clip;
-	}
-
-	public void setClip(Clip thisclip) {
-		clip = thisclip;
-	}
-
 	public Color getColor() {
 		return color;
 	}
@@ -157,27 +153,41 @@ public class PlanetaryBody extends Thread implements GravitationalConstants{
 	}
 
 	public boolean isUseSound() {
-		return useSound;
+		return store.hasFlag(row, BodyStore.FLAG_SOUND);
 	}
 
 	public void setUseSound(boolean useSound) {
-		this.useSound = useSound;
+		store.setFlag(row, BodyStore.FLAG_SOUND, useSound);
+	}
+
+	public boolean isPinned() {
+		return store.hasFlag(row, BodyStore.FLAG_PINNED);
+	}
+
+	public void setPinned(boolean pinned) {
+		store.setFlag(row, BodyStore.FLAG_PINNED, pinned);
 	}
 
-	public boolean isKeepAlive() {
-		return keepAlive;
+	public boolean isMassive() {
+		return store.hasFlag(row, BodyStore.FLAG_MASSIVE);
 	}
 
-	public void setKeepAlive(boolean keepAlive) {
-		this.keepAlive = keepAlive;
+	// A massive body is never moved by collisions. Whatever hits it bounces off.
+	public void setMassive(boolean massive) {
+		store.setFlag(row, BodyStore.FLAG_MASSIVE, massive);
 	}
 
-	private double getGravitydivisor() {
-		return gravitydivisor;
+	public boolean isTestParticle() {
+		return store.hasFlag(row, BodyStore.FLAG_TEST_PARTICLE);
+	}
+
+	// A test particle is pulled by gravity, but pulls on nothing, and only pushes other test particles.
+	public void setTestParticle(boolean testParticle) {
+		store.setFlag(row, BodyStore.FLAG_TEST_PARTICLE, testParticle);
 	}
 
 	public void setGravityDivisor(double gravitydivisor) {
-		this.gravitydivisor = gravitydivisor;
+		store.setGravityDivisor(gravitydivisor);
 	}	
 	
 	/*
@@ -187,21 +197,41 @@ public class PlanetaryBody extends Thread implements GravitationalConstants{
 	
 	// Default constructor
 	public PlanetaryBody() {
+		this(Main.getBodyStore());
+	}
+
+	// Creates a body with an empty row in the given store.
+	public PlanetaryBody(BodyStore store) {
+		this.store = store;
+		this.row = store.add(0, 0, 0, 0, 0, 0, 0);
+	}
+
+	// Makes a view onto a row that is already filled in, such as one restored from a saved state.
+	PlanetaryBody(BodyStore store, int row, String name, Color color) {
+		this.store = store;
+		this.row = row;
+		this.satelliteName = name;
+		this.color = color;
+		this.setCollider(new Rectangle((int)getX(), (int)getY(), (int)(getRadius() * 1.5), (int)(getRadius() * 1.5)));
 	}
 	
 	// Constructor
 	public PlanetaryBody(String name, float mass, int radius, double xPos, double yPos, boolean randomizeXVel, boolean randomizeYVel) {
-		setUseSound(true);
-		loadAudio();
+		this(Main.getBodyStore(), name, mass, radius, xPos, yPos, randomizeXVel, randomizeYVel);
+	}
+
+	public PlanetaryBody(BodyStore store, String name, float mass, int radius, double xPos, double yPos, boolean randomizeXVel, boolean randomizeYVel) {
+		this(store);
+		setUseSound(audioEnabled);
 				
 		this.satelliteName = name;
 		//this.setColor(colors[getRandomNumberInRange(0, colors.length - 1)]);
 		this.color = Color.WHITE;
 		
-		this.mass = mass;
+		this.setMass(mass);
 		this.setRadius(radius);
-		this.xPos = xPos;
-		this.yPos = yPos;
+		this.setX(xPos);
+		this.setY(yPos);
 		
 		// Randomize initial velocity.
 		// Note: For some reason, this only works during initialization. 
@@ -222,235 +252,119 @@ public class PlanetaryBody extends Thread implements GravitationalConstants{
 		
 		setUseGravity(true);
 		setUseInertia(true);
-		setKeepAlive(true);
 		setUseCollisions(false);
 	}
 
-	// Velocity Randomizer, used during initialization. (Does not work while object thread is running.)
+	// Velocity Randomizer, used during initialization.
 	public double randomizeVelocity() {
 		Random rand = new Random();
 		double randVel = (rand.nextDouble() * 2 - 1) * 0.5f;
 		return randVel;
 	}
 
-	// The main Run thread.
-	public void run() {
-		while(isKeepAlive() == true) {
-			
-			if (isUseAsteroidsMode() == true) {
-				asteroidsMode(); // experimental
-			}
-			
-			// Get the location for later calculating velocity.
-			double firstX = this.getX();
-			double firstY = this.getY();	
-			
-			// Detect collision, and if there is a collision, bounce.
-			if (useCollisions == true) {
-				detectCollisions();
-			}
-			
-			// Apply the inertia calculate from the last loop, or from the randomizer.
-			if (isUseInertia() == true) {
-				applyInertia();
-			}
-
-			// Do gravity
-			if (isUseGravity() == true) {
-				calculateAndApplyGravity();
-			}	
-			
-			// Wait for 1/2 frame
-			try {
-				Thread.sleep(8);
-			}
-			catch(InterruptedException e) {
-				System.out.println(e);
-			}
-						
-			if (isUseInertia() == true) {
-				// Get position again, for calculating velocity, to be applied as inertia in the next loop iteration.
-				setVelocityForInertia(firstX, firstY);
-				//System.out.println(this.getPlanetName() + " | " + getInertiaX() + " | " + getInertiaY());
-			}
+	// This method based on Christopher Lis' util-elastic-collision.js.
+	// Called by the SimulationEngine during its collision phase, with pbSelf == this, once for each pair that touches.
+	// Only a pair that is still closing in bounces. Either way the two are pushed apart until they just
+	// touch, so a pair that is already moving apart isn't bounced back together next tick.
+	void collisionBounce(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
+		double velocityDifferentialX = pbSelf.getVelocityX() - pbOther.getVelocityX();
+		double velocityDifferentialY = pbSelf.getVelocityY()- pbOther.getVelocityY();
+		double distanceX = pbSelf.getX() - pbOther.getX();
+		double distanceY = pbSelf.getY() - pbOther.getY();
+		
+		if (velocityDifferentialX * distanceX + velocityDifferentialY * distanceY < 0) {
+			bounceApart(pbSelf, pbOther);
 		}
-	}
-
-	// The Velocity is measured by the difference in the last known position (should be about 8ms) and this one.
-	// This is called after inertia, gravity, and collision physics have been applied for a loop iteration.
-	private void setVelocityForInertia(double firstX, double firstY) {
-		double lastX = this.getX();
-		double lastY = this.getY();
-		setVelocityX(lastX - firstX) ;
-		setVelocityY(lastY - firstY) ;
-	}
-
-	// Inertia is applied to the position before gravity and bounce collision physics have been applied.
-	private void applyInertia() {
-		synchronized(lock) {
-			this.xPos = this.xPos + getVelocityX();
-			this.yPos = this.yPos + getVelocityY();
-			this.getCollider().setLocation((int)xPos, (int)yPos); // Move the collider too.
+		separate(pbSelf, pbOther);
+	}
+
+	// Bounces two bodies off each other, as an elastic impulse along the line between their centres,
+	// without checking which way they are moving. Momentum and energy are kept, and the velocity
+	// across that line is left alone. A body its roles say can't be pushed (see isPushed()) counts as
+	// infinitely heavy, so the other body bounces off it as off a wall.
+	// No locks are needed: the engine never bounces two contacts that share a body at the same time.
+	void bounceApart(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
+		double[] normal = normal(pbSelf, pbOther);
+		double nx = normal[0];
+		double ny = normal[1];
+
+		// How fast the bodies close in along the normal.
+		double closing = (pbSelf.getVelocityX() - pbOther.getVelocityX()) * nx + (pbSelf.getVelocityY() - pbOther.getVelocityY()) * ny;
+
+		// With J = 2 m1 m2 / (m1 + m2) * closing, v1 -= J / m1 n and v2 += J / m2 n.
+		double[] shares = shares(pbSelf, pbOther);
+		double kickSelf = 2 * shares[0] * closing;
+		double kickOther = 2 * shares[1] * closing;
+		pbSelf.setVelocityX(pbSelf.getVelocityX() - kickSelf * nx);
+		pbSelf.setVelocityY(pbSelf.getVelocityY() - kickSelf * ny);
+		pbOther.setVelocityX(pbOther.getVelocityX() + kickOther * nx);
+		pbOther.setVelocityY(pbOther.getVelocityY() + kickOther * ny);
+
+		flashColor();
+
+		if (isUseSound() == true){
+			playHitSound(pbSelf, pbOther);
 		}
 	}
 
-	// Iterate through all bodies and adjust their positions using self's mass.
-	private synchronized void calculateAndApplyGravity() {
-		for (PlanetaryBody p : Main.getSatellites())
-		{
-			if (p != this){
-				synchronized (p.lock) {
-												
-					// Calculate the distance between self and p.
-					double distance = getCombinedDistance(this.xPos, this.yPos, p.getX(), p.getY());
-					
-					// Calculate gravitational pull of body p on this body.
-					// Newton's equation describes the pull between two objects, but for our purposes
-					// we want to describe the force that this object exerts on another, assuming
-					// the other also does the same.
-					double pullOfThisMass = gravitationalConstant * (this.mass / (distance*distance));
-					
-					// Get the direction from p to self.
-					// This can and should be negative sometimes.
-					double xDir = p.getX() -this.xPos;
-					double yDir =  p.getY() - this.yPos;
-										
-					// Get the absolute value of X and Y distances from p to self.
-					// This should always be positive.
-					double xDist = Math.abs(p.getX() - this.xPos);
-					double yDist = Math.abs(p.getY() - this.yPos);
-					
-					// Update P's coordinates according to gravity.
-					if (xDist > (this.getRadius() + p.getRadius())
-							&& (yDist > this.getRadius() + p.getRadius())) {
-						
-						// gravitX and gravityY calculate the pull of this mass, multiplied by a line from self to p.
-						double gravityX = (double)(p.getX() + (pullOfThisMass * (xDir/getGravitydivisor())));
-						double gravityY = (double)(p.getY() + (pullOfThisMass * (yDir/getGravitydivisor())));
-						
-						if (!p.getSatelliteName().equals("Earth"))
-						{
-							p.setX(gravityX);
-							p.setY(gravityY);
-							p.getCollider().setLocation((int)gravityX, (int)gravityY); // Move the collider too.
-						}
-					}
-				}
-			}
+	// Moves two touching bodies apart along the line between their centres until they just touch,
+	// each by its share of the overlap, so they don't still overlap, and bounce again, next tick.
+	void separate(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
+		double dx = pbOther.getX() - pbSelf.getX();
+		double dy = pbOther.getY() - pbSelf.getY();
+		// A body's radius is drawn as the diameter of its circle.
+		double overlap = (pbSelf.getRadius() + pbOther.getRadius()) / 2 - Math.sqrt(dx * dx + dy * dy);
+		if (overlap <= 0) {
+			return;
 		}
-	}
-
-	private void detectCollisions() {
-		for (PlanetaryBody pb : Main.getSatellites()) {
-			if (pb != this) {
-				synchronized(pb.lock) {
-					double distanceX = xPos - pb.getX();
-					double distanceY = yPos - pb.getY();
-					
-					if (distanceX < (this.getRadius() + pb.getRadius()/2) && distanceX > (this.getRadius() + pb.getRadius())*(7/8)
-							&& distanceY < (this.getRadius() + pb.getRadius()/2) && distanceY > (this.getRadius() + pb.getRadius())*(7/8)){
-						if (this.collider.intersects(pb.collider)) {
-							collisionBounce(this, pb);
-						}
-					}
-				}
+		double[] normal = normal(pbSelf, pbOther);
+		double[] shares = shares(pbSelf, pbOther);
+		pbSelf.setX(pbSelf.getX() - shares[0] * overlap * normal[0]);
+		pbSelf.setY(pbSelf.getY() - shares[0] * overlap * normal[1]);
+		pbOther.setX(pbOther.getX() + shares[1] * overlap * normal[0]);
+		pbOther.setY(pbOther.getY() + shares[1] * overlap * normal[1]);
+	}
+
+	// The unit vector from pbSelf's centre to pbOther's. Bodies exactly on top of each other are taken to touch side by side.
+	private static double[] normal(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
+		double dx = pbOther.getX() - pbSelf.getX();
+		double dy = pbOther.getY() - pbSelf.getY();
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		if (distance == 0) {
+			return new double[] { 1, 0 };
+		}
+		return new double[] { dx / distance, dy / distance };
+	}
+
+	// How much of a bounce each body takes: the other's mass over both masses, all of it against a
+	// body that can't be pushed, and none of it if the body itself can't be pushed.
+	private double[] shares(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
+		int[] flags = store.flags;
+		int selfFlags = flags[pbSelf.row];
+		int otherFlags = flags[pbOther.row];
+		boolean selfPushed = isPushed(selfFlags, otherFlags);
+		boolean otherPushed = isPushed(otherFlags, selfFlags);
+		if (selfPushed && otherPushed) {
+			double mass1 = pbSelf.getMass();
+			double mass2 = pbOther.getMass();
+			double total = mass1 + mass2;
+			if (total <= 0) {
+				return new double[] { 0.5, 0.5 };
 			}
+			return new double[] { mass2 / total, mass1 / total };
 		}
+		return new double[] { selfPushed ? 1 : 0, otherPushed ? 1 : 0 };
 	}
 
-	// This method based on Christopher Lis' util-elastic-collision.js.
-	private void collisionBounce(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
-		double velocityDifferentialX = pbSelf.getVelocityX() - pbOther.getVelocityX();
-		double velocityDifferentialY = pbSelf.getVelocityY()- pbOther.getVelocityY();
-		double distanceX = pbSelf.getX() - pbOther.getX();
-		double distanceY = pbSelf.getY() - pbOther.getY();
-		
-		if (velocityDifferentialX * distanceX + velocityDifferentialY * distanceY >= 0) {
-			double angleBetweenBodies = -Math.atan2(pbOther.getY() - pbSelf.getY(), pbOther.getX() - pbSelf.getX());
-				
-		//	System.out.println(angleBetweenBodies);
-	   //     System.out.println("first velocities " + pbSelf.satelliteName + ": " + pbSelf.getVelocityX() + " | " + pbSelf.getVelocityY());
-	   //     System.out.println("first velocities " + pbOther.satelliteName + ": " + pbOther.getVelocityX() + " | " + pbOther.getVelocityY());
-
-	        double mass1 = pbSelf.getMass();
-	        double mass2 = pbOther.getMass();
-
-	        // Angular Velocity before equation
-	     //     double[] u1 = rotate(pbSelf.getVelocityX(), pbSelf.getVelocityY(), (double)angleBetweenBodies);
-	     //     double[] u2 = rotate(pbOther.getVelocityX(), pbOther.getVelocityY(), (double)angleBetweenBodies);
-	        
-	        double[] u1 = new double[2];
-	        u1[0] = pbSelf.getVelocityX();
-	        u1[1] = pbSelf.getVelocityY();
-	        
-	        double[] u2 = new double[2];
-	        u2[0] = pbOther.getVelocityX();
-	        u2[1] = pbOther.getVelocityY();
-	        
-	     //   System.out.println("Angular Vel before equation. " + pbSelf.satelliteName + ": " + u1[0] + " | " + u1[1]  );
-	     //   System.out.println("Angular Vel before equation. " + pbOther.satelliteName + ": " + u2[0] + " | " + u2[1]  );
-	        
-	    //    // Velocity after 1d collision equation
-	          double[] v1 = new double[2];
-	          v1[0] = (double) (u1[0] * (mass1 - mass2) / (mass1 + mass2) + u2[0] * 2 * mass2 / (mass1 + mass2));
-	          v1[1] = u1[1];
-	          	
-	          double[] v2 = new double[2];
-	          v2[0] = (double) (u2[0] * (mass1 - mass2) / (mass1 + mass2) + u1[0] * 2 * mass2 / (mass1 + mass2));
-	          v2[1] = u2[1];
-	        
-	        // Final velocity after rotating axis back to original location
-	    //    double[] vFinal1 = rotate(v1[0], v1[1], (double)-angleBetweenBodies);
-	    //    double[] vFinal2 = rotate(v2[0], v2[1], (double)-angleBetweenBodies);
-	        
-	    //    System.out.println("Angular Vel after rotating axis back to original location " + pbSelf.satelliteName + ": " + vFinal1[0] + " | " + vFinal1[1]  );
-	    //    System.out.println("Angular Vel after rotating axis back to original location " + pbOther.satelliteName + ": " + vFinal2[0] + " | " + vFinal2[1]  );
-	      
-        	double[] vFinal1 = v1;
-        	double[] vFinal2 = v2;
-	        
-	        // Swap velocities for realistic bounce effect
-	        // For the sake of centering, in lieu of a camera object, the Earth does not move. So...
-	        // If I am the Earth, only bounce pbOther.
-	        if (this.getSatelliteName().equals("Earth")) {
-	        	synchronized(pbOther.lock) {
-			        pbOther.setVelocityX(vFinal2[0]);
-			        pbOther.setVelocityY(vFinal2[1]);
-	        	}
-
-	        } else if (pbOther.getSatelliteName().equals("Earth")) {
-	        	
-	        	// But if pbOther is the Earth, then I am not. Bounce only me, and not the Earth.
-	        	synchronized(this.lock) {
-		        	pbSelf.setVelocityX(vFinal1[0]);
-			        pbSelf.setVelocityY(vFinal1[1]);
-	        	}
-	        } else {
-	        	
-	        	// If neither of us is the Earth, bounce each other.
-	        	synchronized(this.lock) {
-		        	pbSelf.setVelocityX(vFinal1[0]);
-			        pbSelf.setVelocityY(vFinal1[1]);
-	        	}
-
-	        	synchronized(pbOther.lock) {
-			        pbOther.setVelocityX(vFinal2[0]);
-			        pbOther.setVelocityY(vFinal2[1]);	
-	        	}
-	
-		        
-		      //  System.out.println("Collision Velocity: " + pbSelf.getSatelliteName() +"|" + vFinal1[0] + "|" + vFinal1[1]);
-		      //  System.out.println("Collision Velocity: " + pbOther.getSatelliteName() +"|" + vFinal2[0] + "|" + vFinal2[1]);
-	        }
-	        
-	        flashColor();
-	        
-	        if (isUseSound() == true){
-		        playHitSound(pbSelf, pbOther);
-	        }
+	// True if a body with bodyFlags is moved when it collides with a body with otherFlags.
+	// A massive body is never moved, and a test particle has no mass to push with, except against another test particle.
+	private static boolean isPushed(int bodyFlags, int otherFlags) {
+		if ((bodyFlags & BodyStore.FLAG_MASSIVE) != 0) {
+			return false;
 		}
+		return (otherFlags & BodyStore.FLAG_TEST_PARTICLE) == 0 || (bodyFlags & BodyStore.FLAG_TEST_PARTICLE) != 0;
 	}
-	
+
 	// Calculates a rotation by accepting two velocities and an angle, and returns a 2D double.
 	public double[] rotate(double velocityX, double velocityY, double angle) {
 	    double[] rotatedVelocities = new double[2];
@@ -466,84 +380,32 @@ public class PlanetaryBody extends Thread implements GravitationalConstants{
 	    return Math.sqrt(dx * dx + dy * dy); 
 	}
 
-	public void loadAudio() {
-		Thread audioThread = new Thread() {
-			public void run() {
-				try {
-					File soundFile = new File("src/sounds/karma-ron_orch-002-boom.wav");
-					audioIn = AudioSystem.getAudioInputStream(soundFile);
-				} catch (UnsupportedAudioFileException e) {
-					e.printStackTrace();
-					System.out.println("UNSUPPORTED AUDIO FILE TYPE");
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("I/O EXCEPTION while trying to assign 'audioIn'. Wrong path?");
-				}
-				
-				try {
-					setClip(AudioSystem.getClip());
-					getClip().open(audioIn);			        
-				} catch (LineUnavailableException e) {
-					e.printStackTrace();
-					System.out.println("FAILED TO GET CLIP");
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.out.println("I/O EXCEPTION while trying to get Clip.");
-				}
-				
-				gainControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-			}
-		};
-		
-		audioThread.run();
-	}
-	
 	private void playHitSound(PlanetaryBody pbSelf, PlanetaryBody pbOther) {
-		// Play the "hit" sound.
-		if(!clip.isActive()) {
-			clip.setFramePosition(0);  // Must always rewind!
-			
-			// set the gain scaled to the velocity of the hit.
-			double gain;
-			float dB;
-			if (pbOther.getSatelliteName()=="Earth") {
-				gain = ((Math.abs(pbSelf.getVelocityX()) + Math.abs(pbSelf.getVelocityY()) * (mass/100)) /2 );
-				dB = (float) (Math.log(gain) / Math.log(10.0) * 20.0);
-			}
-			else {
-				gain = ((Math.abs(pbOther.getVelocityX()) + Math.abs(pbOther.getVelocityY()) * (pbOther.getMass()/100)) /2);
-				dB = (float) (Math.log(gain) / Math.log(10.0) * 20.0);
-			}
-			 
-			if (dB < 6 && gain > 0.2) {
-				gainControl.setValue(dB);
-				clip.start();
-			} else if (dB > 6){
-				gainControl.setValue(6);
-				clip.start();
-			}
-			//System.out.println("Gain: " + gain + "| Decibels" + dB);
-		}	
+		// Play the "hit" sound, with the gain scaled to the velocity of the hit.
+		double gain;
+		float dB;
+		if (pbOther.isMassive()) {
+			gain = ((Math.abs(pbSelf.getVelocityX()) + Math.abs(pbSelf.getVelocityY()) * (getMass()/100)) /2 );
+			dB = (float) (Math.log(gain) / Math.log(10.0) * 20.0);
+		}
+		else {
+			gain = ((Math.abs(pbOther.getVelocityX()) + Math.abs(pbOther.getVelocityY()) * (pbOther.getMass()/100)) /2);
+			dB = (float) (Math.log(gain) / Math.log(10.0) * 20.0);
+		}
+		 
+		if (dB < 6 && gain > 0.2) {
+			CollisionSounds.getInstance().play(dB);
+		} else if (dB > 6){
+			CollisionSounds.getInstance().play(6);
+		}
+		//System.out.println("Gain: " + gain + "| Decibels" + dB);
 	}
 
+	// Flashes cyan for a moment, on the next frames drawn. Massive bodies don't flash.
 	private void flashColor() {
-		Thread thisThread = new Thread() {
-			public void run() {
-				if (!satelliteName.equals("Earth")) {
-					color = Color.CYAN;
-					try {
-						sleep(32);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					
-					color = Color.WHITE ;
-				}
-			}
-		};
-		
-		thisThread.start();
+		if (!isMassive()) {
+			EffectScheduler.getInstance().flash(row, getId(), Color.CYAN.getRGB(), EffectScheduler.FLASH_NANOS);
+		}
 	}
 
 	public static int getRandomNumberInRange(int min, int max) {
@@ -556,31 +418,21 @@ public class PlanetaryBody extends Thread implements GravitationalConstants{
 	
 	// EXPERIMENTAL
 	// Make objects jump to the opposite side of the screen when they go off screen, like in Asteroids or Pac-Man.
-
-	public void asteroidsMode() {
-		if (this.xPos > Main.getOrbitFrame().getWidth()) {
-			this.xPos = 0;
-		} else if (this.xPos <= 0) {
-			this.xPos = Main.getOrbitFrame().getWidth();
-		}
-		
-		if (this.yPos > Main.getOrbitFrame().getHeight()) {
-			this.yPos = 0;
-		} else if (this.yPos <= 0) {
-			this.yPos = Main.getOrbitFrame().getHeight();
-		}
-	}
-
+	// The Integrator does the wrapping at the start of each step.
 	public boolean isUseAsteroidsMode() {
-		return useAsteroidsMode;
+		return store.hasFlag(row, BodyStore.FLAG_WRAP);
 	}
 
 	public void setUseAsteroidsMode(boolean useAsteroidsMode) {
-		this.useAsteroidsMode = useAsteroidsMode;
+		store.setFlag(row, BodyStore.FLAG_WRAP, useAsteroidsMode);
+	}
+
+	public boolean isUseCollisions() {
+		return store.hasFlag(row, BodyStore.FLAG_COLLIDES);
 	}
 
 	public void setUseCollisions(boolean b) {
-		this.useCollisions = b;
+		store.setFlag(row, BodyStore.FLAG_COLLIDES, b);
 		
 	}
 }
@@ -0,0 +1,33 @@
+// A Flight Recorder event for each frame the SceneCanvas draws and shows.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gravity.RenderFrame")
+@Label("Render Frame")
+@Category({ "Gravity Simulator", "Rendering" })
+@Description("Drawing one frame into the back buffer and showing it")
+@StackTrace(false)
+public class RenderFrameEvent extends jdk.jfr.Event {
+
+	@Label("Frame")
+	long frame;
+
+	@Label("Tick")
+	@Description("The tick drawn")
+	long tick;
+
+	@Label("Body Count")
+	int bodyCount;
+
+	@Label("Solver")
+	@Description("The solver that worked the tick out, or Replay")
+	String solver;
+
+	@Label("Rasterised")
+	@Description("Drawn as pixels by the PixelRasterizer, rather than as shapes")
+	boolean rasterized;
+}
@@ -0,0 +1,26 @@
+// A Flight Recorder event for clearing the bodies away, or resetting the run, from the window.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("gravity.Reset")
+@Label("Reset")
+@Category({ "Gravity Simulator", "Controls" })
+@Description("The bodies were cleared away (kill all satellites), or the run was started again (reset)")
+public class ResetEvent extends jdk.jfr.Event {
+
+	static final String RESET = "reset";
+	static final String KILL_ALL_SATELLITES = "kill all satellites";
+
+	@Label("Action")
+	String action;
+
+	@Label("Body Count")
+	@Description("The bodies there were before")
+	int bodyCount;
+
+	@Label("Solver")
+	String solver;
+}
@@ -0,0 +1,385 @@
+// ScalingBenchmark times whole headless runs over a sweep of body counts and worker threads, and writes a report.
+
+// The JMH benchmarks time one phase at a time. This times everything a tick does, end to end, the
+// way HeadlessMain runs it: for every placement, body count and thread count asked for, it builds
+// the same seeded Scenario, runs a few ticks to warm up, then runs a fixed amount of simulated time
+// and measures it. Each run reports ticks per second, pair interactions per second, the median and
+// 99th percentile time of one tick, and the peak heap used.
+//
+// With a fixed body count, more threads show the strong-scaling curve. With --weak, the body counts
+// are per thread, so the work per thread stays the same and the weak-scaling curve shows instead.
+//
+// The report is JSON or CSV, on standard output or in a file, so runs on different machines and
+// releases can be compared. Progress goes to standard error.
+//
+// Example:
+//   java ScalingBenchmark --bodies 1000,2000,4000 --threads 1,2,4 --placements 1,2 --seconds 5 --out scaling.json
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class ScalingBenchmark {
+
+	// One simulated second is as many ticks as the interactive engine runs in a second.
+	private static final double TICKS_PER_SECOND = 1000.0 / SimulationEngine.TICK_MILLIS;
+
+	private static final String USAGE =
+			"Usage: java ScalingBenchmark [options]\n"
+			+ "  --bodies <n,n,...>      Satellites in each run. Default 500,1000,2000.\n"
+			+ "  --threads <n,n,...>     Worker threads in each run. Default 1, 2, 4 ... up to one per core.\n"
+			+ "  --placements <n,n,...>  Placements 0-5, as in the options window. Default all of them.\n"
+			+ "  --weak                  The body counts are per thread, for weak scaling.\n"
+			+ "  --seconds <s>           Simulated seconds to time in each run. Default 4.\n"
+			+ "  --warmup <ticks>        Ticks to run before timing each run. Default 50.\n"
+			+ "  --width <px>            World width. Default 1440.\n"
+			+ "  --height <px>           World height. Default 810.\n"
+			+ "  --solver <name>         direct-sum, barnes-hut or particle-mesh. Default direct-sum.\n"
+			+ "  --integrator <name>     semi-implicit-euler, leapfrog, velocity-verlet or block-timesteps.\n"
+			+ "  --dt <ticks>            Length of one step. Default 1.\n"
+			+ "  --substeps <n>          Steps per tick. Default 1.\n"
+			+ "  --seed <n>              Seed for placement and starting velocities. Default 1.\n"
+			+ "  --collisions            Bounce bodies that touch.\n"
+			+ "  --format <json|csv>     Report format. Default json.\n"
+			+ "  --out <file>            Write the report here instead of to standard output.";
+
+	// The outcome of one run.
+	private static class Result {
+		int placement;
+		int bodies;
+		int threads;
+		long ticks;
+		double seconds;
+		double ticksPerSecond;
+		double pairsPerSecond;
+		double p50Millis;
+		double p99Millis;
+		long peakHeapBytes;
+	}
+
+	public static void main(String[] args) {
+		int[] bodyCounts = { 500, 1000, 2000 };
+		int[] threadCounts = defaultThreadCounts();
+		int[] placements = { 0, 1, 2, 3, 4, 5 };
+		boolean weak = false;
+		double seconds = 4;
+		int warmup = 50;
+		int width = 1440;
+		int height = 810;
+		GravitySolver solver = HeadlessMain.SOLVERS[0];
+		Integrator integrator = HeadlessMain.INTEGRATORS[0];
+		double dt = 1;
+		int substeps = 1;
+		long seed = 1;
+		boolean collisions = false;
+		boolean csv = false;
+		String out = null;
+
+		try {
+			for (int a = 0; a < args.length; a++) {
+				String arg = args[a];
+				switch (arg) {
+					case "--bodies":
+						bodyCounts = parseList(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--threads":
+						threadCounts = parseList(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--placements":
+						placements = parseList(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--weak":
+						weak = true;
+						break;
+					case "--seconds":
+						seconds = Double.parseDouble(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--warmup":
+						warmup = Integer.parseInt(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--width":
+						width = Integer.parseInt(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--height":
+						height = Integer.parseInt(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--solver":
+						solver = HeadlessMain.find(HeadlessMain.SOLVERS, HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--integrator":
+						integrator = HeadlessMain.find(HeadlessMain.INTEGRATORS, HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--dt":
+						dt = Double.parseDouble(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--substeps":
+						substeps = Integer.parseInt(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--seed":
+						seed = Long.parseLong(HeadlessMain.value(args, ++a, arg));
+						break;
+					case "--collisions":
+						collisions = true;
+						break;
+					case "--format":
+						String format = HeadlessMain.value(args, ++a, arg);
+						if (!format.equals("json") && !format.equals("csv")) {
+							throw new IllegalArgumentException("format must be json or csv: " + format);
+						}
+						csv = format.equals("csv");
+						break;
+					case "--out":
+						out = HeadlessMain.value(args, ++a, arg);
+						break;
+					case "--help":
+					case "-h":
+						System.out.println(USAGE);
+						return;
+					default:
+						throw new IllegalArgumentException("unknown option " + arg);
+				}
+			}
+			if (width <= 0 || height <= 0 || !(seconds > 0) || warmup < 0) {
+				throw new IllegalArgumentException("width, height and seconds must be positive, and warmup must not be negative");
+			}
+			HeadlessMain.checkStep(dt, substeps);
+			for (int threads : threadCounts) {
+				if (threads <= 0) {
+					throw new IllegalArgumentException("thread counts must be positive: " + threads);
+				}
+			}
+			for (int placement : placements) {
+				if (placement < 0 || placement >= Scenario.PLACEMENTS.length) {
+					throw new IllegalArgumentException("no such placement: " + placement);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			// NumberFormatException is an IllegalArgumentException too.
+			System.err.println("Error: " + e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		PlanetaryBody.setAudioEnabled(false);
+
+		// The Earth and the Moon print their masses as they are made. Keep that out of the report.
+		PrintStream report = System.out;
+		System.setOut(System.err);
+
+		List<Result> results = new ArrayList<Result>();
+		for (int placement : placements) {
+			for (int bodies : bodyCounts) {
+				for (int threads : threadCounts) {
+					int count = weak ? bodies * threads : bodies;
+					Result result = run(placement, count, threads, seconds, warmup, width, height,
+							solver, integrator, dt, substeps, seed, collisions);
+					results.add(result);
+					System.err.println(String.format(Locale.ROOT,
+							"placement %d, %d bodies, %d threads: %.1f ticks/s, %.3g pairs/s, p50 %.3f ms, p99 %.3f ms, peak heap %.1f MB",
+							placement, result.bodies, threads, result.ticksPerSecond, result.pairsPerSecond,
+							result.p50Millis, result.p99Millis, result.peakHeapBytes / 1048576.0));
+				}
+			}
+		}
+
+		try {
+			PrintWriter writer = out == null
+					? new PrintWriter(new OutputStreamWriter(report, StandardCharsets.UTF_8))
+					: new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8));
+			if (csv) {
+				writeCsv(writer, results);
+			} else {
+				writeJson(writer, results, weak, seconds, width, height, solver, integrator, dt, substeps, seed, collisions);
+			}
+			writer.flush();
+			if (out != null) {
+				writer.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Error: could not write " + out + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	// Builds the scenario, warms up, then times one tick at a time until the simulated time has passed.
+	private static Result run(int placement, int bodyCount, int threads, double seconds, int warmup, int width, int height,
+			GravitySolver solver, Integrator integrator, double dt, int substeps, long seed, boolean collisions) {
+		Scenario scenario = new Scenario();
+		scenario.setSatelliteCount(bodyCount);
+		scenario.setPlacement(placement);
+		scenario.setSeed(seed);
+		scenario.setUseCollisions(collisions);
+		BodyStore store = new BodyStore();
+		Earth.reset();
+		List<PlanetaryBody> bodies = scenario.build(store, width, height);
+
+		SimulationEngine engine = new SimulationEngine(store, bodies, threads);
+		engine.setSolver(solver);
+		engine.setIntegrator(integrator);
+		engine.setTimeStep(dt);
+		engine.setSubsteps(substeps);
+		engine.setWorldSize(width, height);
+
+		for (int t = 0; t < warmup; t++) {
+			engine.tick();
+		}
+
+		// Start each run from a clean heap, so the peak belongs to this run.
+		System.gc();
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+				heapPools.add(pool);
+			}
+		}
+
+		double endTime = engine.getSimulatedTime() + seconds * TICKS_PER_SECOND;
+		long pullsBefore = engine.getPullsComputed();
+		long[] tickNanos = new long[1024];
+		int ticks = 0;
+		long start = System.nanoTime();
+		while (engine.getSimulatedTime() < endTime) {
+			long tickStart = System.nanoTime();
+			engine.tick();
+			if (ticks == tickNanos.length) {
+				tickNanos = Arrays.copyOf(tickNanos, ticks * 2);
+			}
+			tickNanos[ticks++] = System.nanoTime() - tickStart;
+		}
+		long elapsed = System.nanoTime() - start;
+		long pulls = engine.getPullsComputed() - pullsBefore;
+		engine.shutdown();
+
+		// The pools peak at different moments, so their sum is an upper bound on the heap in use at once.
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peakHeap += pool.getPeakUsage().getUsed();
+		}
+
+		Arrays.sort(tickNanos, 0, ticks);
+		double elapsedSeconds = elapsed / 1e9;
+		Result result = new Result();
+		result.placement = placement;
+		result.bodies = store.size();
+		result.threads = engine.getWorkerThreads();
+		result.ticks = ticks;
+		result.seconds = elapsedSeconds;
+		result.ticksPerSecond = ticks / elapsedSeconds;
+		// Every pull worked out counts as one interaction with each other body, whatever the solver visits,
+		// so the solvers can be compared by how many direct-sum interactions per second they stand in for.
+		result.pairsPerSecond = pulls * (double)Math.max(result.bodies - 1, 0) / elapsedSeconds;
+		result.p50Millis = percentile(tickNanos, ticks, 0.50) / 1e6;
+		result.p99Millis = percentile(tickNanos, ticks, 0.99) / 1e6;
+		result.peakHeapBytes = peakHeap;
+		return result;
+	}
+
+	// The nearest-rank percentile of the first count sorted values.
+	private static long percentile(long[] sorted, int count, double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+		int rank = (int)Math.ceil(fraction * count);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	private static void writeCsv(PrintWriter writer, List<Result> results) {
+		writer.println("placement,bodies,threads,ticks,seconds,ticks_per_second,pairs_per_second,p50_tick_ms,p99_tick_ms,peak_heap_bytes");
+		for (Result r : results) {
+			writer.println(String.format(Locale.ROOT, "%d,%d,%d,%d,%.6f,%.3f,%.6e,%.6f,%.6f,%d",
+					r.placement, r.bodies, r.threads, r.ticks, r.seconds, r.ticksPerSecond, r.pairsPerSecond,
+					r.p50Millis, r.p99Millis, r.peakHeapBytes));
+		}
+	}
+
+	private static void writeJson(PrintWriter writer, List<Result> results, boolean weak, double seconds, int width, int height,
+			GravitySolver solver, Integrator integrator, double dt, int substeps, long seed, boolean collisions) {
+		writer.println("{");
+		writer.println("  \"machine\": {");
+		writer.println("    \"java\": " + quote(System.getProperty("java.version")) + ",");
+		writer.println("    \"vm\": " + quote(System.getProperty("java.vm.name")) + ",");
+		writer.println("    \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.version")) + ",");
+		writer.println("    \"arch\": " + quote(System.getProperty("os.arch")) + ",");
+		writer.println("    \"cores\": " + Runtime.getRuntime().availableProcessors() + ",");
+		writer.println("    \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory());
+		writer.println("  },");
+		writer.println("  \"settings\": {");
+		writer.println("    \"scaling\": " + quote(weak ? "weak" : "strong") + ",");
+		writer.println(String.format(Locale.ROOT, "    \"simulatedSeconds\": %s,", seconds));
+		writer.println("    \"width\": " + width + ",");
+		writer.println("    \"height\": " + height + ",");
+		writer.println("    \"solver\": " + quote(solver.getName()) + ",");
+		writer.println("    \"integrator\": " + quote(integrator.getName()) + ",");
+		writer.println(String.format(Locale.ROOT, "    \"dt\": %s,", dt));
+		writer.println("    \"substeps\": " + substeps + ",");
+		writer.println("    \"seed\": " + seed + ",");
+		writer.println("    \"collisions\": " + collisions);
+		writer.println("  },");
+		writer.println("  \"runs\": [");
+		for (int k = 0; k < results.size(); k++) {
+			Result r = results.get(k);
+			writer.print(String.format(Locale.ROOT,
+					"    {\"placement\": %d, \"placementName\": %s, \"bodies\": %d, \"threads\": %d, \"ticks\": %d, \"seconds\": %.6f, "
+					+ "\"ticksPerSecond\": %.3f, \"pairsPerSecond\": %.6e, \"p50TickMillis\": %.6f, \"p99TickMillis\": %.6f, \"peakHeapBytes\": %d}",
+					r.placement, quote(Scenario.PLACEMENTS[r.placement]), r.bodies, r.threads, r.ticks, r.seconds,
+					r.ticksPerSecond, r.pairsPerSecond, r.p50Millis, r.p99Millis, r.peakHeapBytes));
+			writer.println(k + 1 < results.size() ? "," : "");
+		}
+		writer.println("  ]");
+		writer.println("}");
+	}
+
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : text.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int)c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	// 1, 2, 4 ... up to the number of cores, and the number of cores itself.
+	private static int[] defaultThreadCounts() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<Integer>();
+		for (int t = 1; t < cores; t *= 2) {
+			counts.add(t);
+		}
+		counts.add(cores);
+		int[] result = new int[counts.size()];
+		for (int k = 0; k < result.length; k++) {
+			result[k] = counts.get(k);
+		}
+		return result;
+	}
+
+	// A comma-separated list of whole numbers, none of them negative.
+	private static int[] parseList(String text) {
+		String[] parts = text.split(",");
+		int[] values = new int[parts.length];
+		for (int k = 0; k < parts.length; k++) {
+			values[k] = Integer.parseInt(parts[k].trim());
+			if (values[k] < 0) {
+				throw new IllegalArgumentException("must not be negative: " + parts[k]);
+			}
+		}
+		return values;
+	}
+}
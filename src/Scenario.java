@@ -0,0 +1,213 @@
+// A Scenario describes the bodies a run starts with, and creates them in a BodyStore.
+
+// The Earth, the Moon and the satellites used to be placed by Main, which read the size of the
+// window to do it. A Scenario is given the size of the world instead, so the same scenario can
+// fill a window or run on a server with no screen at all (see HeadlessMain).
+//
+// With a seed, a scenario creates exactly the same bodies every time. Without one, every run is different.
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class Scenario {
+
+	// Where the satellites are created, as offered in the options window.
+	public static final String[] PLACEMENTS = { "All Around - Extend Beyond Window",
+			"All Around - Fit Inside Window", "Above", "Below", "To the Left", "To the Right" };
+
+	private int satelliteCount = 25;
+	private boolean useEarth = true;
+	private boolean useMoon = true;
+	private int placement = 2;
+	private boolean randomizeVelocityX;
+	private boolean randomizeVelocityY = true;
+	private double initialVelocityX = -0.5;
+	private double initialVelocityY;
+	private boolean useAsteroidsMode;
+	private boolean useCollisions;
+	private Long seed;
+
+	public int getSatelliteCount() {
+		return satelliteCount;
+	}
+
+	// The number of satellites, counting the Moon but not the Earth.
+	public void setSatelliteCount(int satelliteCount) {
+		if (satelliteCount < 0) {
+			throw new IllegalArgumentException("satellite count must not be negative: " + satelliteCount);
+		}
+		this.satelliteCount = satelliteCount;
+	}
+
+	public boolean isUseEarth() {
+		return useEarth;
+	}
+
+	public void setUseEarth(boolean useEarth) {
+		this.useEarth = useEarth;
+	}
+
+	public boolean isUseMoon() {
+		return useMoon;
+	}
+
+	public void setUseMoon(boolean useMoon) {
+		this.useMoon = useMoon;
+	}
+
+	public int getPlacement() {
+		return placement;
+	}
+
+	// One of the PLACEMENTS, by index.
+	public void setPlacement(int placement) {
+		if (placement < 0 || placement >= PLACEMENTS.length) {
+			throw new IllegalArgumentException("no such placement: " + placement);
+		}
+		this.placement = placement;
+	}
+
+	// Gives every satellite a random starting velocity from -0.5 to 0.5 along x, instead of initialVelocityX.
+	public void setRandomizeVelocityX(boolean randomizeVelocityX) {
+		this.randomizeVelocityX = randomizeVelocityX;
+	}
+
+	public void setRandomizeVelocityY(boolean randomizeVelocityY) {
+		this.randomizeVelocityY = randomizeVelocityY;
+	}
+
+	public void setInitialVelocity(double initialVelocityX, double initialVelocityY) {
+		this.initialVelocityX = initialVelocityX;
+		this.initialVelocityY = initialVelocityY;
+	}
+
+	public void setUseAsteroidsMode(boolean useAsteroidsMode) {
+		this.useAsteroidsMode = useAsteroidsMode;
+	}
+
+	public void setUseCollisions(boolean useCollisions) {
+		this.useCollisions = useCollisions;
+	}
+
+	public Long getSeed() {
+		return seed;
+	}
+
+	// null for a different scenario every time.
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+	// Creates the bodies in the given store, for a world of the given size, and returns them in row order.
+	public List<PlanetaryBody> build(BodyStore store, int width, int height) {
+		Random random = seed != null ? new Random(seed) : new Random();
+		List<PlanetaryBody> bodies = new ArrayList<PlanetaryBody>();
+		int satellites = satelliteCount;
+
+		if (useEarth == true) {
+			// Create the Earth in the middle of the world.
+			Earth theEarth = Earth.getInstance(store);
+			theEarth.setX(width/2);
+			theEarth.setY(height/2);
+			bodies.add(theEarth);
+		}
+
+		// The Moon is one of the satellites, so there is no room for it when there are none.
+		if (useMoon == true && satellites > 0) {
+			//double moonMass = 7.34767309 * (10^22);
+			//float moonMass = 205.73f;
+			float moonMass = 20;
+			System.out.println("Moon's Mass: " + moonMass);
+			PlanetaryBody theMoon = new PlanetaryBody(store, "Luna", moonMass, 24, width/2 - 200, height/2 +100, false, false);
+			setStartingVelocity(theMoon, random);
+			bodies.add(theMoon);
+			satellites--;
+		}
+
+		int[] bounds = getPlacementBounds(placement, width, height);
+		for (int i = 0; i < satellites; i++) {
+			int randomXpos = getRandomNumberInRange(random, bounds[0], bounds[1]);
+			int randomYpos = getRandomNumberInRange(random, bounds[2], bounds[3]);
+			int randomMass = getRandomNumberInRange(random, 2, 12);
+			int pbRadius = randomMass;
+
+			PlanetaryBody pb = new PlanetaryBody(store, "Satellite " + i, (long)randomMass, pbRadius, randomXpos, randomYpos, false, false);
+			setStartingVelocity(pb, random);
+			bodies.add(pb);
+		}
+
+		for (PlanetaryBody pb : bodies) {
+			if (!(pb instanceof Earth)) {
+				pb.setUseAsteroidsMode(useAsteroidsMode);
+			}
+			pb.setUseCollisions(useCollisions);
+		}
+		return bodies;
+	}
+
+	private void setStartingVelocity(PlanetaryBody pb, Random random) {
+		pb.setVelocityX(randomizeVelocityX ? randomVelocity(random) : initialVelocityX);
+		pb.setVelocityY(randomizeVelocityY ? randomVelocity(random) : initialVelocityY);
+	}
+
+	private static double randomVelocity(Random random) {
+		return (random.nextDouble() * 2 - 1) * 0.5f;
+	}
+
+	// The boundaries satellites are created within, as { minHoriz, maxHoriz, minVert, maxVert }.
+	public static int[] getPlacementBounds(int placement, int width, int height) {
+		int minHoriz = 0;
+		int maxHoriz = 0;
+		int minVert = 0;
+		int maxVert = 0;
+		switch(placement) {
+			case 0:
+				// All around, extending beyond edges.
+				minHoriz = -width/2;
+				maxHoriz = width + (width/2);
+				minVert = -height/2;
+				maxVert= height + (height/2);
+				break;
+			case 1: // All around, inside edges.
+				minHoriz = 0;
+				maxHoriz = width;
+				minVert = 0;
+				maxVert= height;
+				break;
+			case 2: // Above
+				minHoriz = -width/3;
+				maxHoriz = width + (width/3);
+				minVert = -height * (2/ 3);
+				maxVert= height /3;
+				break;
+			case 3: // Below
+				minHoriz = -width/3;
+				maxHoriz = width + (width/3);
+				minVert = height/2;
+				maxVert= height + height * (1/2);
+				break;
+			case 4: // To the left
+				minHoriz = -width * (2/3);
+				maxHoriz = (width/3);
+				minVert = -height/3;
+				maxVert= height + height /3;
+				break;
+			case 5:
+				// To the Right
+				minHoriz = width/2;
+				maxHoriz = width + (width/2);
+				minVert = -height/3;
+				maxVert= height + height /3;
+				break;
+		}
+		return new int[] { minHoriz, maxHoriz, minVert, maxVert };
+	}
+
+	private static int getRandomNumberInRange(Random r, int min, int max) {
+		if (min >= max) {
+			throw new IllegalArgumentException("max must be greater than min");
+		}
+		return r.nextInt((max - min) + 1) + min;
+	}
+}
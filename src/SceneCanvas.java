@@ -0,0 +1,331 @@
+// The SceneCanvas shows the simulation, drawing it on its own render thread with page flipping.
+
+// The scene used to be drawn straight onto the window from a plain thread, clearing it first,
+// so every frame flickered and painted over the Swing buttons. Here each frame is drawn into the
+// back buffer of a BufferStrategy and shown all at once, on a heavyweight Canvas that Swing never
+// paints itself. Frames are paced against System.nanoTime(), at the display's refresh rate when it
+// is known, and a frame that runs late does not cause a burst of frames to catch up.
+//
+// Only published snapshots are drawn, from a SnapshotSource, so a frame never shows half a tick.
+//
+// Up to a few thousand bodies are drawn as shapes with Java2D. Beyond that each body costs too much
+// that way, and the frame is rasterised into an image by a PixelRasterizer instead.
+//
+// Short effects, such as the flash when bodies collide, come from the EffectScheduler, which the
+// render thread drains before each frame while the canvas is running.
+//
+// Each frame is timed into the shared SimulationMetrics, along with the time between frames and the
+// frames skipped for falling behind, and a MetricsOverlay can show them over the scene. Each frame
+// is also a RenderFrameEvent, when a Flight Recorder recording is running.
+//
+// What part of the world is shown comes from a Camera. World coordinates are measured from the top
+// left corner of the window, so at first, at a zoom of 1, each body is drawn where it is in the
+// window. Drag to pan, turn the mouse wheel to zoom about the pointer, and double-click to go back.
+
+import java.awt.Canvas;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Point;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.SwingUtilities;
+
+public class SceneCanvas extends Canvas {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final int DEFAULT_FPS = 60;
+
+	// From this many bodies on, frames are drawn by the PixelRasterizer.
+	public static final int DEFAULT_PIXEL_THRESHOLD = 10000;
+
+	// How long before a frame is due to stop sleeping and start spinning, since sleeps overshoot.
+	private static final long SPIN_NANOS = 1000000L;
+
+	private final SceneRenderer renderer = new SceneRenderer();
+	private final PixelRasterizer rasterizer = new PixelRasterizer();
+	private volatile int pixelThreshold = DEFAULT_PIXEL_THRESHOLD;
+
+	private volatile SnapshotSource source;
+	private volatile int targetFps = DEFAULT_FPS;
+	private volatile boolean running;
+	private Thread renderThread;
+	private volatile long framesDrawn;
+
+	private final Camera camera = new Camera();
+	private final EffectScheduler effects = EffectScheduler.getInstance();
+
+	private final SimulationMetrics metrics = SimulationMetrics.getInstance();
+	private final MetricsOverlay overlay = new MetricsOverlay(metrics);
+	private volatile boolean showMetrics;
+
+	// What the last frame drew, for its RenderFrameEvent. Only the render thread uses these.
+	private long drawnTick;
+	private int drawnBodies;
+	private String drawnSolver;
+	private boolean drawnRasterized;
+
+	// Where the mouse was when the last drag event came in.
+	private int dragX;
+	private int dragY;
+
+	// Constructor
+	public SceneCanvas() {
+		setBackground(SceneRenderer.BACKGROUND);
+		setIgnoreRepaint(true);
+		addComponentListener(new ComponentAdapter() {
+			public void componentMoved(ComponentEvent e) {
+				updateOrigin();
+			}
+
+			public void componentResized(ComponentEvent e) {
+				updateOrigin();
+			}
+		});
+
+		MouseAdapter mouse = new MouseAdapter() {
+			public void mousePressed(MouseEvent e) {
+				dragX = e.getX();
+				dragY = e.getY();
+			}
+
+			public void mouseDragged(MouseEvent e) {
+				camera.pan(e.getX() - dragX, e.getY() - dragY);
+				dragX = e.getX();
+				dragY = e.getY();
+			}
+
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					camera.reset();
+				}
+			}
+
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				camera.zoomAt(Math.pow(1.1, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+	}
+
+	public Camera getCamera() {
+		return camera;
+	}
+
+	// Where the snapshots come from, or null to show an empty scene.
+	public void setSource(SnapshotSource source) {
+		this.source = source;
+	}
+
+	public int getTargetFps() {
+		return targetFps;
+	}
+
+	public void setTargetFps(int targetFps) {
+		if (targetFps <= 0) {
+			throw new IllegalArgumentException("target fps must be positive: " + targetFps);
+		}
+		this.targetFps = targetFps;
+	}
+
+	// Paces frames to the refresh rate of the display the canvas is on, if the display says what it is.
+	public void matchRefreshRate() {
+		GraphicsConfiguration configuration = getGraphicsConfiguration();
+		if (configuration == null) {
+			return;
+		}
+		int rate = configuration.getDevice().getDisplayMode().getRefreshRate();
+		if (rate != DisplayMode.REFRESH_RATE_UNKNOWN && rate > 0) {
+			setTargetFps(rate);
+		}
+	}
+
+	public int getPixelThreshold() {
+		return pixelThreshold;
+	}
+
+	// 0 to always use the PixelRasterizer, Integer.MAX_VALUE to never use it.
+	public void setPixelThreshold(int pixelThreshold) {
+		if (pixelThreshold < 0) {
+			throw new IllegalArgumentException("pixel threshold must not be negative: " + pixelThreshold);
+		}
+		this.pixelThreshold = pixelThreshold;
+	}
+
+	public boolean isShowMetrics() {
+		return showMetrics;
+	}
+
+	// Draws the live metrics over the scene, or stops drawing them.
+	public void setShowMetrics(boolean showMetrics) {
+		this.showMetrics = showMetrics;
+	}
+
+	// How many frames have been shown since the canvas was created.
+	public long getFramesDrawn() {
+		return framesDrawn;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		effects.setEnabled(true);
+		renderThread = new Thread("Render") {
+			public void run() {
+				renderLoop();
+			}
+		};
+		renderThread.setDaemon(true);
+		renderThread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		effects.setEnabled(false);
+		if (renderThread != null && renderThread != Thread.currentThread()) {
+			try {
+				renderThread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		renderThread = null;
+	}
+
+	private void renderLoop() {
+		long nextFrame = System.nanoTime();
+		long lastFrame = 0;
+		while (running) {
+			long frameStart = System.nanoTime();
+			if (lastFrame != 0) {
+				metrics.frame.record(frameStart - lastFrame);
+			}
+			lastFrame = frameStart;
+			try {
+				renderFrame();
+			} catch (IllegalStateException e) {
+				// The window was closed while the frame was being drawn.
+				running = false;
+				break;
+			}
+
+			long period = 1000000000L / targetFps;
+			nextFrame += period;
+			long now = System.nanoTime();
+			if (now - nextFrame > period) {
+				// We are running behind. Don't try to catch up with a burst of frames.
+				metrics.framesDropped((now - nextFrame) / period);
+				nextFrame = now;
+			}
+			waitUntil(nextFrame);
+		}
+	}
+
+	private static void waitUntil(long deadline) {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+		}
+		while (deadline - System.nanoTime() > 0) {
+			Thread.yield();
+		}
+	}
+
+	// Draws one frame into the back buffer and flips it onto the screen.
+	private void renderFrame() {
+		if (!isDisplayable() || getWidth() <= 0 || getHeight() <= 0) {
+			return;
+		}
+		RenderFrameEvent event = new RenderFrameEvent();
+		event.begin();
+		long start = System.nanoTime();
+		BufferStrategy strategy = getBufferStrategy();
+		if (strategy == null) {
+			createBufferStrategy(2);
+			strategy = getBufferStrategy();
+		}
+
+		// The buffers live in video memory, which can be lost at any time, for example to a screen saver.
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				try {
+					drawScene(g);
+					if (showMetrics) {
+						overlay.draw(g, System.nanoTime());
+					}
+				} finally {
+					g.dispose();
+				}
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+		framesDrawn++;
+		metrics.frameDrawn(System.nanoTime() - start);
+		event.end();
+		if (event.shouldCommit()) {
+			event.frame = framesDrawn;
+			event.tick = drawnTick;
+			event.bodyCount = drawnBodies;
+			event.solver = drawnSolver;
+			event.rasterized = drawnRasterized;
+			event.commit();
+		}
+	}
+
+	// Draws the bodies, and notes what was drawn for the frame's event.
+	private void drawScene(Graphics g) {
+		int width = getWidth();
+		int height = getHeight();
+		SnapshotSource currentSource = source;
+		WorldSnapshot snapshot = currentSource == null ? null : currentSource.acquire();
+		if (snapshot == null) {
+			drawnTick = 0;
+			drawnBodies = 0;
+			drawnSolver = null;
+			drawnRasterized = false;
+			renderer.drawBackground(g, 0, 0, width, height);
+			return;
+		}
+		try {
+			drawnTick = snapshot.getTick();
+			drawnBodies = snapshot.getCount();
+			drawnSolver = snapshot.getSolverName();
+			drawnRasterized = snapshot.getCount() >= pixelThreshold;
+			double[] view = camera.view(snapshot, width, height);
+			int[] colors = effects.colors(snapshot, System.nanoTime());
+			if (drawnRasterized) {
+				g.drawImage(rasterizer.render(snapshot, colors, view[0], view[1], view[2], width, height, ForkJoinPool.commonPool()), 0, 0, null);
+			} else {
+				renderer.drawBackground(g, 0, 0, width, height);
+				renderer.drawBodies(g, snapshot, colors, view[0], view[1], view[2], width, height);
+			}
+		} finally {
+			currentSource.release(snapshot);
+		}
+	}
+
+	// Points the camera's home at the part of the window the canvas covers.
+	private void updateOrigin() {
+		Window window = SwingUtilities.getWindowAncestor(this);
+		if (window != null) {
+			Point origin = SwingUtilities.convertPoint(this, 0, 0, window);
+			camera.setHome(origin.x + getWidth() / 2.0, origin.y + getHeight() / 2.0);
+		}
+	}
+}
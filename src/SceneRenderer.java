@@ -0,0 +1,43 @@
+// The SceneRenderer draws a WorldSnapshot onto any Graphics, whether it belongs to the window or to an offscreen image.
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+public class SceneRenderer {
+
+	public static final Color BACKGROUND = new Color(6, 16, 23);
+
+	// The last colour drawn with, kept so consecutive bodies of the same colour don't each make a new Color.
+	private Color color;
+
+	public void drawBackground(Graphics g, int x, int y, int width, int height) {
+		g.setColor(BACKGROUND);
+		g.fillRect(x, y, width, height);
+	}
+
+	// Draws every body that can be seen on a width x height screen, each as a circle as wide as its radius.
+	// The world point (left, top) is drawn at the top left corner, scale pixels to the world unit.
+	public void drawBodies(Graphics g, WorldSnapshot snapshot, double left, double top, double scale, int width, int height) {
+		drawBodies(g, snapshot, snapshot.color, left, top, scale, width, height);
+	}
+
+	// The same, but with each body in the colour given for its row instead of its own.
+	public void drawBodies(Graphics g, WorldSnapshot snapshot, int[] colors, double left, double top, double scale,
+			int width, int height) {
+		for (int i = 0; i < snapshot.getCount(); i++) {
+			double x = (snapshot.getX(i) - left) * scale;
+			double y = (snapshot.getY(i) - top) * scale;
+			int radius = (int)(snapshot.getRadius(i) * scale);
+			int ovalX = (int)x - radius/2;
+			int ovalY = (int)y - radius/2;
+			if (ovalX + radius >= 0 && ovalX < width && ovalY + radius >= 0 && ovalY < height) {
+				if (color == null || color.getRGB() != colors[i]) {
+					color = new Color(colors[i]);
+				}
+				g.setColor(color);
+				//draw the ball at the new x and y position
+				g.fillOval(ovalX, ovalY, radius, radius);
+			}
+		}
+	}
+}
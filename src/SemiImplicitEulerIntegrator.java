@@ -0,0 +1,52 @@
+// The SemiImplicitEulerIntegrator kicks each body's velocity with its acceleration, then drifts its position with the new velocity.
+
+// This is how the simulation has always moved: with dt == 1 it gives the same positions and
+// velocities as the original code. It is first order and needs one force evaluation per step.
+// It is symplectic, so orbits don't spiral in or out over time, but its error grows quickly with dt.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class SemiImplicitEulerIntegrator implements Integrator {
+
+	public String getName() {
+		return "Semi-implicit Euler";
+	}
+
+	public void step(BodyStore store, int n, double dt, Forces forces, ForkJoinPool pool) {
+		if (!store.accelerationCurrent) {
+			forces.evaluate();
+		}
+
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			store.wrapPositions(from, to);
+			double[] x = store.x;
+			double[] y = store.y;
+			double[] vx = store.vx;
+			double[] vy = store.vy;
+			double[] ax = store.ax;
+			double[] ay = store.ay;
+			double[] nextX = store.nextX;
+			double[] nextY = store.nextY;
+			double[] nextVx = store.nextVx;
+			double[] nextVy = store.nextVy;
+			int[] flags = store.flags;
+
+			for (int i = from; i < to; i++) {
+				if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+					double newVx = vx[i] + ax[i] * dt;
+					double newVy = vy[i] + ay[i] * dt;
+					nextX[i] = x[i] + newVx * dt;
+					nextY[i] = y[i] + newVy * dt;
+					nextVx[i] = newVx;
+					nextVy[i] = newVy;
+				} else {
+					nextX[i] = x[i] + ax[i] * dt * dt;
+					nextY[i] = y[i] + ay[i] * dt * dt;
+					nextVx[i] = vx[i];
+					nextVy[i] = vy[i];
+				}
+			}
+		});
+		store.swapBuffers();
+	}
+}
@@ -0,0 +1,615 @@
+// The SimulationEngine advances the whole world in discrete ticks.
+
+// Instead of every PlanetaryBody running its own Thread, the engine owns the list of bodies
+// and steps all of them together on a fixed fork-join pool sized to the available cores.
+// Each tick runs one or more steps of simulated time, each with an integrate phase and a
+// collision phase. Each phase is made of parallel loops over the bodies, and a loop only starts
+// once the previous one has completed, so the pool invocation doubles as the barrier between them.
+// A pluggable Integrator moves the bodies, asking a pluggable GravitySolver for the acceleration
+// whenever it needs it, and the phases work directly on the BodyStore columns.
+//
+// The length of a step is an explicit dt, in ticks of the original simulation, so how far the
+// world moves never depends on how promptly the tick thread was scheduled.
+//
+// Nothing outside the engine reads the columns while they change. At the end of each tick the
+// engine publishes a WorldSnapshot, and the renderer draws from that while the next tick runs.
+//
+// The whole state of the run can be captured between ticks as a SimulationState, to be saved and
+// restored later. Other threads ask for one with requestCapture(), and the tick thread takes it.
+//
+// Other threads don't change the bodies or the world while a tick runs either. They hand the change
+// to runBetweenTicks(), and the tick thread makes it before it starts the next tick.
+//
+// Every tick and phase is timed into the shared SimulationMetrics, and shows up as Flight Recorder
+// events (TickEvent, PhaseEvent, CollisionBurstEvent) when a recording is running.
+//
+// Every so many ticks, if asked to, the engine also measures the energy and momenta of the bodies
+// with ConservationDiagnostics, to show how far the settings in use let them drift.
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+public class SimulationEngine {
+
+	// The interactive cadence of one tick, in milliseconds. This matches the old per-body Thread.sleep(8).
+	public static final long TICK_MILLIS = 8;
+
+	private final BodyStore store;
+	private final List<PlanetaryBody> bodies;
+	private final ForkJoinPool pool;
+
+	// Works out the pull of gravity during the force phase.
+	private volatile GravitySolver solver = new DirectSumSolver();
+
+	// Moves the bodies, dt ticks of simulated time per step, substeps steps per tick.
+	private volatile Integrator integrator = new SemiImplicitEulerIntegrator();
+	private volatile double timeStep = 1;
+	private volatile int substeps = 1;
+
+	// Finished ticks are published here for the renderer, and shown to the listeners.
+	private final SnapshotBuffer snapshots = new SnapshotBuffer();
+	private final List<SnapshotListener> listeners = new CopyOnWriteArrayList<SnapshotListener>();
+
+	// The broad phase of collision detection, rebuilt every tick, and the contacts it finds.
+	private final SpatialHashGrid collisionGrid = new SpatialHashGrid();
+	private final ContactGraph contacts = new ContactGraph();
+	private ContactGraph[] contactSegments = new ContactGraph[0];
+
+	// Used instead of the broad phase when collisions are predicted.
+	private final CollisionPredictor predictor = new CollisionPredictor();
+	private volatile boolean predictiveCollisions;
+
+	// Captures asked for by other threads, taken at the end of the next tick.
+	private final Queue<CompletableFuture<SimulationState>> captureRequests = new ConcurrentLinkedQueue<CompletableFuture<SimulationState>>();
+
+	// Changes asked for by other threads, made at the start of the next tick.
+	private final Queue<Runnable> pendingChanges = new ConcurrentLinkedQueue<Runnable>();
+
+	// The seed the starting bodies were made from, or null. Only kept to be saved with the state.
+	private volatile Long seed;
+
+	private volatile boolean running;
+	private Thread tickThread;
+	private long tickCount;
+	private double simulatedTime;
+	private long forceEvaluations;
+	private long pullsComputed;
+
+	// Where the time goes. The force phase runs inside the integrator, so its time is added up separately.
+	private final SimulationMetrics metrics = SimulationMetrics.getInstance();
+	private long forceNanos;
+
+	// The pairs bounced in the current step, for the collision burst event.
+	private int stepContacts;
+
+	// Measures the energy and momenta every diagnosticsInterval ticks, or never if it is 0.
+	private final ConservationDiagnostics diagnostics = new ConservationDiagnostics();
+	private volatile int diagnosticsInterval;
+	private int ticksToDiagnosis;
+
+	// Constructor
+	public SimulationEngine(BodyStore store, List<PlanetaryBody> bodies) {
+		this(store, bodies, Runtime.getRuntime().availableProcessors());
+	}
+
+	public SimulationEngine(BodyStore store, List<PlanetaryBody> bodies, int workerThreads) {
+		this.store = store;
+		this.bodies = bodies;
+		this.pool = new ForkJoinPool(Math.max(1, workerThreads));
+	}
+
+	public BodyStore getStore() {
+		return store;
+	}
+
+	public List<PlanetaryBody> getBodies() {
+		return bodies;
+	}
+
+	public SnapshotBuffer getSnapshots() {
+		return snapshots;
+	}
+
+	public void addSnapshotListener(SnapshotListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeSnapshotListener(SnapshotListener listener) {
+		listeners.remove(listener);
+	}
+
+	public GravitySolver getSolver() {
+		return solver;
+	}
+
+	// Takes effect from the next tick.
+	public void setSolver(GravitySolver solver) {
+		this.solver = solver;
+	}
+
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	// Takes effect from the next tick.
+	public void setIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+	}
+
+	public double getTimeStep() {
+		return timeStep;
+	}
+
+	// The length of one step, in ticks of the original simulation. 1 is normal speed.
+	public void setTimeStep(double timeStep) {
+		if (!(timeStep > 0)) {
+			throw new IllegalArgumentException("time step must be positive: " + timeStep);
+		}
+		this.timeStep = timeStep;
+	}
+
+	public int getSubsteps() {
+		return substeps;
+	}
+
+	// The number of steps in each tick. Each tick moves the world substeps * timeStep ticks forward.
+	public void setSubsteps(int substeps) {
+		if (substeps < 1) {
+			throw new IllegalArgumentException("substeps must be at least 1: " + substeps);
+		}
+		this.substeps = substeps;
+	}
+
+	public boolean isPredictiveCollisions() {
+		return predictiveCollisions;
+	}
+
+	// Predicting collisions ahead of time is cheaper than searching for them every tick when
+	// contacts are rare, and stops fast bodies from passing through each other between ticks.
+	// Takes effect from the next tick.
+	public void setPredictiveCollisions(boolean predictiveCollisions) {
+		this.predictiveCollisions = predictiveCollisions;
+	}
+
+	public void setWorldSize(double width, double height) {
+		store.setWorldSize(width, height);
+	}
+
+	public ConservationDiagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	public int getDiagnosticsInterval() {
+		return diagnosticsInterval;
+	}
+
+	// Measures the energy and momenta at the end of the next tick, then every so many ticks after it.
+	// 0 stops measuring. The drift is still measured from the first measurement, until the diagnostics are reset.
+	public void setDiagnosticsInterval(int ticks) {
+		if (ticks < 0) {
+			throw new IllegalArgumentException("diagnostics interval must not be negative: " + ticks);
+		}
+		this.diagnosticsInterval = ticks;
+		this.ticksToDiagnosis = 0;
+	}
+
+	public long getTickCount() {
+		return tickCount;
+	}
+
+	public Long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+	// Carries on counting from a restored state. Call before the first tick.
+	void resumeAt(long tickCount, double simulatedTime) {
+		this.tickCount = tickCount;
+		this.simulatedTime = simulatedTime;
+	}
+
+	// How far the world has moved, in ticks of the original simulation.
+	public double getSimulatedTime() {
+		return simulatedTime;
+	}
+
+	// How many times the gravity solver has run.
+	public long getForceEvaluations() {
+		return forceEvaluations;
+	}
+
+	// How many bodies the gravity solver has worked out a pull for, over all its runs.
+	public long getPullsComputed() {
+		return pullsComputed;
+	}
+
+	public int getWorkerThreads() {
+		return pool.getParallelism();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	// Starts a single thread that ticks the world at the interactive cadence.
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		tickThread = new Thread("SimulationEngine") {
+			public void run() {
+				long nextTick = System.nanoTime();
+				while (running) {
+					tick();
+					nextTick += TICK_MILLIS * 1000000L;
+					long sleepNanos = nextTick - System.nanoTime();
+					if (sleepNanos > 0) {
+						try {
+							Thread.sleep(sleepNanos / 1000000L, (int)(sleepNanos % 1000000L));
+						} catch (InterruptedException e) {
+							return;
+						}
+					} else {
+						// We are running behind. Don't try to catch up with a burst of ticks.
+						nextTick = System.nanoTime();
+					}
+				}
+			}
+		};
+		tickThread.setDaemon(true);
+		tickThread.start();
+	}
+
+	// Stops the tick thread and waits for the tick in progress to finish.
+	public synchronized void stop() {
+		running = false;
+		if (tickThread != null) {
+			tickThread.interrupt();
+			try {
+				tickThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			tickThread = null;
+		}
+		// The world is still now, so any change or capture the tick thread didn't get to can be made here.
+		makePendingChanges();
+		takeCaptures();
+	}
+
+	// Copies the whole state of the run. Only call between ticks: from a SnapshotListener, or from
+	// the thread that calls tick() when the engine was not started.
+	public SimulationState captureState() {
+		return SimulationState.capture(this);
+	}
+
+	// Captures the whole state of the run at the end of the next tick, or straight away if the engine
+	// is not running. Safe to call from any thread while the engine runs its own tick thread.
+	public CompletableFuture<SimulationState> requestCapture() {
+		CompletableFuture<SimulationState> capture = new CompletableFuture<SimulationState>();
+		synchronized (this) {
+			if (running) {
+				captureRequests.add(capture);
+				return capture;
+			}
+			capture.complete(captureState());
+		}
+		return capture;
+	}
+
+	// Makes a change to the bodies or the world before the next tick starts, or straight away if the
+	// engine is not running, so no tick ever sees it half made. Safe to call from any thread while the
+	// engine runs its own tick thread.
+	public void runBetweenTicks(Runnable change) {
+		synchronized (this) {
+			if (running) {
+				pendingChanges.add(change);
+				return;
+			}
+			change.run();
+		}
+	}
+
+	private void makePendingChanges() {
+		Runnable change = pendingChanges.poll();
+		if (change == null) {
+			return;
+		}
+		for (; change != null; change = pendingChanges.poll()) {
+			change.run();
+		}
+		// Whatever changed, the pull worked out for the last step may no longer hold.
+		store.accelerationCurrent = false;
+	}
+
+	private void takeCaptures() {
+		CompletableFuture<SimulationState> capture = captureRequests.poll();
+		if (capture == null) {
+			return;
+		}
+		SimulationState state = captureState();
+		for (; capture != null; capture = captureRequests.poll()) {
+			capture.complete(state);
+		}
+	}
+
+	// Stops ticking and releases the worker threads. The engine cannot be restarted afterwards.
+	public void shutdown() {
+		stop();
+		pool.shutdown();
+	}
+
+	// Advances the world by one tick, then publishes a snapshot of it.
+	public void tick() {
+		makePendingChanges();
+		int n = store.size();
+		GravitySolver currentSolver = solver;
+		Integrator currentIntegrator = integrator;
+		double dt = timeStep;
+		int steps = substeps;
+		long tickNumber = tickCount + 1;
+		TickEvent tickEvent = new TickEvent();
+		tickEvent.begin();
+
+		// Force: work out the pull of every gravity-enabled body on each body. Positions are only read here.
+		Integrator.Forces forces = new Integrator.Forces() {
+			public void evaluate() {
+				PhaseEvent event = new PhaseEvent();
+				event.begin();
+				long start = System.nanoTime();
+				currentSolver.computePull(store, n, store.ax, store.ay, pool);
+				int[] flags = store.flags;
+				for (int i = 0; i < n; i++) {
+					if ((flags[i] & BodyStore.FLAG_PINNED) != 0) {
+						store.ax[i] = 0;
+						store.ay[i] = 0;
+					}
+				}
+				store.accelerationCurrent = true;
+				forceEvaluations++;
+				pullsComputed += n;
+				forceNanos += System.nanoTime() - start;
+				commitPhase(event, PhaseEvent.FORCE, tickNumber, n, currentSolver);
+			}
+
+			public void evaluate(int[] active, int count) {
+				PhaseEvent event = new PhaseEvent();
+				event.begin();
+				long start = System.nanoTime();
+				currentSolver.computePull(store, n, active, count, store.ax, store.ay, pool);
+				int[] flags = store.flags;
+				for (int k = 0; k < count; k++) {
+					int i = active[k];
+					if ((flags[i] & BodyStore.FLAG_PINNED) != 0) {
+						store.ax[i] = 0;
+						store.ay[i] = 0;
+					}
+				}
+				forceEvaluations++;
+				pullsComputed += count;
+				forceNanos += System.nanoTime() - start;
+				commitPhase(event, PhaseEvent.FORCE, tickNumber, n, currentSolver);
+			}
+		};
+
+		long tickStart = System.nanoTime();
+		for (int step = 0; step < steps; step++) {
+			// Integrate: read the current positions and velocities, write the next ones, then swap them in.
+			PhaseEvent integrateEvent = new PhaseEvent();
+			integrateEvent.begin();
+			long stepStart = System.nanoTime();
+			forceNanos = 0;
+			currentIntegrator.step(store, n, dt, forces, pool);
+			simulatedTime += dt;
+			long integrated = System.nanoTime();
+			metrics.force.record(forceNanos);
+			metrics.integrate.record(integrated - stepStart - forceNanos);
+			commitPhase(integrateEvent, PhaseEvent.INTEGRATE, tickNumber, n, currentSolver);
+
+			// Collisions: bounce bodies that touch, or that will touch during the next step's move.
+			PhaseEvent collideEvent = new PhaseEvent();
+			CollisionBurstEvent burstEvent = new CollisionBurstEvent();
+			collideEvent.begin();
+			burstEvent.begin();
+			stepContacts = 0;
+			if (predictiveCollisions) {
+				predictor.step(store, n, simulatedTime, dt, this::bouncePair);
+			} else {
+				predictor.reset();
+				detectCollisions(n);
+			}
+			metrics.collide.record(System.nanoTime() - integrated);
+			commitPhase(collideEvent, PhaseEvent.COLLIDE, tickNumber, n, currentSolver);
+			burstEvent.end();
+			if (stepContacts >= CollisionBurstEvent.MIN_CONTACTS && burstEvent.shouldCommit()) {
+				burstEvent.contacts = stepContacts;
+				burstEvent.tick = tickNumber;
+				burstEvent.bodyCount = n;
+				burstEvent.solver = currentSolver.getName();
+				burstEvent.commit();
+			}
+		}
+
+		int interval = diagnosticsInterval;
+		if (interval > 0 && --ticksToDiagnosis <= 0) {
+			PhaseEvent diagnoseEvent = new PhaseEvent();
+			diagnoseEvent.begin();
+			metrics.conservationMeasured(diagnostics.measure(store, n, currentSolver, pool, tickNumber, simulatedTime));
+			commitPhase(diagnoseEvent, PhaseEvent.DIAGNOSE, tickNumber, n, currentSolver);
+			ticksToDiagnosis = interval;
+		}
+
+		tickCount++;
+		PhaseEvent publishEvent = new PhaseEvent();
+		publishEvent.begin();
+		long published = System.nanoTime();
+		publish(n, currentSolver);
+		takeCaptures();
+		long end = System.nanoTime();
+		metrics.publish.record(end - published);
+		metrics.tickDone(n, end - tickStart);
+		commitPhase(publishEvent, PhaseEvent.PUBLISH, tickNumber, n, currentSolver);
+
+		tickEvent.end();
+		if (tickEvent.shouldCommit()) {
+			tickEvent.tick = tickNumber;
+			tickEvent.bodyCount = n;
+			tickEvent.solver = currentSolver.getName();
+			tickEvent.integrator = currentIntegrator.getName();
+			tickEvent.commit();
+		}
+	}
+
+	// Fills in a phase event and commits it, if a recording wants it.
+	private static void commitPhase(PhaseEvent event, String phase, long tick, int n, GravitySolver solver) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase;
+			event.tick = tick;
+			event.bodyCount = n;
+			event.solver = solver.getName();
+			event.commit();
+		}
+	}
+
+	// Finds every pair of bodies that touch, where at least one has collisions on, and bounces them.
+	// The broad phase files the bodies in a spatial hash with cells as wide as the biggest body,
+	// so each body only has to be tested against the bodies in its own and the 8 neighbouring cells.
+	// Package-private so the benchmarks can time it on its own.
+	void detectCollisions(int n) {
+		double[] x = store.x;
+		double[] y = store.y;
+		double[] radius = store.radius;
+		int[] flags = store.flags;
+
+		boolean anyCollide = false;
+		double maxRadius = 0;
+		for (int i = 0; i < n; i++) {
+			anyCollide |= (flags[i] & BodyStore.FLAG_COLLIDES) != 0;
+			maxRadius = Math.max(maxRadius, radius[i]);
+		}
+		if (!anyCollide) {
+			return;
+		}
+
+		// Each segment of bodies collects its own contacts, so detection needs no locks.
+		int segmentCount = Math.min(n, pool.getParallelism() * 4);
+		if (contactSegments.length < segmentCount) {
+			contactSegments = new ContactGraph[segmentCount];
+			for (int s = 0; s < segmentCount; s++) {
+				contactSegments[s] = new ContactGraph();
+			}
+		}
+		ContactGraph[] segments = contactSegments;
+
+		// A body's radius is drawn as the diameter of its circle, so two circles touch when
+		// their centres are closer than (ri + rj) / 2, which is never more than the biggest radius.
+		collisionGrid.build(x, y, n, maxRadius);
+		ParallelLoop.forEach(pool, segmentCount, 1, (fromSegment, toSegment) -> {
+			for (int s = fromSegment; s < toSegment; s++) {
+				ContactGraph segment = segments[s];
+				segment.clear();
+				SpatialHashGrid.PairVisitor narrowPhase = (i, j) -> {
+					if (((flags[i] | flags[j]) & BodyStore.FLAG_COLLIDES) == 0) {
+						return;
+					}
+					double dx = x[i] - x[j];
+					double dy = y[i] - y[j];
+					double contact = (radius[i] + radius[j]) / 2;
+					if (dx * dx + dy * dy < contact * contact) {
+						segment.add(i, j);
+					}
+				};
+				for (int i = (int)((long)n * s / segmentCount), end = (int)((long)n * (s + 1) / segmentCount); i < end; i++) {
+					collisionGrid.forEachNeighbour(i, narrowPhase);
+				}
+			}
+		});
+
+		// Join the segments in body order, so the contacts come out the same however the work was split.
+		contacts.clear();
+		for (int s = 0; s < segmentCount; s++) {
+			ContactGraph segment = segments[s];
+			for (int c = 0; c < segment.size(); c++) {
+				contacts.add(segment.getFirst(c), segment.getSecond(c));
+			}
+		}
+		resolveContacts(n);
+	}
+
+	// Bounces every contact, one colour at a time. No body appears twice within a colour,
+	// so the contacts in a colour are bounced in parallel without locks.
+	private void resolveContacts(int n) {
+		if (contacts.size() == 0) {
+			return;
+		}
+		metrics.addCollisions(contacts.size());
+		stepContacts += contacts.size();
+		contacts.colour(n);
+		for (int k = 0; k < contacts.getColourCount(); k++) {
+			int start = contacts.getBatchStart(k);
+			int length = contacts.getBatchEnd(k) - start;
+			if (contacts.isSequential(k)) {
+				for (int p = start; p < start + length; p++) {
+					bounce(contacts.getBatchContact(p));
+				}
+			} else {
+				ParallelLoop.forEach(pool, length, 16, (from, to) -> {
+					for (int p = start + from; p < start + to; p++) {
+						bounce(contacts.getBatchContact(p));
+					}
+				});
+			}
+		}
+	}
+
+	private void bounce(int contact) {
+		PlanetaryBody a = bodies.get(contacts.getFirst(contact));
+		a.collisionBounce(a, bodies.get(contacts.getSecond(contact)));
+	}
+
+	// A predicted contact. The pair is known to be closing in, so it is bounced straight away.
+	private void bouncePair(int i, int j) {
+		metrics.addCollisions(1);
+		stepContacts++;
+		PlanetaryBody a = bodies.get(i);
+		a.bounceApart(a, bodies.get(j));
+	}
+
+	// Copies the finished tick into a snapshot, shows it to the listeners, and hands it to readers.
+	// The snapshot names the solver the tick ran with, even if another has been chosen since.
+	private void publish(int n, GravitySolver tickSolver) {
+		WorldSnapshot snapshot = snapshots.claim();
+		if (snapshot == null) {
+			// Every spare snapshot is still being read. The readers will get the next tick instead.
+			return;
+		}
+		snapshot.ensureCapacity(n);
+		snapshot.tick = tickCount;
+		snapshot.count = n;
+		snapshot.solver = tickSolver.getName();
+		forEach(n, (from, to) -> {
+			snapshot.copyFrom(store, from, to);
+			for (int i = from; i < to; i++) {
+				snapshot.color[i] = bodies.get(i).getColor().getRGB();
+			}
+		});
+
+		for (SnapshotListener listener : listeners) {
+			listener.snapshotPublished(snapshot);
+		}
+		snapshots.publish();
+	}
+
+	private void forEach(int n, ParallelLoop.RangeAction action) {
+		ParallelLoop.forEach(pool, n, action);
+	}
+}
@@ -0,0 +1,228 @@
+// SimulationMetrics keeps count of where the time goes: in each phase of a tick, and in each frame drawn.
+
+// The SimulationEngine times every tick and its phases: working out the forces, integrating,
+// bouncing collisions, and publishing the snapshot (which includes the listeners, such as a
+// recorder). The SceneCanvas times each frame it draws, and the time from one frame to the next,
+// and counts the frames it had to skip because it fell behind its target rate.
+//
+// Everything is recorded without locks, into LongAdders and LatencyHistograms, for a few
+// nanoseconds a tick. The metrics are published over JMX, once registerMBean() has been called,
+// and the SceneCanvas can draw them over the scene with a MetricsOverlay.
+//
+// When the engine measures the energy and momenta, the last measurement's drift is kept here too.
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class SimulationMetrics implements SimulationMetricsMXBean {
+
+	public static final String OBJECT_NAME = "GravitySimulator:type=SimulationMetrics";
+
+	private static final SimulationMetrics instance = new SimulationMetrics();
+
+	// The phases of a tick, timed by the engine.
+	final LatencyHistogram tick = new LatencyHistogram();
+	final LatencyHistogram force = new LatencyHistogram();
+	final LatencyHistogram integrate = new LatencyHistogram();
+	final LatencyHistogram collide = new LatencyHistogram();
+	final LatencyHistogram publish = new LatencyHistogram();
+
+	// The frames, timed by the SceneCanvas: drawing one, and from the start of one to the start of the next.
+	final LatencyHistogram render = new LatencyHistogram();
+	final LatencyHistogram frame = new LatencyHistogram();
+
+	private final LongAdder ticks = new LongAdder();
+	private final LongAdder collisions = new LongAdder();
+	private final LongAdder frames = new LongAdder();
+	private final LongAdder droppedFrames = new LongAdder();
+	private volatile int bodyCount;
+	private volatile ConservationDiagnostics.Sample conservation;
+
+	// How many times reset() has been called, so whoever keeps its own baselines can tell they are gone.
+	private volatile int resets;
+
+	private final Rate tickRate = new Rate(ticks);
+	private final Rate collisionRate = new Rate(collisions);
+	private final Rate frameRate = new Rate(frames);
+
+	private boolean registered;
+
+	// How often something happened, per second.
+	private static class Rate {
+		private final LongAdder counter;
+		private long since = System.nanoTime();
+		private long countSince;
+		private double perSecond;
+
+		Rate(LongAdder counter) {
+			this.counter = counter;
+		}
+
+		synchronized double get() {
+			long now = System.nanoTime();
+			if (now - since >= 1000000000L) {
+				long count = counter.sum();
+				perSecond = (count - countSince) * 1e9 / (now - since);
+				countSince = count;
+				since = now;
+			}
+			return perSecond;
+		}
+
+		synchronized void reset() {
+			since = System.nanoTime();
+			countSince = 0;
+			perSecond = 0;
+		}
+	}
+
+	// The metrics every engine and canvas share.
+	public static SimulationMetrics getInstance() {
+		return instance;
+	}
+
+	// Publishes the metrics on the platform MBean server. Does nothing after the first time.
+	public synchronized void registerMBean() {
+		if (registered) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+			registered = true;
+		} catch (InstanceAlreadyExistsException e) {
+			registered = true;
+		} catch (JMException | SecurityException e) {
+			System.out.println("Couldn't publish the metrics over JMX: " + e.getMessage());
+		}
+	}
+
+	// Called by the engine at the end of each tick.
+	void tickDone(int bodies, long nanos) {
+		ticks.increment();
+		bodyCount = bodies;
+		tick.record(nanos);
+	}
+
+	void addCollisions(long count) {
+		collisions.add(count);
+	}
+
+	// Called by the canvas for each frame it shows, and for the frames it skipped.
+	void frameDrawn(long renderNanos) {
+		frames.increment();
+		render.record(renderNanos);
+	}
+
+	void framesDropped(long count) {
+		droppedFrames.add(count);
+	}
+
+	// Called by the engine each time it measures the energy and momenta.
+	void conservationMeasured(ConservationDiagnostics.Sample sample) {
+		conservation = sample;
+	}
+
+	// The engine's last measurement of the energy and momenta, or null if it hasn't measured them.
+	public ConservationDiagnostics.Sample getConservation() {
+		return conservation;
+	}
+
+	public long getTicks() {
+		return ticks.sum();
+	}
+
+	public double getTicksPerSecond() {
+		return tickRate.get();
+	}
+
+	public int getBodyCount() {
+		return bodyCount;
+	}
+
+	public long getCollisions() {
+		return collisions.sum();
+	}
+
+	public double getCollisionsPerSecond() {
+		return collisionRate.get();
+	}
+
+	public long getFrames() {
+		return frames.sum();
+	}
+
+	public double getFramesPerSecond() {
+		return frameRate.get();
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames.sum();
+	}
+
+	public double getEnergyDrift() {
+		ConservationDiagnostics.Sample sample = conservation;
+		return sample == null ? 0 : sample.getEnergyDrift();
+	}
+
+	public double getMomentumDrift() {
+		ConservationDiagnostics.Sample sample = conservation;
+		return sample == null ? 0 : sample.getMomentumDrift();
+	}
+
+	public double getAngularMomentumDrift() {
+		ConservationDiagnostics.Sample sample = conservation;
+		return sample == null ? 0 : sample.getAngularMomentumDrift();
+	}
+
+	public LatencyHistogram.Summary getTickTimes() {
+		return tick.summarize();
+	}
+
+	public LatencyHistogram.Summary getForceTimes() {
+		return force.summarize();
+	}
+
+	public LatencyHistogram.Summary getIntegrateTimes() {
+		return integrate.summarize();
+	}
+
+	public LatencyHistogram.Summary getCollideTimes() {
+		return collide.summarize();
+	}
+
+	public LatencyHistogram.Summary getPublishTimes() {
+		return publish.summarize();
+	}
+
+	public LatencyHistogram.Summary getRenderTimes() {
+		return render.summarize();
+	}
+
+	public LatencyHistogram.Summary getFrameTimes() {
+		return frame.summarize();
+	}
+
+	// Starts counting again from nothing, for example for a new run.
+	public void reset() {
+		for (LatencyHistogram histogram : new LatencyHistogram[] { tick, force, integrate, collide, publish, render, frame }) {
+			histogram.reset();
+		}
+		ticks.reset();
+		collisions.reset();
+		frames.reset();
+		droppedFrames.reset();
+		conservation = null;
+		tickRate.reset();
+		collisionRate.reset();
+		frameRate.reset();
+		resets++;
+	}
+
+	int getResetCount() {
+		return resets;
+	}
+}
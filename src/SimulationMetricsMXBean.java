@@ -0,0 +1,46 @@
+// What SimulationMetrics shows over JMX, for example in JConsole or Mission Control, under GravitySimulator:type=SimulationMetrics.
+
+// The times are summaries of everything since the metrics were last reset, in milliseconds. The
+// rates are worked out over the time since they were last read, but never less than a second.
+// The drifts are from the engine's last measurement of the energy and momenta, and 0 until it makes one.
+
+public interface SimulationMetricsMXBean {
+
+	long getTicks();
+
+	double getTicksPerSecond();
+
+	int getBodyCount();
+
+	long getCollisions();
+
+	double getCollisionsPerSecond();
+
+	long getFrames();
+
+	double getFramesPerSecond();
+
+	long getDroppedFrames();
+
+	double getEnergyDrift();
+
+	double getMomentumDrift();
+
+	double getAngularMomentumDrift();
+
+	LatencyHistogram.Summary getTickTimes();
+
+	LatencyHistogram.Summary getForceTimes();
+
+	LatencyHistogram.Summary getIntegrateTimes();
+
+	LatencyHistogram.Summary getCollideTimes();
+
+	LatencyHistogram.Summary getPublishTimes();
+
+	LatencyHistogram.Summary getRenderTimes();
+
+	LatencyHistogram.Summary getFrameTimes();
+
+	void reset();
+}
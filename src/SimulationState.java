@@ -0,0 +1,224 @@
+// A SimulationState is everything needed to carry on a run later: every body, and how the engine was set up.
+
+// It is a private copy, taken between two ticks, so it can be written to disk on another thread
+// while the engine goes on ticking. StateFile writes and reads it, and restore() turns it back into
+// a world: the rows of a BodyStore, the PlanetaryBody views onto them, and the engine's settings.
+//
+// The run itself uses no random numbers once the bodies are made, so the only randomness to keep
+// is the seed the starting bodies came from, when there was one.
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SimulationState {
+
+	// What kind of PlanetaryBody each row is.
+	static final byte KIND_BODY = 0;
+	static final byte KIND_EARTH = 1;
+
+	// The engine.
+	long tick;
+	double simulatedTime;
+	Long seed;
+	String solverName;
+	String integratorName;
+	double timeStep;
+	int substeps;
+	boolean predictiveCollisions;
+
+	// The store.
+	double worldWidth;
+	double worldHeight;
+	boolean periodic;
+	double gravityDivisor;
+	int nextId;
+	boolean accelerationCurrent;
+
+	// The bodies, one row each, in the same order as the store.
+	int count;
+	double[] x;
+	double[] y;
+	double[] vx;
+	double[] vy;
+	double[] ax;
+	double[] ay;
+	double[] mass;
+	double[] radius;
+	int[] id;
+	int[] flags;
+	int[] color; // As packed by Color.getRGB().
+	byte[] kind;
+	String[] name;
+
+	public long getTick() {
+		return tick;
+	}
+
+	public double getSimulatedTime() {
+		return simulatedTime;
+	}
+
+	public Long getSeed() {
+		return seed;
+	}
+
+	public String getSolverName() {
+		return solverName;
+	}
+
+	public String getIntegratorName() {
+		return integratorName;
+	}
+
+	public double getTimeStep() {
+		return timeStep;
+	}
+
+	public int getSubsteps() {
+		return substeps;
+	}
+
+	public boolean isPredictiveCollisions() {
+		return predictiveCollisions;
+	}
+
+	public double getWorldWidth() {
+		return worldWidth;
+	}
+
+	public double getWorldHeight() {
+		return worldHeight;
+	}
+
+	public boolean isPeriodic() {
+		return periodic;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	// Makes the columns for n bodies.
+	void allocate(int n) {
+		count = n;
+		x = new double[n];
+		y = new double[n];
+		vx = new double[n];
+		vy = new double[n];
+		ax = new double[n];
+		ay = new double[n];
+		mass = new double[n];
+		radius = new double[n];
+		id = new int[n];
+		flags = new int[n];
+		color = new int[n];
+		kind = new byte[n];
+		name = new String[n];
+	}
+
+	// Copies the engine's world. Must be called between ticks; see SimulationEngine.captureState().
+	static SimulationState capture(SimulationEngine engine) {
+		BodyStore store = engine.getStore();
+		List<PlanetaryBody> bodies = engine.getBodies();
+		int n = store.size();
+
+		SimulationState state = new SimulationState();
+		state.tick = engine.getTickCount();
+		state.simulatedTime = engine.getSimulatedTime();
+		state.seed = engine.getSeed();
+		state.solverName = engine.getSolver().getName();
+		state.integratorName = engine.getIntegrator().getName();
+		state.timeStep = engine.getTimeStep();
+		state.substeps = engine.getSubsteps();
+		state.predictiveCollisions = engine.isPredictiveCollisions();
+		state.worldWidth = store.getWorldWidth();
+		state.worldHeight = store.getWorldHeight();
+		state.periodic = store.isPeriodic();
+		state.gravityDivisor = store.getGravityDivisor();
+		state.nextId = store.getNextId();
+		state.accelerationCurrent = store.accelerationCurrent;
+
+		state.allocate(n);
+		System.arraycopy(store.x, 0, state.x, 0, n);
+		System.arraycopy(store.y, 0, state.y, 0, n);
+		System.arraycopy(store.vx, 0, state.vx, 0, n);
+		System.arraycopy(store.vy, 0, state.vy, 0, n);
+		System.arraycopy(store.ax, 0, state.ax, 0, n);
+		System.arraycopy(store.ay, 0, state.ay, 0, n);
+		System.arraycopy(store.mass, 0, state.mass, 0, n);
+		System.arraycopy(store.radius, 0, state.radius, 0, n);
+		System.arraycopy(store.id, 0, state.id, 0, n);
+		System.arraycopy(store.flags, 0, state.flags, 0, n);
+		for (int i = 0; i < n; i++) {
+			PlanetaryBody body = bodies.get(i);
+			Color bodyColor = body.getColor();
+			state.color[i] = bodyColor == null ? Color.WHITE.getRGB() : bodyColor.getRGB();
+			state.kind[i] = body instanceof Earth ? KIND_EARTH : KIND_BODY;
+			state.name[i] = body.getSatelliteName();
+		}
+		return state;
+	}
+
+	// Replaces everything in the store with the saved bodies, and returns the bodies in row order.
+	// Views onto the store's old rows must not be used afterwards.
+	public List<PlanetaryBody> restore(BodyStore store) {
+		int n = count;
+		store.setRows(n, nextId);
+		System.arraycopy(x, 0, store.x, 0, n);
+		System.arraycopy(y, 0, store.y, 0, n);
+		System.arraycopy(vx, 0, store.vx, 0, n);
+		System.arraycopy(vy, 0, store.vy, 0, n);
+		System.arraycopy(ax, 0, store.ax, 0, n);
+		System.arraycopy(ay, 0, store.ay, 0, n);
+		System.arraycopy(mass, 0, store.mass, 0, n);
+		System.arraycopy(radius, 0, store.radius, 0, n);
+		System.arraycopy(id, 0, store.id, 0, n);
+		System.arraycopy(flags, 0, store.flags, 0, n);
+		store.setWorldSize(worldWidth, worldHeight);
+		store.setPeriodic(periodic);
+		store.setGravityDivisor(gravityDivisor);
+
+		List<PlanetaryBody> bodies = new ArrayList<PlanetaryBody>(n);
+		Earth.reset();
+		Color bodyColor = null;
+		for (int i = 0; i < n; i++) {
+			// As when a body is made: no sounds where there is no sound card.
+			if (!PlanetaryBody.isAudioEnabled()) {
+				store.setFlag(i, BodyStore.FLAG_SOUND, false);
+			}
+			// Nearly every body is the same colour, so they share one Color until it changes.
+			if (bodyColor == null || bodyColor.getRGB() != color[i]) {
+				bodyColor = new Color(color[i], true);
+			}
+			if (kind[i] == KIND_EARTH) {
+				bodies.add(Earth.restore(store, i, bodyColor));
+			} else {
+				bodies.add(new PlanetaryBody(store, i, name[i], bodyColor));
+			}
+		}
+		// Last, as setting up the rows above counts as changing them.
+		store.accelerationCurrent = accelerationCurrent;
+		return bodies;
+	}
+
+	// Sets up an engine, made on the restored store and bodies, to carry on where the run left off.
+	// The solver and integrator are picked by name from the given choices; if none matches, the engine's own are kept.
+	public void applyTo(SimulationEngine engine, GravitySolver[] solvers, Integrator[] integrators) {
+		for (GravitySolver solver : solvers) {
+			if (solver.getName().equals(solverName)) {
+				engine.setSolver(solver);
+			}
+		}
+		for (Integrator integrator : integrators) {
+			if (integrator.getName().equals(integratorName)) {
+				engine.setIntegrator(integrator);
+			}
+		}
+		engine.setTimeStep(timeStep);
+		engine.setSubsteps(substeps);
+		engine.setPredictiveCollisions(predictiveCollisions);
+		engine.setSeed(seed);
+		engine.resumeAt(tick, simulatedTime);
+	}
+}
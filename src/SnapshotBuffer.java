@@ -0,0 +1,95 @@
+// The SnapshotBuffer hands finished WorldSnapshots from the engine to the renderer without locks.
+
+// It keeps a small pool of snapshots (three by default, so triple-buffered). The engine claims a
+// snapshot nobody is reading, fills it, and publishes it as the latest. Readers acquire the latest
+// snapshot, use it, and release it. While a reader holds a snapshot the engine will not claim it,
+// so the next tick can be computed and published while this one is still being drawn.
+//
+// Each slot has a reader count: -1 while the engine is writing it, otherwise the number of readers.
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SnapshotBuffer implements SnapshotSource {
+
+	public static final int DEFAULT_SLOTS = 3;
+
+	private static final int WRITING = -1;
+
+	private final WorldSnapshot[] slots;
+	private final AtomicInteger[] readers;
+	private volatile int latest = -1;
+	private int lastClaimed = -1;
+
+	// Constructor
+	public SnapshotBuffer() {
+		this(DEFAULT_SLOTS);
+	}
+
+	public SnapshotBuffer(int slotCount) {
+		if (slotCount < 2) {
+			throw new IllegalArgumentException("a SnapshotBuffer needs at least 2 slots");
+		}
+		slots = new WorldSnapshot[slotCount];
+		readers = new AtomicInteger[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			slots[i] = new WorldSnapshot();
+			readers[i] = new AtomicInteger();
+		}
+	}
+
+	/*
+	 * The Writer Side
+	 * ===============
+	 * Only one thread, the engine's, may write.
+	 */
+
+	// Claims a snapshot to fill, or returns null if every spare snapshot is being read.
+	WorldSnapshot claim() {
+		int published = latest;
+		for (int k = 1; k <= slots.length; k++) {
+			int i = (lastClaimed + k) % slots.length;
+			if (i != published && readers[i].compareAndSet(0, WRITING)) {
+				lastClaimed = i;
+				return slots[i];
+			}
+		}
+		return null;
+	}
+
+	// Publishes the snapshot returned by the last claim() as the latest.
+	void publish() {
+		readers[lastClaimed].set(0);
+		latest = lastClaimed;
+	}
+
+	/*
+	 * The Reader Side
+	 * ===============
+	 */
+
+	// Returns the latest published snapshot, which must be handed back to release(),
+	// or null if nothing has been published yet.
+	public WorldSnapshot acquire() {
+		while (true) {
+			int i = latest;
+			if (i < 0) {
+				return null;
+			}
+			int count = readers[i].get();
+			if (count >= 0 && readers[i].compareAndSet(count, count + 1)) {
+				return slots[i];
+			}
+			// The engine has claimed that slot since we looked; a newer one has been published.
+		}
+	}
+
+	public void release(WorldSnapshot snapshot) {
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] == snapshot) {
+				readers[i].decrementAndGet();
+				return;
+			}
+		}
+		throw new IllegalArgumentException("snapshot does not belong to this buffer");
+	}
+}
@@ -0,0 +1,10 @@
+// Receives every WorldSnapshot the SimulationEngine publishes.
+
+// Listeners are called on the engine's thread, after the tick has finished and before the
+// snapshot is handed to readers. They must copy what they need and return quickly; the
+// snapshot is reused for a later tick once they return.
+
+public interface SnapshotListener {
+
+	void snapshotPublished(WorldSnapshot snapshot);
+}
@@ -0,0 +1,12 @@
+// Hands out published WorldSnapshots for drawing.
+
+// A reader acquires the latest snapshot, draws it, and gives it back with release(). Until it is
+// released the snapshot does not change, so everything drawn from it belongs to the same moment.
+
+public interface SnapshotSource {
+
+	// Returns the latest snapshot, or null if there is nothing to show yet.
+	WorldSnapshot acquire();
+
+	void release(WorldSnapshot snapshot);
+}
@@ -0,0 +1,120 @@
+// The SpatialHashGrid finds bodies that are near each other without testing every pair.
+
+// The world is divided into square cells, and each body is filed under the cell its centre is in.
+// The cells are hashed into a table twice the size of the body count, so the grid covers an
+// unbounded world in O(N) memory. If the cells are at least as wide as the largest distance we
+// care about, every body within that distance of a body is in its own cell or one of the 8 around it.
+//
+// The grid is rebuilt from scratch with a counting sort, which is O(N) and allocation-free
+// once the arrays have grown to size. Queries only read, so they can run in parallel.
+
+import java.util.Arrays;
+
+public class SpatialHashGrid {
+
+	// Called once for each candidate neighbour j of body i.
+	public interface PairVisitor {
+		void visit(int i, int j);
+	}
+
+	private double cellSize = 1;
+	private int mask;
+	private int count;
+
+	// The bodies, sorted by bucket. Bucket b holds sorted[bucketStart[b] .. bucketStart[b + 1]).
+	private int[] bucketStart = new int[1];
+	private int[] bucketFill = new int[0];
+	private int[] sorted = new int[0];
+	private int[] bucketOf = new int[0];
+	private int[] cellX = new int[0];
+	private int[] cellY = new int[0];
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	// Files bodies [0, n) under cells of the given size.
+	public void build(double[] x, double[] y, int n, double cellSize) {
+		this.cellSize = cellSize > 0 ? cellSize : 1;
+		this.count = n;
+
+		int buckets = Integer.highestOneBit(Math.max(2 * n, 16) - 1) << 1;
+		mask = buckets - 1;
+		if (bucketStart.length < buckets + 1) {
+			bucketStart = new int[buckets + 1];
+			bucketFill = new int[buckets];
+		} else {
+			Arrays.fill(bucketStart, 0, buckets + 1, 0);
+		}
+		if (sorted.length < n) {
+			sorted = new int[n];
+			bucketOf = new int[n];
+			cellX = new int[n];
+			cellY = new int[n];
+		}
+
+		double inverse = 1 / this.cellSize;
+		for (int i = 0; i < n; i++) {
+			int cx = (int)Math.floor(x[i] * inverse);
+			int cy = (int)Math.floor(y[i] * inverse);
+			cellX[i] = cx;
+			cellY[i] = cy;
+			int b = hash(cx, cy);
+			bucketOf[i] = b;
+			bucketStart[b + 1]++;
+		}
+		for (int b = 0; b < buckets; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+
+		System.arraycopy(bucketStart, 0, bucketFill, 0, buckets);
+		for (int i = 0; i < n; i++) {
+			sorted[bucketFill[bucketOf[i]]++] = i;
+		}
+	}
+
+	// Visits every body j > i in body i's cell and the 8 cells around it.
+	// Bodies in other cells that happen to share a bucket are skipped.
+	public void forEachNeighbour(int i, PairVisitor visitor) {
+		int cx = cellX[i];
+		int cy = cellY[i];
+		for (int ny = cy - 1; ny <= cy + 1; ny++) {
+			for (int nx = cx - 1; nx <= cx + 1; nx++) {
+				int b = hash(nx, ny);
+				for (int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++) {
+					int j = sorted[k];
+					if (j > i && cellX[j] == nx && cellY[j] == ny) {
+						visitor.visit(i, j);
+					}
+				}
+			}
+		}
+	}
+
+	// Visits every body j != i in body i's cell and the 8 cells around it.
+	public void forEachNearby(int i, PairVisitor visitor) {
+		int cx = cellX[i];
+		int cy = cellY[i];
+		for (int ny = cy - 1; ny <= cy + 1; ny++) {
+			for (int nx = cx - 1; nx <= cx + 1; nx++) {
+				int b = hash(nx, ny);
+				for (int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++) {
+					int j = sorted[k];
+					if (j != i && cellX[j] == nx && cellY[j] == ny) {
+						visitor.visit(i, j);
+					}
+				}
+			}
+		}
+	}
+
+	private int hash(int cx, int cy) {
+		int h = cx * 0x9E3779B1 ^ cy * 0x85EBCA77;
+		h ^= h >>> 15;
+		return h & mask;
+	}
+}
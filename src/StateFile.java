@@ -0,0 +1,229 @@
+// StateFile writes a SimulationState to disk in a compact binary form, and reads it back.
+
+// Both ways go through a memory-mapped file, so the columns are copied to and from the page cache
+// in bulk, with no stream or serialisation in between. A million bodies take about a hundred
+// megabytes and are read back in a few tens of milliseconds.
+//
+// A file is written next to its final name and moved over it once complete, so a run that stops
+// half way through a save never leaves a broken file where the last good one was.
+//
+// The layout, little-endian:
+//   int magic ("GSIM"), int version
+//   long tick, double simulated time, byte has seed, long seed
+//   string solver, string integrator, double time step, int substeps, byte predictive collisions
+//   double world width, double world height, byte periodic, double gravity divisor
+//   int next id, byte acceleration current, int count
+//   the columns, count values each: x, y, vx, vy, ax, ay, mass, radius (double); id, flags, color (int); kind (byte)
+//   count strings: the names
+// where a string is an int length followed by that many bytes of UTF-8, and a length of -1 is null.
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class StateFile {
+
+	static final int MAGIC = 0x4753494D; // "GSIM"
+	static final int VERSION = 1;
+
+	// The bytes in the fixed part of the header, before the solver name.
+	private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 1 + 8;
+
+	// The bytes each body takes in the columns.
+	private static final int BYTES_PER_BODY = 8 * 8 + 3 * 4 + 1;
+
+	public static void write(SimulationState state, File file) throws IOException {
+		int n = state.count;
+		byte[] solver = encode(state.solverName);
+		byte[] integrator = encode(state.integratorName);
+		byte[][] names = new byte[n][];
+		long size = HEADER_BYTES + stringBytes(solver) + stringBytes(integrator) + 8 + 4 + 1 + 8 + 8 + 1 + 8 + 4 + 1 + 4
+				+ (long)n * BYTES_PER_BODY;
+		for (int i = 0; i < n; i++) {
+			names[i] = encode(state.name[i]);
+			size += stringBytes(names[i]);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("too many bodies to save in one file: " + n);
+		}
+
+		Path target = file.getAbsoluteFile().toPath();
+		Path parent = target.getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		Path partial = target.resolveSibling(target.getFileName() + ".part");
+		try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putLong(state.tick);
+			buffer.putDouble(state.simulatedTime);
+			buffer.put((byte)(state.seed != null ? 1 : 0));
+			buffer.putLong(state.seed != null ? state.seed : 0);
+			putString(buffer, solver);
+			putString(buffer, integrator);
+			buffer.putDouble(state.timeStep);
+			buffer.putInt(state.substeps);
+			buffer.put((byte)(state.predictiveCollisions ? 1 : 0));
+			buffer.putDouble(state.worldWidth);
+			buffer.putDouble(state.worldHeight);
+			buffer.put((byte)(state.periodic ? 1 : 0));
+			buffer.putDouble(state.gravityDivisor);
+			buffer.putInt(state.nextId);
+			buffer.put((byte)(state.accelerationCurrent ? 1 : 0));
+			buffer.putInt(n);
+
+			putColumn(buffer, state.x, n);
+			putColumn(buffer, state.y, n);
+			putColumn(buffer, state.vx, n);
+			putColumn(buffer, state.vy, n);
+			putColumn(buffer, state.ax, n);
+			putColumn(buffer, state.ay, n);
+			putColumn(buffer, state.mass, n);
+			putColumn(buffer, state.radius, n);
+			putColumn(buffer, state.id, n);
+			putColumn(buffer, state.flags, n);
+			putColumn(buffer, state.color, n);
+			buffer.put(state.kind, 0, n);
+			for (int i = 0; i < n; i++) {
+				putString(buffer, names[i]);
+			}
+			buffer.force();
+		}
+
+		try {
+			Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public static SimulationState read(File file) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException("no such file: " + file);
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("not a saved simulation: " + file);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("not a saved simulation: " + file);
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("saved by a different version (" + version + "): " + file);
+			}
+
+			SimulationState state = new SimulationState();
+			try {
+				state.tick = buffer.getLong();
+				state.simulatedTime = buffer.getDouble();
+				boolean hasSeed = buffer.get() != 0;
+				long seed = buffer.getLong();
+				state.seed = hasSeed ? seed : null;
+				state.solverName = getString(buffer);
+				state.integratorName = getString(buffer);
+				state.timeStep = buffer.getDouble();
+				state.substeps = buffer.getInt();
+				state.predictiveCollisions = buffer.get() != 0;
+				state.worldWidth = buffer.getDouble();
+				state.worldHeight = buffer.getDouble();
+				state.periodic = buffer.get() != 0;
+				state.gravityDivisor = buffer.getDouble();
+				state.nextId = buffer.getInt();
+				state.accelerationCurrent = buffer.get() != 0;
+				int n = buffer.getInt();
+				if (n < 0 || (long)n * BYTES_PER_BODY > buffer.remaining()) {
+					throw new IOException("saved simulation is cut short: " + file);
+				}
+
+				state.allocate(n);
+				getColumn(buffer, state.x, n);
+				getColumn(buffer, state.y, n);
+				getColumn(buffer, state.vx, n);
+				getColumn(buffer, state.vy, n);
+				getColumn(buffer, state.ax, n);
+				getColumn(buffer, state.ay, n);
+				getColumn(buffer, state.mass, n);
+				getColumn(buffer, state.radius, n);
+				getColumn(buffer, state.id, n);
+				getColumn(buffer, state.flags, n);
+				getColumn(buffer, state.color, n);
+				buffer.get(state.kind, 0, n);
+				for (int i = 0; i < n; i++) {
+					state.name[i] = getString(buffer);
+				}
+			} catch (RuntimeException e) {
+				// A BufferUnderflowException: the file ends before the state does.
+				throw new IOException("saved simulation is cut short: " + file, e);
+			}
+			return state;
+		}
+	}
+
+	private static byte[] encode(String s) {
+		return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int stringBytes(byte[] encoded) {
+		return 4 + (encoded == null ? 0 : encoded.length);
+	}
+
+	private static void putString(MappedByteBuffer buffer, byte[] encoded) {
+		if (encoded == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(encoded.length);
+			buffer.put(encoded);
+		}
+	}
+
+	private static String getString(MappedByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		if (length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] encoded = new byte[length];
+		buffer.get(encoded);
+		return new String(encoded, StandardCharsets.UTF_8);
+	}
+
+	// The column goes in through a view of the buffer, as one bulk copy, then the buffer is moved past it.
+	private static void putColumn(MappedByteBuffer buffer, double[] column, int n) {
+		buffer.asDoubleBuffer().put(column, 0, n);
+		buffer.position(buffer.position() + n * 8);
+	}
+
+	private static void putColumn(MappedByteBuffer buffer, int[] column, int n) {
+		buffer.asIntBuffer().put(column, 0, n);
+		buffer.position(buffer.position() + n * 4);
+	}
+
+	private static void getColumn(MappedByteBuffer buffer, double[] column, int n) {
+		buffer.asDoubleBuffer().get(column, 0, n);
+		buffer.position(buffer.position() + n * 8);
+	}
+
+	private static void getColumn(MappedByteBuffer buffer, int[] column, int n) {
+		buffer.asIntBuffer().get(column, 0, n);
+		buffer.position(buffer.position() + n * 4);
+	}
+}
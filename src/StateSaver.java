@@ -0,0 +1,112 @@
+// The StateSaver saves the state of a running simulation to disk, on its own thread, when asked and every so often.
+
+// Saving is done in two halves. The state is captured between two ticks, which costs one copy of
+// the columns on the engine's thread and nothing more. It is then written by the saver's thread,
+// through StateFile, while the engine carries on ticking.
+//
+// For autosaves the saver listens to the engine, and captures the state every so many ticks. If
+// the last autosave is still being written when the next one is due, that one is skipped rather
+// than queued, so a slow disk can never make the saves pile up in memory.
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StateSaver implements SnapshotListener {
+
+	private final SimulationEngine engine;
+	private final ExecutorService writer;
+
+	private volatile File autosaveFile;
+	private volatile long autosaveEvery;
+	private long nextAutosave;
+	private final AtomicBoolean autosaving = new AtomicBoolean();
+
+	// Constructor
+	public StateSaver(SimulationEngine engine) {
+		this.engine = engine;
+		this.writer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "State Saver");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	// Saves the state at the end of the next tick, or now if the engine isn't running.
+	// The future completes once the file is written, or fails with the reason it couldn't be.
+	public CompletableFuture<File> save(File file) {
+		return engine.requestCapture().thenApplyAsync(state -> {
+			write(state, file);
+			return file;
+		}, writer);
+	}
+
+	// Saves the state to the given file every so many ticks, from the next one that is due.
+	public synchronized void startAutosave(File file, long everyTicks) {
+		if (everyTicks <= 0) {
+			throw new IllegalArgumentException("autosave interval must be positive: " + everyTicks);
+		}
+		autosaveFile = file;
+		autosaveEvery = everyTicks;
+		nextAutosave = engine.getTickCount() + everyTicks;
+		engine.removeSnapshotListener(this);
+		engine.addSnapshotListener(this);
+	}
+
+	public synchronized void stopAutosave() {
+		engine.removeSnapshotListener(this);
+		autosaveFile = null;
+	}
+
+	public File getAutosaveFile() {
+		return autosaveFile;
+	}
+
+	// Called on the engine's thread, between ticks, so the state can be captured here.
+	public void snapshotPublished(WorldSnapshot snapshot) {
+		File file = autosaveFile;
+		if (file == null || snapshot.getTick() < nextAutosave) {
+			return;
+		}
+		nextAutosave = snapshot.getTick() + autosaveEvery;
+		if (!autosaving.compareAndSet(false, true)) {
+			// Still writing the last one.
+			return;
+		}
+		SimulationState state = engine.captureState();
+		writer.execute(() -> {
+			try {
+				write(state, file);
+			} catch (UncheckedIOException e) {
+				System.out.println("Autosave failed: " + e.getCause().getMessage());
+			} finally {
+				autosaving.set(false);
+			}
+		});
+	}
+
+	// Stops autosaving. The saves already started are still written, on the saver's thread.
+	public void shutdown() {
+		stopAutosave();
+		writer.shutdown();
+	}
+
+	// Stops autosaving, and waits for the saves already started to be written.
+	public void close() throws InterruptedException {
+		shutdown();
+		writer.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	private static void write(SimulationState state, File file) {
+		try {
+			StateFile.write(state, file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
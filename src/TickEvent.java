@@ -0,0 +1,30 @@
+// A Flight Recorder event for each tick the SimulationEngine runs, from start to finish.
+
+// Like every event here it costs next to nothing unless a recording with it enabled is running:
+// the JIT removes the event object, and begin() and commit() do nothing. See gravity.jfc.
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("gravity.Tick")
+@Label("Tick")
+@Category({ "Gravity Simulator", "Physics" })
+@Description("One tick of the simulation: every step's forces, integration and collisions, and publishing the snapshot")
+@StackTrace(false)
+public class TickEvent extends jdk.jfr.Event {
+
+	@Label("Tick")
+	long tick;
+
+	@Label("Body Count")
+	int bodyCount;
+
+	@Label("Solver")
+	String solver;
+
+	@Label("Integrator")
+	String integrator;
+}
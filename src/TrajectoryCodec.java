@@ -0,0 +1,358 @@
+// TrajectoryCodec turns recorded ticks into the bytes of a trajectory log, and back again.
+
+// A log starts with a header, then holds chunks, each of a few ticks in a row. Every chunk is
+// compressed on its own with Deflater, and its first tick is a keyframe, so any chunk can be read
+// without the ones before it. Within a chunk, each value is quantised to a whole number of quanta,
+// and stored as how far it is from a guess made from the ticks before, as a zigzag varint:
+//   - a velocity (and a radius) is guessed to change by as much as it did in the tick before, so
+//     what is stored is the change in its change, which is small while the forces change slowly;
+//   - a position is guessed to have moved by the new velocity, which is stored first, once for
+//     each tick since the last one. With the usual integrator that is just what it did, so what is
+//     left is mostly rounding, and takes a few bits once compressed.
+// Radii that don't change at all compress to almost nothing.
+//
+// The layout, little-endian:
+//   header: int magic ("GTRJ"), int version, double position quantum, double velocity quantum
+//   chunk:  int magic ("CHNK"), long first tick, int ticks, int raw bytes, int compressed bytes, then the compressed bytes
+// and, once uncompressed, each tick in a chunk is:
+//   varint ticks since the last one (0 for the first), varint count, byte same ids as the last tick
+//   unless the ids are the same: count zigzag varints, each id less the one before
+//   then, column by column (vx, vy, x, y, radius), count zigzag varints, each quantised value less
+//   its guess as above, or less 0 in the first tick of a chunk or when the ids changed.
+
+import java.util.Arrays;
+
+public class TrajectoryCodec {
+
+	static final int MAGIC = 0x4754524A; // "GTRJ"
+	static final int CHUNK_MAGIC = 0x43484E4B; // "CHNK"
+	static final int VERSION = 1;
+
+	static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+	static final int CHUNK_HEADER_BYTES = 4 + 8 + 4 + 4 + 4;
+
+	// The columns, in the order they are stored: the velocities come first, so positions can be guessed from them.
+	static final int COLUMNS = 5;
+	static final int VX = 0;
+	static final int VY = 1;
+	static final int X = 2;
+	static final int Y = 3;
+	static final int RADIUS = 4;
+
+	// One recorded tick.
+	static class Frame {
+		long tick;
+		int count;
+		int[] id = new int[0];
+		final double[][] columns = new double[COLUMNS][0];
+
+		void ensureCapacity(int n) {
+			if (id.length < n) {
+				int capacity = Math.max(n, id.length * 2);
+				id = new int[capacity];
+				for (int c = 0; c < COLUMNS; c++) {
+					columns[c] = new double[capacity];
+				}
+			}
+		}
+
+		// Copies the parts of a snapshot that are recorded.
+		void copyFrom(WorldSnapshot snapshot) {
+			int n = snapshot.count;
+			ensureCapacity(n);
+			tick = snapshot.tick;
+			count = n;
+			System.arraycopy(snapshot.id, 0, id, 0, n);
+			System.arraycopy(snapshot.x, 0, columns[X], 0, n);
+			System.arraycopy(snapshot.y, 0, columns[Y], 0, n);
+			System.arraycopy(snapshot.vx, 0, columns[VX], 0, n);
+			System.arraycopy(snapshot.vy, 0, columns[VY], 0, n);
+			System.arraycopy(snapshot.radius, 0, columns[RADIUS], 0, n);
+		}
+	}
+
+	// Builds the ticks of one chunk into a growing byte array. Only the writing thread uses it.
+	static class Encoder {
+		private final double[] quantum = new double[COLUMNS];
+		private byte[] bytes = new byte[1 << 16];
+		private int length;
+		private int frames;
+		private long firstTick;
+		private long lastTick;
+
+		// The ids, quantised values, and changes in them, of the last tick encoded.
+		private int lastCount;
+		private int[] lastId = new int[0];
+		private final long[][] last = new long[COLUMNS][0];
+		private final long[][] lastChange = new long[COLUMNS][0];
+
+		Encoder(double positionQuantum, double velocityQuantum) {
+			quantum[X] = positionQuantum;
+			quantum[Y] = positionQuantum;
+			quantum[VX] = velocityQuantum;
+			quantum[VY] = velocityQuantum;
+			quantum[RADIUS] = positionQuantum;
+		}
+
+		int getFrames() {
+			return frames;
+		}
+
+		long getFirstTick() {
+			return firstTick;
+		}
+
+		byte[] getBytes() {
+			return bytes;
+		}
+
+		int getLength() {
+			return length;
+		}
+
+		// Hands over the array holding the chunk, and carries on, empty, in the given one (or a new one).
+		byte[] swapBytes(byte[] replacement) {
+			byte[] full = bytes;
+			bytes = replacement != null ? replacement : new byte[full.length];
+			reset();
+			return full;
+		}
+
+		// Empties the chunk. The next tick added is a keyframe.
+		void reset() {
+			length = 0;
+			frames = 0;
+			lastCount = 0;
+		}
+
+		void add(Frame frame) {
+			int n = frame.count;
+			if (frames == 0) {
+				firstTick = frame.tick;
+				lastTick = frame.tick;
+			}
+			boolean sameIds = frames > 0 && n == lastCount && equal(frame.id, lastId, n);
+			if (last[0].length < n) {
+				lastId = new int[Math.max(n, lastId.length * 2)];
+				for (int c = 0; c < COLUMNS; c++) {
+					last[c] = new long[lastId.length];
+					lastChange[c] = new long[lastId.length];
+				}
+				sameIds = false;
+			}
+			// At most 10 bytes a varint: the tick, the count, and every id and value.
+			ensure(10 + 10 + 1 + (long)n * 10 * (COLUMNS + 1));
+
+			putVarLong(frame.tick - lastTick);
+			putVarLong(n);
+			bytes[length++] = (byte)(sameIds ? 1 : 0);
+			if (!sameIds) {
+				int previous = 0;
+				for (int i = 0; i < n; i++) {
+					putVarLong(zigzag((long)frame.id[i] - previous));
+					previous = frame.id[i];
+				}
+				System.arraycopy(frame.id, 0, lastId, 0, n);
+			}
+			long ticks = frame.tick - lastTick;
+			for (int c = 0; c < COLUMNS; c++) {
+				double[] values = frame.columns[c];
+				long[] lastValues = last[c];
+				long[] lastChanges = lastChange[c];
+				double scale = 1 / quantum[c];
+				if (sameIds && (c == X || c == Y)) {
+					long[] velocity = last[c == X ? VX : VY];
+					double toPosition = quantum[VX] / quantum[c] * ticks;
+					for (int i = 0; i < n; i++) {
+						long q = Math.round(values[i] * scale);
+						putVarLong(zigzag(q - (lastValues[i] + Math.round(velocity[i] * toPosition))));
+						lastValues[i] = q;
+					}
+					continue;
+				}
+				for (int i = 0; i < n; i++) {
+					long q = Math.round(values[i] * scale);
+					long change = sameIds ? q - lastValues[i] : 0;
+					putVarLong(zigzag(sameIds ? change - lastChanges[i] : q));
+					lastValues[i] = q;
+					lastChanges[i] = change;
+				}
+			}
+			lastCount = n;
+			lastTick = frame.tick;
+			frames++;
+		}
+
+		private void ensure(long extra) {
+			if (length + extra > bytes.length) {
+				if (length + extra > Integer.MAX_VALUE - 8) {
+					throw new IllegalStateException("chunk too big: " + (length + extra) + " bytes");
+				}
+				byte[] grown = new byte[(int)Math.max(length + extra, Math.min((long)bytes.length * 2, Integer.MAX_VALUE - 8))];
+				System.arraycopy(bytes, 0, grown, 0, length);
+				bytes = grown;
+			}
+		}
+
+		private void putVarLong(long v) {
+			while ((v & ~0x7FL) != 0) {
+				bytes[length++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			bytes[length++] = (byte)v;
+		}
+	}
+
+	// Reads the ticks of one uncompressed chunk back, one after another.
+	static class Decoder {
+		private final double[] quantum = new double[COLUMNS];
+		private byte[] bytes;
+		private int position;
+		private int end;
+		private long tick;
+		private int lastCount;
+		private int[] lastId = new int[0];
+		private final long[][] last = new long[COLUMNS][0];
+		private final long[][] lastChange = new long[COLUMNS][0];
+
+		Decoder(double positionQuantum, double velocityQuantum) {
+			quantum[X] = positionQuantum;
+			quantum[Y] = positionQuantum;
+			quantum[VX] = velocityQuantum;
+			quantum[VY] = velocityQuantum;
+			quantum[RADIUS] = positionQuantum;
+		}
+
+		// Starts on a chunk whose first tick is firstTick.
+		void reset(byte[] chunk, int length, long firstTick) {
+			bytes = chunk;
+			position = 0;
+			end = length;
+			tick = firstTick;
+			lastCount = 0;
+		}
+
+		boolean hasNext() {
+			return position < end;
+		}
+
+		// The tick the next call to next() will decode, without decoding it.
+		long nextTick() {
+			int start = position;
+			long next = tick + getVarLong();
+			position = start;
+			return next;
+		}
+
+		// Decodes the next tick into the frame.
+		void next(Frame frame) {
+			long ticks = getVarLong();
+			tick += ticks;
+			long n = getVarLong();
+			if (n < 0 || n >= end - position) {
+				throw new IllegalArgumentException("corrupt trajectory chunk");
+			}
+			int count = (int)n;
+			boolean sameIds = bytes[position++] != 0;
+			if (sameIds && count != lastCount) {
+				throw new IllegalArgumentException("corrupt trajectory chunk");
+			}
+			frame.ensureCapacity(count);
+			frame.tick = tick;
+			frame.count = count;
+			if (lastId.length < count) {
+				lastId = new int[Math.max(count, lastId.length * 2)];
+				for (int c = 0; c < COLUMNS; c++) {
+					last[c] = Arrays.copyOf(last[c], lastId.length);
+					lastChange[c] = Arrays.copyOf(lastChange[c], lastId.length);
+				}
+			}
+			if (!sameIds) {
+				int previous = 0;
+				for (int i = 0; i < count; i++) {
+					previous += (int)unzigzag(getVarLong());
+					lastId[i] = previous;
+				}
+			}
+			System.arraycopy(lastId, 0, frame.id, 0, count);
+			for (int c = 0; c < COLUMNS; c++) {
+				double[] values = frame.columns[c];
+				long[] lastValues = last[c];
+				long[] lastChanges = lastChange[c];
+				double q = quantum[c];
+				if (sameIds && (c == X || c == Y)) {
+					long[] velocity = last[c == X ? VX : VY];
+					double toPosition = quantum[VX] / q * ticks;
+					for (int i = 0; i < count; i++) {
+						long v = lastValues[i] + Math.round(velocity[i] * toPosition) + unzigzag(getVarLong());
+						lastValues[i] = v;
+						values[i] = v * q;
+					}
+					continue;
+				}
+				for (int i = 0; i < count; i++) {
+					long stored = unzigzag(getVarLong());
+					long change = sameIds ? lastChanges[i] + stored : 0;
+					long v = sameIds ? lastValues[i] + change : stored;
+					lastValues[i] = v;
+					lastChanges[i] = change;
+					values[i] = v * q;
+				}
+			}
+			lastCount = count;
+		}
+
+		private long getVarLong() {
+			// Most varints are a byte or two, and away from the end of the chunk need no bounds checks.
+			if (end - position >= 10) {
+				byte[] b = bytes;
+				int p = position;
+				byte first = b[p++];
+				if (first >= 0) {
+					position = p;
+					return first;
+				}
+				long v = first & 0x7F;
+				for (int shift = 7; shift < 70; shift += 7) {
+					byte next = b[p++];
+					v |= (long)(next & 0x7F) << shift;
+					if (next >= 0) {
+						position = p;
+						return v;
+					}
+				}
+				throw new IllegalArgumentException("corrupt trajectory chunk");
+			}
+			long v = 0;
+			int shift = 0;
+			while (true) {
+				if (position >= end || shift > 63) {
+					throw new IllegalArgumentException("corrupt trajectory chunk");
+				}
+				byte b = bytes[position++];
+				v |= (long)(b & 0x7F) << shift;
+				if (b >= 0) {
+					return v;
+				}
+				shift += 7;
+			}
+		}
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static boolean equal(int[] a, int[] b, int n) {
+		for (int i = 0; i < n; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
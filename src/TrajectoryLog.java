@@ -0,0 +1,320 @@
+// A TrajectoryLog opens a log written by the TrajectoryRecorder, and reads any tick in it back.
+
+// The file is memory-mapped, so reading a chunk is a copy out of the page cache rather than a
+// series of reads, and a log can be far bigger than the heap. When it is opened, the headers of
+// its chunks are walked to build the index: the first tick, and where, of every chunk. That is one
+// small read per chunk, and needs nothing more written by the recorder.
+//
+// Every chunk starts with a keyframe, so to seek, the index is searched for the chunk holding the
+// tick, and only that chunk is inflated and decoded, from its start up to the tick. Reading the
+// tick after is a single step on from there, so playing forwards costs one tick's decoding per
+// tick. To play backwards without decoding the chunk over and over, the ticks of the current chunk
+// are kept as they are decoded, as many of them as fit in the cache.
+//
+// A log whose recording was cut short is read up to its last whole chunk. A reader is meant for
+// one thread at a time.
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class TrajectoryLog implements Closeable {
+
+	// How much memory the decoded ticks of a chunk may take. A tick takes about 44 bytes a body.
+	public static final long DEFAULT_CACHE_BYTES = 256L << 20;
+
+	// A mapped buffer can't be bigger than 2 GB, so a bigger log is mapped in pieces, each holding whole chunks.
+	private static final long SEGMENT_BYTES = 1L << 30;
+
+	private static final int BYTES_PER_BODY = 4 + TrajectoryCodec.COLUMNS * 8;
+
+	private final File file;
+	private final FileChannel channel;
+	private final double positionQuantum;
+	private final double velocityQuantum;
+	private long cacheBytes = DEFAULT_CACHE_BYTES;
+
+	// The index, one entry per chunk.
+	private int chunks;
+	private long[] chunkFirstTick = new long[64];
+	private int[] chunkTicks = new int[64];
+	private int[] chunkRawLength = new int[64];
+	private int[] chunkCompressedLength = new int[64];
+	private int[] chunkSegment = new int[64];
+	private int[] chunkOffset = new int[64]; // Of the compressed bytes, in the segment.
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private long lastTick;
+	private int maxCount;
+
+	// The chunk being read, inflated, and the decoder's place in it.
+	private final TrajectoryCodec.Decoder decoder;
+	private final Inflater inflater = new Inflater(true);
+	private byte[] compressed = new byte[0];
+	private byte[] raw = new byte[0];
+	private int currentChunk = -1;
+	private TrajectoryCodec.Frame current;
+	private int decoded; // The ticks of the current chunk decoded so far.
+	private final TrajectoryCodec.Frame scratch = new TrajectoryCodec.Frame();
+
+	// The first ticks of the current chunk, as they were decoded.
+	private TrajectoryCodec.Frame[] cache = new TrajectoryCodec.Frame[0];
+	private int cacheLimit;
+
+	// Constructor
+	public TrajectoryLog(File file) throws IOException {
+		if (!file.isFile()) {
+			throw new FileNotFoundException("no such file: " + file);
+		}
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(TrajectoryCodec.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (readFully(header, 0) < TrajectoryCodec.HEADER_BYTES || header.getInt(0) != TrajectoryCodec.MAGIC) {
+				throw new IOException("not a trajectory log: " + file);
+			}
+			int version = header.getInt(4);
+			if (version != TrajectoryCodec.VERSION) {
+				throw new IOException("recorded by a different version (" + version + "): " + file);
+			}
+			positionQuantum = header.getDouble(8);
+			velocityQuantum = header.getDouble(16);
+			decoder = new TrajectoryCodec.Decoder(positionQuantum, velocityQuantum);
+			buildIndex();
+			if (chunks == 0) {
+				throw new IOException("no ticks were recorded in " + file);
+			}
+			// The first tick says how many bodies there are, and so how many ticks fit in the cache.
+			// The last chunk is then read through, for the last tick.
+			read(Long.MIN_VALUE);
+			read(Long.MAX_VALUE);
+			lastTick = current.tick;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getFirstTick() {
+		return chunkFirstTick[0];
+	}
+
+	public long getLastTick() {
+		return lastTick;
+	}
+
+	public int getChunkCount() {
+		return chunks;
+	}
+
+	public double getPositionQuantum() {
+		return positionQuantum;
+	}
+
+	public double getVelocityQuantum() {
+		return velocityQuantum;
+	}
+
+	// How much memory the decoded ticks of a chunk may take; 0 to keep none.
+	public void setCacheBytes(long cacheBytes) {
+		if (cacheBytes < 0) {
+			throw new IllegalArgumentException("cache bytes must not be negative: " + cacheBytes);
+		}
+		this.cacheBytes = cacheBytes;
+		currentChunk = -1;
+	}
+
+	// Copies the last recorded tick at or before the given one into the snapshot, and returns that tick.
+	// Before the first tick, the first is read. The color and flags columns are left to the caller.
+	public long read(long tick, WorldSnapshot snapshot) {
+		TrajectoryCodec.Frame frame = read(tick);
+		int n = frame.count;
+		snapshot.ensureCapacity(n);
+		snapshot.tick = frame.tick;
+		snapshot.count = n;
+		System.arraycopy(frame.id, 0, snapshot.id, 0, n);
+		System.arraycopy(frame.columns[TrajectoryCodec.X], 0, snapshot.x, 0, n);
+		System.arraycopy(frame.columns[TrajectoryCodec.Y], 0, snapshot.y, 0, n);
+		System.arraycopy(frame.columns[TrajectoryCodec.VX], 0, snapshot.vx, 0, n);
+		System.arraycopy(frame.columns[TrajectoryCodec.VY], 0, snapshot.vy, 0, n);
+		System.arraycopy(frame.columns[TrajectoryCodec.RADIUS], 0, snapshot.radius, 0, n);
+		return frame.tick;
+	}
+
+	// The mapping is let go of when it is garbage collected; until then the file stays open on some systems.
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+
+	private TrajectoryCodec.Frame read(long tick) {
+		int c = chunkFor(tick);
+		if (c != currentChunk) {
+			load(c);
+		}
+		// Kept from when the chunk was decoded: going backwards, or back to a tick already passed.
+		int cached = Math.min(decoded, cacheLimit);
+		if (cached > 0 && cache[cached - 1].tick >= tick) {
+			int low = 0;
+			int high = cached - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (cache[middle].tick <= tick) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return cache[low];
+		}
+		// Further back than the cache goes: start the chunk again.
+		if (decoded > 0 && current.tick > tick) {
+			decoder.reset(raw, chunkRawLength[c], chunkFirstTick[c]);
+			decoded = 0;
+		}
+		while (decoder.hasNext() && (decoded == 0 || decoder.nextTick() <= tick)) {
+			current = decoded < cacheLimit ? cache[decoded] : scratch;
+			decoder.next(current);
+			decoded++;
+			maxCount = Math.max(maxCount, current.count);
+		}
+		return current;
+	}
+
+	// The last chunk starting at or before the tick, or the first chunk.
+	private int chunkFor(long tick) {
+		int i = Arrays.binarySearch(chunkFirstTick, 0, chunks, tick);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		return Math.max(i, 0);
+	}
+
+	// Inflates the chunk, and starts decoding it from its keyframe.
+	private void load(int c) {
+		int length = chunkCompressedLength[c];
+		if (compressed.length < length) {
+			compressed = new byte[length];
+		}
+		if (raw.length < chunkRawLength[c]) {
+			raw = new byte[chunkRawLength[c]];
+		}
+		ByteBuffer segment = segments.get(chunkSegment[c]).duplicate();
+		segment.position(chunkOffset[c]);
+		segment.get(compressed, 0, length);
+		inflater.reset();
+		inflater.setInput(compressed, 0, length);
+		try {
+			int inflated = 0;
+			while (inflated < chunkRawLength[c] && !inflater.finished()) {
+				int n = inflater.inflate(raw, inflated, chunkRawLength[c] - inflated);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += n;
+			}
+			if (inflated != chunkRawLength[c]) {
+				throw new IllegalArgumentException("corrupt trajectory chunk at tick " + chunkFirstTick[c]);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("corrupt trajectory chunk at tick " + chunkFirstTick[c], e);
+		}
+
+		currentChunk = -1;
+		decoder.reset(raw, chunkRawLength[c], chunkFirstTick[c]);
+		decoded = 0;
+		// Until a tick has been read, there is no telling how big they are, so none are kept.
+		cacheLimit = maxCount == 0 ? 0 : (int)Math.min(chunkTicks[c], cacheBytes / ((long)maxCount * BYTES_PER_BODY));
+		if (cache.length < cacheLimit) {
+			int had = cache.length;
+			cache = Arrays.copyOf(cache, cacheLimit);
+			for (int i = had; i < cacheLimit; i++) {
+				cache[i] = new TrajectoryCodec.Frame();
+			}
+		}
+		currentChunk = c;
+	}
+
+	// Walks the chunk headers, and maps the file in segments of whole chunks.
+	private void buildIndex() throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(TrajectoryCodec.CHUNK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		long position = TrajectoryCodec.HEADER_BYTES;
+		long segmentStart = position;
+		long lastFirstTick = Long.MIN_VALUE;
+		while (position + TrajectoryCodec.CHUNK_HEADER_BYTES <= size) {
+			header.clear();
+			if (readFully(header, position) < TrajectoryCodec.CHUNK_HEADER_BYTES
+					|| header.getInt(0) != TrajectoryCodec.CHUNK_MAGIC) {
+				break;
+			}
+			long firstTick = header.getLong(4);
+			int ticks = header.getInt(12);
+			int rawLength = header.getInt(16);
+			int compressedLength = header.getInt(20);
+			long end = position + TrajectoryCodec.CHUNK_HEADER_BYTES + compressedLength;
+			if (ticks <= 0 || rawLength <= 0 || compressedLength < 0 || end > size || firstTick <= lastFirstTick) {
+				// Cut short, or not written by a recorder: keep the chunks before.
+				break;
+			}
+			if (end - segmentStart > SEGMENT_BYTES && chunks > 0) {
+				mapSegment(segmentStart, position);
+				segmentStart = position;
+			}
+			if (chunks == chunkFirstTick.length) {
+				int capacity = chunks * 2;
+				chunkFirstTick = Arrays.copyOf(chunkFirstTick, capacity);
+				chunkTicks = Arrays.copyOf(chunkTicks, capacity);
+				chunkRawLength = Arrays.copyOf(chunkRawLength, capacity);
+				chunkCompressedLength = Arrays.copyOf(chunkCompressedLength, capacity);
+				chunkSegment = Arrays.copyOf(chunkSegment, capacity);
+				chunkOffset = Arrays.copyOf(chunkOffset, capacity);
+			}
+			chunkFirstTick[chunks] = firstTick;
+			chunkTicks[chunks] = ticks;
+			chunkRawLength[chunks] = rawLength;
+			chunkCompressedLength[chunks] = compressedLength;
+			chunkSegment[chunks] = segments.size();
+			chunkOffset[chunks] = (int)(position + TrajectoryCodec.CHUNK_HEADER_BYTES - segmentStart);
+			chunks++;
+			lastFirstTick = firstTick;
+			position = end;
+		}
+		if (chunks > 0) {
+			mapSegment(segmentStart, position);
+		}
+	}
+
+	private void mapSegment(long from, long to) throws IOException {
+		if (to - from > Integer.MAX_VALUE) {
+			throw new IOException("a chunk is too big to read: " + file);
+		}
+		segments.add(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from));
+	}
+
+	private int readFully(ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,136 @@
+// A TrajectoryPlayer plays a recorded run back, from a TrajectoryLog, as a SnapshotSource for the SceneCanvas.
+
+// Nothing is simulated. The player keeps a clock: the tick shown at some moment, and how many
+// ticks pass per second from then on, which may be fewer or more than the engine's 125, or
+// negative to play backwards. Each time the canvas asks for a snapshot the clock says which tick
+// that is, and only when it is a different tick from last time is the log read. So a paused
+// player costs nothing, and one playing at normal speed decodes about one tick per frame drawn.
+//
+// The log only holds where the bodies were and how they moved, so every body is drawn in white.
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TrajectoryPlayer implements SnapshotSource, Closeable {
+
+	// The rate the engine runs at, and so the rate a recording plays back at, at normal speed.
+	public static final double TICKS_PER_SECOND = 1000.0 / SimulationEngine.TICK_MILLIS;
+
+	private static final int BODY_COLOR = Color.WHITE.getRGB();
+
+	private final TrajectoryLog log;
+	private final WorldSnapshot snapshot = new WorldSnapshot();
+	private boolean loaded;
+	private int readers;
+
+	// The clock. The tick being shown was anchorTick at anchorNanos, and moves on speed times normal speed.
+	private double anchorTick;
+	private long anchorNanos;
+	private double speed = 1;
+	private boolean playing;
+
+	// Constructor
+	public TrajectoryPlayer(TrajectoryLog log) {
+		this.log = log;
+		this.anchorTick = log.getFirstTick();
+		this.anchorNanos = System.nanoTime();
+	}
+
+	public TrajectoryLog getLog() {
+		return log;
+	}
+
+	public synchronized boolean isPlaying() {
+		return playing;
+	}
+
+	public synchronized void play() {
+		if (playing) {
+			return;
+		}
+		long now = System.nanoTime();
+		// Played to the end: start again from the other end.
+		if (speed > 0 && anchorTick >= log.getLastTick()) {
+			anchorTick = log.getFirstTick();
+		} else if (speed < 0 && anchorTick <= log.getFirstTick()) {
+			anchorTick = log.getLastTick();
+		}
+		anchorNanos = now;
+		playing = true;
+	}
+
+	public synchronized void pause() {
+		if (!playing) {
+			return;
+		}
+		anchorTick = position(System.nanoTime());
+		playing = false;
+	}
+
+	public synchronized double getSpeed() {
+		return speed;
+	}
+
+	// Times normal speed: 2 for twice as fast, 0.5 for slow motion, -1 to play backwards.
+	public synchronized void setSpeed(double speed) {
+		if (Double.isNaN(speed) || Double.isInfinite(speed)) {
+			throw new IllegalArgumentException("speed must be a finite number: " + speed);
+		}
+		long now = System.nanoTime();
+		anchorTick = position(now);
+		anchorNanos = now;
+		this.speed = speed;
+	}
+
+	// Jumps to the tick, and carries on playing from there if the player was playing.
+	public synchronized void seek(long tick) {
+		anchorTick = Math.max(log.getFirstTick(), Math.min(log.getLastTick(), tick));
+		anchorNanos = System.nanoTime();
+	}
+
+	// The tick the clock is at now. The tick shown is the last one recorded at or before it.
+	public synchronized long getTick() {
+		return (long)position(System.nanoTime());
+	}
+
+	// Returns the snapshot for the tick the clock is at. While it is held, it is not changed.
+	public synchronized WorldSnapshot acquire() {
+		long now = System.nanoTime();
+		long tick = (long)position(now);
+		if (playing && (speed > 0 ? tick >= log.getLastTick() : speed < 0 && tick <= log.getFirstTick())) {
+			// Stop at the end, rather than showing it forever while playing.
+			anchorTick = tick;
+			playing = false;
+		}
+		if (readers == 0 && (!loaded || tick != snapshot.tick)) {
+			log.read(tick, snapshot);
+			Arrays.fill(snapshot.color, 0, snapshot.count, BODY_COLOR);
+			Arrays.fill(snapshot.flags, 0, snapshot.count, 0);
+			// Between two recorded ticks, after ones that were dropped, hold the last of them.
+			snapshot.tick = tick;
+			snapshot.solver = "Replay";
+			loaded = true;
+		}
+		readers++;
+		return snapshot;
+	}
+
+	public synchronized void release(WorldSnapshot snapshot) {
+		readers--;
+	}
+
+	// Closes the log. Take the player off the canvas first.
+	public synchronized void close() throws IOException {
+		log.close();
+	}
+
+	private double position(long now) {
+		if (!playing) {
+			return anchorTick;
+		}
+		double tick = anchorTick + (now - anchorNanos) / 1e9 * TICKS_PER_SECOND * speed;
+		return Math.max(log.getFirstTick(), Math.min(log.getLastTick(), tick));
+	}
+}
@@ -0,0 +1,339 @@
+// The TrajectoryRecorder writes where every body is, and how it moves, at every tick, to a log for later study.
+
+// It listens to the engine. On the engine's thread it only copies the positions, velocities and
+// radii into a free frame from a small, fixed ring of them, and hands the frame on. A background
+// thread does the rest: it encodes the frames into chunks (see TrajectoryCodec), has each chunk
+// compressed on the common fork-join pool while it encodes the next, and appends the chunks to the
+// log in order. Nothing is allocated per tick once the ring and the chunk buffers have grown to fit.
+//
+// If the writer falls behind and every frame in the ring is full, the policy decides: DROP skips
+// the tick, so recording never slows the simulation down, and BLOCK waits for a free frame, so no
+// tick is ever missed. Dropped ticks are counted, and a gap in the ticks shows where they were.
+//
+// If writing fails, for example because the disk is full, the recorder stops recording, and the
+// error is thrown from close().
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+public class TrajectoryRecorder implements SnapshotListener {
+
+	public enum OverflowPolicy { DROP, BLOCK }
+
+	public static final int DEFAULT_RING_FRAMES = 8;
+	public static final int DEFAULT_CHUNK_TICKS = 32;
+
+	// About a thousandth of a pixel, and a sixty-thousandth of a pixel per tick: powers of two, so they are exact.
+	// Velocities change a lot from tick to tick in a crowd, so every bit finer costs a bit on every body in every tick.
+	public static final double DEFAULT_POSITION_QUANTUM = 1.0 / 1024;
+	public static final double DEFAULT_VELOCITY_QUANTUM = 1.0 / 65536;
+
+	// Put on the queue to tell the writer to finish.
+	private static final TrajectoryCodec.Frame END = new TrajectoryCodec.Frame();
+
+	private final File file;
+	private volatile OverflowPolicy policy = OverflowPolicy.DROP;
+	private int ringFrames = DEFAULT_RING_FRAMES;
+	private int chunkTicks = DEFAULT_CHUNK_TICKS;
+	private double positionQuantum = DEFAULT_POSITION_QUANTUM;
+	private double velocityQuantum = DEFAULT_VELOCITY_QUANTUM;
+	private int compressionLevel = Deflater.BEST_SPEED;
+
+	// Empty frames waiting to be filled, and full ones waiting to be written.
+	private BlockingQueue<TrajectoryCodec.Frame> free;
+	private BlockingQueue<TrajectoryCodec.Frame> filled;
+
+	private Thread writer;
+	private boolean closed;
+	private volatile boolean recording;
+	private volatile IOException failure;
+	private volatile long ticksRecorded;
+	private volatile long ticksDropped;
+	private volatile long bytesWritten;
+
+	// Constructor
+	public TrajectoryRecorder(File file) {
+		this.file = file;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(OverflowPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("policy must not be null");
+		}
+		this.policy = policy;
+	}
+
+	// The number of frames in the ring. Set before start().
+	public void setRingFrames(int ringFrames) {
+		if (ringFrames < 1) {
+			throw new IllegalArgumentException("ring frames must be at least 1: " + ringFrames);
+		}
+		this.ringFrames = ringFrames;
+	}
+
+	// The number of ticks in each chunk. Longer chunks compress better; shorter ones are quicker to seek in. Set before start().
+	public void setChunkTicks(int chunkTicks) {
+		if (chunkTicks < 1) {
+			throw new IllegalArgumentException("chunk ticks must be at least 1: " + chunkTicks);
+		}
+		this.chunkTicks = chunkTicks;
+	}
+
+	// How finely positions (and radii), and velocities, are recorded. Set before start().
+	public void setQuanta(double positionQuantum, double velocityQuantum) {
+		if (!(positionQuantum > 0) || !(velocityQuantum > 0)) {
+			throw new IllegalArgumentException("quanta must be positive");
+		}
+		this.positionQuantum = positionQuantum;
+		this.velocityQuantum = velocityQuantum;
+	}
+
+	// From Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION. Set before start().
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("no such compression level: " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getTicksRecorded() {
+		return ticksRecorded;
+	}
+
+	public long getTicksDropped() {
+		return ticksDropped;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	// Creates the log, writes its header, and starts the writer. Add the recorder to an engine afterwards.
+	public synchronized void start() throws IOException {
+		if (writer != null) {
+			throw new IllegalStateException("already started");
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("can't make the directory " + parent);
+		}
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		ByteBuffer header = ByteBuffer.allocate(TrajectoryCodec.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(TrajectoryCodec.MAGIC);
+		header.putInt(TrajectoryCodec.VERSION);
+		header.putDouble(positionQuantum);
+		header.putDouble(velocityQuantum);
+		try {
+			out.write(header.array());
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		bytesWritten = TrajectoryCodec.HEADER_BYTES;
+
+		free = new ArrayBlockingQueue<TrajectoryCodec.Frame>(ringFrames);
+		filled = new ArrayBlockingQueue<TrajectoryCodec.Frame>(ringFrames + 1); // Room for END.
+		for (int i = 0; i < ringFrames; i++) {
+			free.add(new TrajectoryCodec.Frame());
+		}
+		recording = true;
+		writer = new Thread("Trajectory Recorder") {
+			public void run() {
+				writeLoop(out);
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	// Called on the engine's thread. Copies the tick into a free frame, or drops it, or waits for one.
+	public void snapshotPublished(WorldSnapshot snapshot) {
+		if (!recording) {
+			return;
+		}
+		TrajectoryCodec.Frame frame;
+		if (policy == OverflowPolicy.BLOCK) {
+			try {
+				frame = free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		} else {
+			frame = free.poll();
+			if (frame == null) {
+				ticksDropped++;
+				return;
+			}
+		}
+		frame.copyFrom(snapshot);
+		filled.add(frame);
+	}
+
+	// Stops recording, waits for every tick already taken to be written, and closes the log.
+	// Remove the recorder from the engine first, or call this from the engine's thread.
+	public void close() throws IOException {
+		Thread writerThread;
+		synchronized (this) {
+			if (writer == null || closed) {
+				writerThread = null;
+			} else {
+				closed = true;
+				recording = false;
+				filled.add(END);
+				writerThread = writer;
+			}
+		}
+		if (writerThread != null) {
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void writeLoop(OutputStream out) {
+		TrajectoryCodec.Encoder encoder = new TrajectoryCodec.Encoder(positionQuantum, velocityQuantum);
+		ByteBuffer chunkHeader = ByteBuffer.allocate(TrajectoryCodec.CHUNK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		ArrayDeque<Chunk> compressing = new ArrayDeque<Chunk>();
+		ArrayDeque<Chunk> spare = new ArrayDeque<Chunk>();
+		int maxCompressing = ForkJoinPool.commonPool().getParallelism() + 1;
+		try {
+			while (true) {
+				TrajectoryCodec.Frame frame = filled.take();
+				if (frame == END) {
+					break;
+				}
+				if (failure == null) {
+					try {
+						encoder.add(frame);
+						ticksRecorded++;
+						if (encoder.getFrames() >= chunkTicks) {
+							compressing.add(compress(encoder, spare));
+						}
+						// Write the chunks that are done, in order, and wait for the oldest if too many are still going.
+						while (!compressing.isEmpty() && (compressing.peek().done.isDone() || compressing.size() > maxCompressing)) {
+							Chunk chunk = compressing.poll();
+							writeChunk(out, chunk, chunkHeader);
+							spare.add(chunk);
+						}
+					} catch (IOException e) {
+						// Keep handing the frames back, so a BLOCK recorder never waits forever.
+						failure = e;
+						recording = false;
+					}
+				}
+				free.add(frame);
+			}
+			if (failure == null) {
+				if (encoder.getFrames() > 0) {
+					compressing.add(compress(encoder, spare));
+				}
+				while (!compressing.isEmpty()) {
+					writeChunk(out, compressing.poll(), chunkHeader);
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			failure = new IOException("recording interrupted", e);
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	// Takes the encoder's chunk, leaving it empty, and starts compressing it on the common pool.
+	private Chunk compress(TrajectoryCodec.Encoder encoder, ArrayDeque<Chunk> spare) {
+		Chunk chunk = spare.isEmpty() ? new Chunk() : spare.poll();
+		chunk.firstTick = encoder.getFirstTick();
+		chunk.ticks = encoder.getFrames();
+		chunk.rawLength = encoder.getLength();
+		chunk.raw = encoder.swapBytes(chunk.raw);
+		int level = compressionLevel;
+		chunk.done = ForkJoinPool.commonPool().submit(() -> chunk.deflate(level));
+		return chunk;
+	}
+
+	// Waits for the chunk to be compressed, then appends it to the log.
+	private void writeChunk(OutputStream out, Chunk chunk, ByteBuffer chunkHeader) throws IOException, InterruptedException {
+		try {
+			chunk.done.get();
+		} catch (ExecutionException e) {
+			throw new IOException("couldn't compress a chunk", e.getCause());
+		}
+		chunkHeader.clear();
+		chunkHeader.putInt(TrajectoryCodec.CHUNK_MAGIC);
+		chunkHeader.putLong(chunk.firstTick);
+		chunkHeader.putInt(chunk.ticks);
+		chunkHeader.putInt(chunk.rawLength);
+		chunkHeader.putInt(chunk.compressedLength);
+		out.write(chunkHeader.array());
+		out.write(chunk.compressed, 0, chunk.compressedLength);
+		bytesWritten += TrajectoryCodec.CHUNK_HEADER_BYTES + chunk.compressedLength;
+	}
+
+	// A chunk of encoded ticks, on its way to the log. Its buffers are used again for later chunks.
+	private static class Chunk {
+		long firstTick;
+		int ticks;
+		byte[] raw;
+		int rawLength;
+		byte[] compressed = new byte[1 << 16];
+		int compressedLength;
+		Future<?> done;
+
+		// At BEST_SPEED only Huffman coding is used. After the deltas nearly every value is a single
+		// small byte, so the slower search for repeated strings finds little, and costs twice the time.
+		void deflate(int level) {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				if (level == Deflater.BEST_SPEED) {
+					deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+				}
+				deflater.setInput(raw, 0, rawLength);
+				deflater.finish();
+				int length = 0;
+				while (!deflater.finished()) {
+					if (length == compressed.length) {
+						compressed = Arrays.copyOf(compressed, compressed.length * 2);
+					}
+					length += deflater.deflate(compressed, length, compressed.length - length);
+				}
+				compressedLength = length;
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
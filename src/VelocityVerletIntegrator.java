@@ -0,0 +1,81 @@
+// The VelocityVerletIntegrator moves the bodies with the velocity Verlet method.
+
+// The position moves by v dt + a dt^2 / 2, then the velocity moves by the average of the
+// acceleration before and after the move. This is the same second order, time-reversible scheme as
+// the leapfrog written the other way round, so it is just as stable. The difference is that the
+// velocity is never stored half a step out of date, which matters to anything that reads it
+// while the step is in progress. It needs one force evaluation per step, plus one more column.
+
+import java.util.concurrent.ForkJoinPool;
+
+public class VelocityVerletIntegrator implements Integrator {
+
+	// The acceleration at the start of the step.
+	private double[] previousAx = new double[0];
+	private double[] previousAy = new double[0];
+
+	public String getName() {
+		return "Velocity Verlet";
+	}
+
+	public void step(BodyStore store, int n, double dt, Forces forces, ForkJoinPool pool) {
+		if (!store.accelerationCurrent) {
+			forces.evaluate();
+		}
+		if (previousAx.length < n) {
+			previousAx = new double[n];
+			previousAy = new double[n];
+		}
+		double[] oldAx = previousAx;
+		double[] oldAy = previousAy;
+		double halfStep = dt / 2;
+
+		// Move the positions, and remember the acceleration they were moved with.
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			store.wrapPositions(from, to);
+			double[] x = store.x;
+			double[] y = store.y;
+			double[] vx = store.vx;
+			double[] vy = store.vy;
+			double[] ax = store.ax;
+			double[] ay = store.ay;
+			double[] nextX = store.nextX;
+			double[] nextY = store.nextY;
+			double[] nextVx = store.nextVx;
+			double[] nextVy = store.nextVy;
+			int[] flags = store.flags;
+
+			for (int i = from; i < to; i++) {
+				if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+					nextX[i] = x[i] + (vx[i] + ax[i] * halfStep) * dt;
+					nextY[i] = y[i] + (vy[i] + ay[i] * halfStep) * dt;
+				} else {
+					nextX[i] = x[i] + ax[i] * dt * dt;
+					nextY[i] = y[i] + ay[i] * dt * dt;
+				}
+				nextVx[i] = vx[i];
+				nextVy[i] = vy[i];
+				oldAx[i] = ax[i];
+				oldAy[i] = ay[i];
+			}
+		});
+		store.swapBuffers();
+
+		// Move the velocities by the average acceleration over the step.
+		forces.evaluate();
+		ParallelLoop.forEach(pool, n, (from, to) -> {
+			double[] vx = store.vx;
+			double[] vy = store.vy;
+			double[] ax = store.ax;
+			double[] ay = store.ay;
+			int[] flags = store.flags;
+
+			for (int i = from; i < to; i++) {
+				if ((flags[i] & BodyStore.FLAG_INERTIA) != 0) {
+					vx[i] += (oldAx[i] + ax[i]) * halfStep;
+					vy[i] += (oldAy[i] + ay[i]) * halfStep;
+				}
+			}
+		});
+	}
+}
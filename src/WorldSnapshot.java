@@ -0,0 +1,113 @@
+// A WorldSnapshot is a complete copy of what every body looked like at the end of one tick.
+
+// The SimulationEngine fills snapshots and publishes them through a SnapshotBuffer. Once a
+// snapshot has been published it is never written again until every reader has released it,
+// so the renderer and recorders always see a consistent world, never a half-finished tick.
+
+public class WorldSnapshot {
+
+	// The tick this snapshot was taken at the end of.
+	long tick;
+
+	// The number of bodies. Only the first count entries of each column are valid.
+	int count;
+
+	double[] x = new double[0];
+	double[] y = new double[0];
+	double[] vx = new double[0];
+	double[] vy = new double[0];
+	double[] radius = new double[0];
+	int[] id = new int[0];
+	int[] flags = new int[0];
+	int[] color = new int[0]; // As packed by Color.getRGB().
+
+	// The name of the solver that worked the tick out, or of where it came from instead.
+	String solver;
+
+	public long getTick() {
+		return tick;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public String getSolverName() {
+		return solver;
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public double getVelocityX(int i) {
+		return vx[i];
+	}
+
+	public double getVelocityY(int i) {
+		return vy[i];
+	}
+
+	public double getRadius(int i) {
+		return radius[i];
+	}
+
+	public int getId(int i) {
+		return id[i];
+	}
+
+	public int getFlags(int i) {
+		return flags[i];
+	}
+
+	public int getColor(int i) {
+		return color[i];
+	}
+
+	// Makes room for n bodies. The contents of the columns are not kept.
+	void ensureCapacity(int n) {
+		if (x.length >= n) {
+			return;
+		}
+		int capacity = Math.max(n, x.length * 2);
+		x = new double[capacity];
+		y = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		radius = new double[capacity];
+		id = new int[capacity];
+		flags = new int[capacity];
+		color = new int[capacity];
+	}
+
+	// Copies rows [from, to) of the store. The color column is left to the caller.
+	void copyFrom(BodyStore store, int from, int to) {
+		System.arraycopy(store.x, from, x, from, to - from);
+		System.arraycopy(store.y, from, y, from, to - from);
+		System.arraycopy(store.vx, from, vx, from, to - from);
+		System.arraycopy(store.vy, from, vy, from, to - from);
+		System.arraycopy(store.radius, from, radius, from, to - from);
+		System.arraycopy(store.id, from, id, from, to - from);
+		System.arraycopy(store.flags, from, flags, from, to - from);
+	}
+
+	// Copies another snapshot into this one.
+	void copyFrom(WorldSnapshot other) {
+		ensureCapacity(other.count);
+		tick = other.tick;
+		count = other.count;
+		solver = other.solver;
+		System.arraycopy(other.x, 0, x, 0, count);
+		System.arraycopy(other.y, 0, y, 0, count);
+		System.arraycopy(other.vx, 0, vx, 0, count);
+		System.arraycopy(other.vy, 0, vy, 0, count);
+		System.arraycopy(other.radius, 0, radius, 0, count);
+		System.arraycopy(other.id, 0, id, 0, count);
+		System.arraycopy(other.flags, 0, flags, 0, count);
+		System.arraycopy(other.color, 0, color, 0, count);
+	}
+}